@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import client.Board;
+import common.Constants;
+import server.BoardScheduler;
+
+/**
+ * Measures how BoardScheduler.step scales with the number of worker threads, by
+ * stepping the same set of boards with 1, 2, 4, ... workers up to the number of
+ * processors. Each board is a copy of one board file topped up with balls (see
+ * BoardUpdateBenchmark.makeBoard), and the boards are made again before every
+ * iteration so that each iteration starts from the same state.
+ *
+ * Usage: BoardSchedulerBenchmark [BOARD [BOARDS [BALLS]]]
+ *
+ * BOARD defaults to boards/staffboard1.pb, BOARDS (the number of copies) to 16 and
+ * BALLS (per board) to 100. Run from the project root, with -Dquick for shorter
+ * iterations.
+ */
+public class BoardSchedulerBenchmark {
+
+    /**
+     * Run the benchmarks
+     * @param args see the class comment
+     * @throws Exception if a board can't be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        final File file = new File(args.length > 0 ? args[0] : "boards/staffboard1.pb");
+        final int copies = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int balls = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        Harness harness = new Harness();
+        double serial = 0;
+        for (int workers = 1; ; workers = Math.min(2 * workers, processors)) {
+            final BoardScheduler scheduler = new BoardScheduler(workers, false);
+            final List<Board> boards = new ArrayList<Board>();
+            double nanos = harness.run(copies + "x" + file.getName() + " " + balls + " balls, " + workers + " workers",
+                    new Runnable() {
+                        public void run() {
+                            boards.clear();
+                            for (int i = 0; i < copies; i++) {
+                                boards.add(BoardUpdateBenchmark.makeBoard(file, balls));
+                            }
+                        }
+                    }, new Harness.Benchmark() {
+                        public Object run() {
+                            scheduler.step(boards, Constants.TIMESTEP);
+                            return boards;
+                        }
+                    });
+            if (workers == 1) {
+                serial = nanos;
+            }
+            System.out.println(String.format("    %.2fx the speed of 1 worker; %s", serial / nanos, scheduler));
+            scheduler.shutdown();
+            if (workers == processors) {
+                break;
+            }
+        }
+    }
+}
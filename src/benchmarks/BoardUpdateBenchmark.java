@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import client.Ball;
+import client.Board;
+import client.Parser;
+import common.Constants;
+
+/**
+ * Measures Board.update(Constants.TIMESTEP) on boards from boards/ holding 1, 10, 100
+ * and 1000 balls. This is the baseline to compare engine changes against.
+ *
+ * Before every iteration the board is parsed again and topped up with balls, counting
+ * the balls in the file, so that each iteration starts from the same state. Added balls
+ * start at random free quarter-cells away from the outer walls (the same ones on every
+ * run) with random velocities of up to 8 L/s in each direction; at 1000 balls the board
+ * is about three-quarters full.
+ *
+ * Boards this crowded occasionally push a ball through a wall, and update then throws.
+ * When that happens the benchmark carries on with a spare copy of the starting board,
+ * made during the setup, and the number of such restarts is reported, along with how
+ * many gadget collision checks the last update skipped because the ball couldn't reach
+ * the gadget (see Board.getGadgetChecksSkipped).
+ *
+ * Usage: BoardUpdateBenchmark [BOARD...]
+ *
+ * BOARD defaults to boards/staffboard1.pb boards/staffboard2.pb boards/sampleBoard7.pb.
+ * Run from the project root, with -Dquick for shorter iterations.
+ */
+public class BoardUpdateBenchmark {
+
+    private static final int[] BALL_COUNTS = { 1, 10, 100, 1000 };
+    private static final String[] DEFAULT_BOARDS = {
+        "boards/staffboard1.pb", "boards/staffboard2.pb", "boards/sampleBoard7.pb"
+    };
+    private static final long SEED = 6005;
+    private static final int BOARD_SIZE = 20; // boards are 20 L square
+    private static final int SPARE_BOARDS = 4;
+
+    /**
+     * Run the benchmarks
+     * @param args see the class comment
+     * @throws Exception if a board can't be loaded or updated
+     */
+    public static void main(String[] args) throws Exception {
+        String[] boards = args.length > 0 ? args : DEFAULT_BOARDS;
+        Harness harness = new Harness();
+        for (String path : boards) {
+            final File file = new File(path);
+            for (final int count : BALL_COUNTS) {
+                final Board[] board = new Board[1];
+                final List<Board> spares = new ArrayList<Board>();
+                final int[] restarts = { 0 };
+                double nanos = harness.run(file.getName() + " " + count + " balls", new Runnable() {
+                    public void run() {
+                        board[0] = makeBoard(file, count);
+                        spares.clear();
+                        for (int i = 0; i < SPARE_BOARDS; i++) {
+                            spares.add(makeBoard(file, count));
+                        }
+                    }
+                }, new Harness.Benchmark() {
+                    public Object run() {
+                        try {
+                            board[0].update(Constants.TIMESTEP);
+                        } catch (RuntimeException e) {
+                            // a ball escaped; the board is left half updated
+                            restarts[0]++;
+                            board[0] = spares.isEmpty() ? makeBoard(file, count) : spares.remove(spares.size() - 1);
+                        }
+                        return board[0];
+                    }
+                });
+                int checks = board[0].getGadgetChecks();
+                int skipped = board[0].getGadgetChecksSkipped();
+                System.out.println(String.format("    %.0f updates/s, %.0f ball updates/s, %d restarts, %d of %d gadget checks skipped",
+                        1e9 / nanos, count * 1e9 / nanos, restarts[0], skipped, checks + skipped));
+            }
+        }
+    }
+
+    /**
+     * Load a board and add balls until it holds count balls
+     * @param file the board file
+     * @param count the number of balls the board should hold
+     * @return the board
+     */
+    static Board makeBoard(File file, int count) {
+        Board board = Parser.makeBoard(file);
+        char[][] rep = board.getBoardRep();
+        List<double[]> spots = new ArrayList<double[]>();
+        for (int y = 0; y < BOARD_SIZE; y++) {
+            for (int x = 0; x < BOARD_SIZE; x++) {
+                if (rep[y + 1][x + 1] == ' ') {
+                    for (double dy = 0.25; dy < 1; dy += 0.5) {
+                        for (double dx = 0.25; dx < 1; dx += 0.5) {
+                            if (x + dx > 0.25 && x + dx < BOARD_SIZE - 0.25 && y + dy > 0.25 && y + dy < BOARD_SIZE - 0.25) {
+                                spots.add(new double[] { x + dx, y + dy });
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Random random = new Random(SEED);
+        Collections.shuffle(spots, random);
+        int needed = count - board.getBalls().size();
+        if (needed > spots.size()) {
+            throw new IllegalArgumentException(file + " has room for only " + spots.size() + " more balls");
+        }
+        for (int i = 0; i < needed; i++) {
+            double[] spot = spots.get(i);
+            board.addBall(new Ball("bench" + i, spot[0], spot[1],
+                    16 * random.nextDouble() - 8, 16 * random.nextDouble() - 8));
+        }
+        return board;
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Random;
+
+import client.Ball;
+import client.Board;
+import client.gadgets.Absorber;
+import client.gadgets.CircleBumper;
+import client.gadgets.Gadget;
+import client.gadgets.LeftFlipper;
+import client.gadgets.SquareBumper;
+import client.gadgets.TriangleBumper;
+import client.gadgets.Wall;
+import common.Constants;
+import common.Constants.BoardSide;
+
+/**
+ * Measures Gadget.timeUntilCollision, the kernel Board.update calls for every ball and
+ * gadget near it, for each kind of gadget that computes it differently: once with no
+ * limit on the time, and once limited to one timestep, as Board.update asks it.
+ *
+ * Each benchmark asks one gadget, in turn, about a fixed set of balls placed at random
+ * within a few L of it and moving in random directions at up to 20 L/s, so that some of
+ * them are about to hit it and some are moving away. Flippers are measured both at rest
+ * and while they are turning.
+ *
+ * Usage: GadgetCollisionBenchmark
+ * Run with -Dquick for shorter iterations.
+ */
+public class GadgetCollisionBenchmark {
+
+    private static final int BALLS = 64;
+    private static final double NEAR = 3; // L around the gadget that balls are placed in
+
+    /**
+     * Run the benchmarks
+     * @param args unused
+     * @throws Exception if a gadget can't be made
+     */
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness();
+        measure(harness, new CircleBumper("circle", 10, 10));
+        measure(harness, new SquareBumper("square", 10, 10));
+        measure(harness, new TriangleBumper("triangle", 10, 10, 0));
+        measure(harness, new LeftFlipper("flipper", 10, 10, 0));
+        LeftFlipper turning = new LeftFlipper("turning", 10, 10, 0);
+        turning.action(new Board("benchmark", 0, 0, 0, new Hashtable<String, ArrayList<String>>(),
+                new Hashtable<String, ArrayList<String>>()));
+        turning.advance(Constants.TIMESTEP / 2);
+        measure(harness, "LeftFlipper (turning)", turning);
+        measure(harness, new Absorber("absorber", 8, 10, 5, 2));
+        measure(harness, new Wall(BoardSide.TOP));
+    }
+
+    /**
+     * Benchmark gadget.timeUntilCollision, with and without a time limit, on balls
+     * around gadget
+     */
+    private static void measure(Harness harness, Gadget gadget) throws Exception {
+        measure(harness, gadget.getClass().getSimpleName(), gadget);
+    }
+
+    /**
+     * Benchmark gadget.timeUntilCollision, with and without a time limit, on balls
+     * around gadget, naming the benchmarks after name
+     */
+    private static void measure(Harness harness, String name, final Gadget gadget) throws Exception {
+        Random random = new Random(6005);
+        int[] size = gadget.getSize();
+        double x = gadget.getOrigin().x();
+        double y = gadget.getOrigin().y();
+        final Ball[] balls = new Ball[BALLS];
+        for (int i = 0; i < BALLS; i++) {
+            // walls are at the edge of the board, so keep those balls inside it
+            double bx = Math.max(0.5, x - NEAR + (size[0] + 2 * NEAR) * random.nextDouble());
+            double by = Math.max(0.5, y - NEAR + (size[1] + 2 * NEAR) * random.nextDouble());
+            balls[i] = new Ball("ball" + i, bx, by, 40 * random.nextDouble() - 20, 40 * random.nextDouble() - 20);
+        }
+
+        final int[] next = { 0 };
+        harness.run(name + ".timeUntilCollision", new Harness.Benchmark() {
+            public Object run() {
+                next[0] = (next[0] + 1) % balls.length;
+                return gadget.timeUntilCollision(balls[next[0]]);
+            }
+        });
+        harness.run(name + ".timeUntilCollision(TIMESTEP)", new Harness.Benchmark() {
+            public Object run() {
+                next[0] = (next[0] + 1) % balls.length;
+                return gadget.timeUntilCollision(balls[next[0]], Constants.TIMESTEP);
+            }
+        });
+    }
+}
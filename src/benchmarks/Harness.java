@@ -0,0 +1,151 @@
+package benchmarks;
+
+/**
+ * A small microbenchmark runner, standing in for JMH, which this project doesn't ship.
+ * It follows the JMH recipe in a single JVM: a benchmark is run in warmup iterations
+ * until the JIT has compiled it, then in measurement iterations of fixed length, and
+ * every result is written to a volatile sink so that the JIT can't drop the work.
+ * Each iteration calls the benchmark in batches sized so that reading the clock
+ * costs next to nothing. Benchmarks whose state drifts as they run can be given a
+ * setup that is run, untimed, before every iteration, like a JMH Level.Iteration setup.
+ *
+ * Results are printed one line per benchmark, in nanoseconds per call:
+ * the mean over the measurement iterations and the fastest and slowest iteration.
+ *
+ * Thread Safety Argument:
+ * * Harnesses are meant to be used by one thread. The configuration is immutable.
+ *
+ * Rep Invariant:
+ * * warmupIterations >= 0, measurementIterations > 0, iterationNanos > 0
+ */
+public class Harness {
+
+    /**
+     * One benchmarked operation.
+     */
+    public interface Benchmark {
+        /**
+         * Do the operation once.
+         * @return a result of the operation, so that it can't be optimized away
+         * @throws Exception if the operation fails; this ends the run
+         */
+        Object run() throws Exception;
+    }
+
+    private static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+
+    /**
+     * Make a Harness
+     *
+     * @param warmupIterations number of iterations to run before measuring. requires >= 0
+     * @param measurementIterations number of iterations to measure. requires > 0
+     * @param iterationSeconds length of each iteration. requires > 0
+     */
+    public Harness(int warmupIterations, int measurementIterations, double iterationSeconds) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = (long) (iterationSeconds * 1e9);
+
+        checkRep();
+    }
+
+    /**
+     * Make a Harness with the default settings: 5 warmup and 5 measurement iterations of
+     * half a second, or of a tenth of a second if the system property "quick" is set.
+     */
+    public Harness() {
+        this(5, 5, System.getProperty("quick") != null ? 0.1 : 0.5);
+    }
+
+    /**
+     * Warm up, measure and report a benchmark
+     *
+     * @param name the name to report the benchmark under
+     * @param benchmark the operation to measure
+     * @return the mean time per call of benchmark, in nanoseconds
+     * @throws Exception if benchmark does
+     */
+    public double run(String name, Benchmark benchmark) throws Exception {
+        return run(name, null, benchmark);
+    }
+
+    /**
+     * Warm up, measure and report a benchmark, setting it up before every iteration
+     *
+     * @param name the name to report the benchmark under
+     * @param setup run before every iteration, outside the timing, or null for no setup
+     * @param benchmark the operation to measure
+     * @return the mean time per call of benchmark, in nanoseconds
+     * @throws Exception if benchmark does
+     */
+    public double run(String name, Runnable setup, Benchmark benchmark) throws Exception {
+        // find a batch size that takes about a millisecond
+        long batch = 1;
+        if (setup != null) {
+            setup.run();
+        }
+        while (time(benchmark, batch) < 1000000 && batch < (1L << 40)) {
+            batch *= 2;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            iteration(benchmark, batch);
+        }
+        double total = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            double nanosPerCall = iteration(benchmark, batch);
+            total += nanosPerCall;
+            min = Math.min(min, nanosPerCall);
+            max = Math.max(max, nanosPerCall);
+        }
+        double mean = total / measurementIterations;
+        System.out.println(String.format("%-48s %12.1f ns/op  (%.1f .. %.1f)", name, mean, min, max));
+        return mean;
+    }
+
+    /**
+     * Run batches of calls for iterationNanos
+     * @return the time per call in nanoseconds
+     */
+    private double iteration(Benchmark benchmark, long batch) throws Exception {
+        long calls = 0;
+        long elapsed = 0;
+        while (elapsed < iterationNanos) {
+            elapsed += time(benchmark, batch);
+            calls += batch;
+        }
+        return (double) elapsed / calls;
+    }
+
+    /**
+     * @return the time taken by batch calls of benchmark, in nanoseconds
+     */
+    private static long time(Benchmark benchmark, long batch) throws Exception {
+        long start = System.nanoTime();
+        for (long i = 0; i < batch; i++) {
+            sink = benchmark.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Rep Invariant:
+     * * warmupIterations >= 0, measurementIterations > 0, iterationNanos > 0
+     */
+    private void checkRep() {
+        assert warmupIterations >= 0;
+        assert measurementIterations > 0;
+        assert iterationNanos > 0;
+    }
+}
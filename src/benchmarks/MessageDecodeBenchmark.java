@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.Random;
+
+import physics.Vect;
+import common.Constants.BoardSide;
+import common.netprotocol.BallOutMessage;
+import common.netprotocol.BoardFuseMessage;
+import common.netprotocol.NetworkMessage;
+import common.netprotocol.TeleportInMessage;
+import common.netprotocol.TextDecoder;
+
+/**
+ * Compares the ways of decoding NetworkMessages: the regular expression decoder
+ * that NetworkMessage.deserialize used to be (deserializeWithRegex), the TextDecoder it
+ * uses now, and NetworkMessage.deserializeBinary.
+ *
+ * Each benchmark decodes, in turn, a fixed set of messages of one type. Ball messages
+ * carry coordinates like a running board's, with all the digits of a double.
+ *
+ * Usage: MessageDecodeBenchmark
+ * Run with -Dquick for shorter iterations.
+ */
+public class MessageDecodeBenchmark {
+
+    private static final int MESSAGES = 64;
+
+    /**
+     * Run the benchmarks
+     * @param args unused
+     * @throws Exception if a message doesn't decode
+     */
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(6005);
+        NetworkMessage[] balls = new NetworkMessage[MESSAGES];
+        NetworkMessage[] fuses = new NetworkMessage[MESSAGES];
+        NetworkMessage[] teleports = new NetworkMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            Vect pos = new Vect(20 * random.nextDouble(), 20 * random.nextDouble());
+            Vect vel = new Vect(100 * random.nextGaussian(), 100 * random.nextGaussian());
+            balls[i] = new BallOutMessage(pos, vel, BoardSide.values()[i % 4]);
+            fuses[i] = new BoardFuseMessage("board" + i, BoardSide.values()[i % 4]);
+            teleports[i] = new TeleportInMessage(vel, "board" + i, "portal" + i, "board" + (i + 1), "portal" + (i + 1));
+        }
+
+        Harness harness = new Harness();
+        compare(harness, "BallOutMessage", balls);
+        compare(harness, "BoardFuseMessage", fuses);
+        compare(harness, "TeleportInMessage", teleports);
+    }
+
+    /**
+     * Benchmark each decoder on messages
+     */
+    private static void compare(Harness harness, String type, NetworkMessage[] messages) throws Exception {
+        final String[] text = new String[messages.length];
+        final byte[][] binary = new byte[messages.length][];
+        int textBytes = 0;
+        for (int i = 0; i < messages.length; i++) {
+            text[i] = messages[i].serialize();
+            binary[i] = messages[i].serializeBinary();
+            textBytes += text[i].length() + 1;
+        }
+        System.out.println(String.format("%s: %.1f bytes as text, %d as binary",
+                type, (double) textBytes / messages.length, binary[0].length));
+
+        final TextDecoder decoder = new TextDecoder();
+        final int[] next = { 0 };
+        double regex = harness.run(type + " regex", new Harness.Benchmark() {
+            public Object run() throws Exception {
+                next[0] = (next[0] + 1) % text.length;
+                return NetworkMessage.deserializeWithRegex(text[next[0]]);
+            }
+        });
+        double cursor = harness.run(type + " TextDecoder", new Harness.Benchmark() {
+            public Object run() throws Exception {
+                next[0] = (next[0] + 1) % text.length;
+                return decoder.decode(text[next[0]]);
+            }
+        });
+        harness.run(type + " binary", new Harness.Benchmark() {
+            public Object run() throws Exception {
+                next[0] = (next[0] + 1) % binary.length;
+                return NetworkMessage.deserializeBinary(binary[next[0]], binary[next[0]].length);
+            }
+        });
+        System.out.println(String.format("%s: TextDecoder is %.1fx as fast as regex", type, regex / cursor));
+        System.out.println();
+    }
+}
@@ -0,0 +1,194 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import common.netprotocol.ClientConnectMessage;
+import server.PingballServer;
+
+/**
+ * Load test comparing how the server's threading models scale with the number of
+ * connected clients. For each model and client count, a fresh server JVM is started and
+ * this JVM connects that many simulated clients to it. A simulated client is just a
+ * socket that sends a ClientConnectMessage and then stays idle, like a board that no ball
+ * has left yet. Once the server has settled, its thread count, heap and resident memory
+ * are reported.
+ *
+ * Models:
+ * * platform: a platform thread per client (the default)
+ * * virtual: a virtual thread per client (--virtual-threads); on JVMs without virtual
+ *   threads the server falls back to platform threads and says so
+ * * nio: two NioSelector threads for all clients (--nio 2)
+ *
+ * Usage: ServerLoadTest [CLIENTS...]
+ *
+ * CLIENTS defaults to 100 1000 10000. Each simulated client needs a file descriptor in
+ * this JVM and one in the server's, so large counts may need a higher ulimit -n.
+ */
+public class ServerLoadTest {
+
+    private static final String[] MODELS = { "platform", "virtual", "nio" };
+    private static final int BASE_PORT = 21987;
+    private static final long SETTLE_MILLIS = 2000;
+
+    /**
+     * Run the load test, or (when the first argument is "server") run the server side of one
+     * measurement.
+     *
+     * @param args see the class comment
+     * @throws Exception if a server can't be started or measured
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("server")) {
+            runServer(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        List<Integer> counts = new ArrayList<Integer>();
+        for (String arg : args) {
+            counts.add(Integer.parseInt(arg));
+        }
+        if (counts.isEmpty()) {
+            counts.add(100);
+            counts.add(1000);
+            counts.add(10000);
+        }
+
+        System.out.println(String.format("%-9s %8s %8s %10s %10s", "model", "clients", "threads", "heap MB", "rss MB"));
+        int port = BASE_PORT;
+        for (int clients : counts) {
+            for (String model : MODELS) {
+                System.out.println(String.format("%-9s %8d %s", model, clients, measure(model, clients, port++)));
+            }
+        }
+    }
+
+    /**
+     * Start a server JVM, connect clients to it, and report its resource use.
+     *
+     * @param model the threading model, one of MODELS
+     * @param clients the number of clients to connect
+     * @param port the port for the server to listen on
+     * @return the server's last report, formatted as table columns
+     */
+    private static String measure(String model, int clients, int port) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Djava.awt.headless=true",
+                "-cp", System.getProperty("java.class.path"),
+                ServerLoadTest.class.getName(), "server", model, Integer.toString(port));
+        builder.redirectErrorStream(true);
+        final Process server = builder.start();
+        final String[] lastReport = { "(no report)" };
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream()));
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        if (line.startsWith("report ")) {
+                            synchronized (lastReport) {
+                                lastReport[0] = line.substring("report ".length());
+                            }
+                        } else if (!line.contains("Headless") && !line.startsWith("\tat ")) {
+                            System.err.println("  [" + model + "] " + line);
+                        }
+                    }
+                } catch (IOException e) {
+                    // the server was stopped
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                Socket socket = connect(port);
+                sockets.add(socket);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println(new ClientConnectMessage("load" + i).serialize());
+            }
+            Thread.sleep(SETTLE_MILLIS + clients / 10);
+            synchronized (lastReport) {
+                return lastReport[0];
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    /**
+     * Connect to the server, retrying while it starts up or its accept backlog is full.
+     */
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Run a server with the given threading model, and report its resource use twice a second.
+     */
+    private static void runServer(String model, final int port) throws IOException, InterruptedException {
+        final int nioThreads = model.equals("nio") ? 2 : 0;
+        final boolean virtualThreads = model.equals("virtual");
+        Thread serve = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new PingballServer(port, nioThreads, virtualThreads).serve();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        });
+        serve.setDaemon(true);
+        serve.start();
+        while (true) {
+            Thread.sleep(500);
+            System.gc();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            System.out.println("report " + String.format("%8d %10.1f %10s", threads, heap / 1e6, residentMegabytes()));
+        }
+    }
+
+    /**
+     * @return this process's resident set size in MB, or "?" if the OS doesn't say
+     */
+    private static String residentMegabytes() {
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/status").toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    long kb = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    return String.format("%.1f", kb / 1e3);
+                }
+            }
+        } catch (IOException e) {
+            // not Linux
+        } catch (NumberFormatException e) {
+            // unexpected format
+        }
+        return "?";
+    }
+}
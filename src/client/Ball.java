@@ -18,15 +18,32 @@ import physics.Vect;
 public class Ball {
 
 	/**
-	 * Rep invariant: position == circle.getCenter(), -.25 <= position.x/y <=
-	 * 20.25 circle.getRadius() == 0.25
+	 * Rep invariant: -.25 <= getX(), getY() <= 20.25, circle.getRadius() ==
+	 * 0.25 if circle is not null, and if store is not null, store holds this
+	 * ball at slot.
+	 * 
+	 * The ball's state is kept in primitives so that the simulation can move
+	 * it without allocating. While the ball is on a board, its state lives in
+	 * the board's BallStore at slot, and this object is only a handle to it;
+	 * otherwise it lives in x, y, vx and vy. Vect and Circle are immutable, so
+	 * the views handed out by getPosition, getVelocity and getCircle are
+	 * shared between callers, and rebuilt only when the state has changed
+	 * since they were built.
 	 */
 
+	private static final double RADIUS = 0.25;
+	private static Color color;
+
+	private double x;
+	private double y;
+	private double vx;
+	private double vy;
+	private BallStore store;
+	private int slot;
 	private Vect position;
 	private Vect velocity;
 	private Circle circle;
 	private String name;
-	private final Color BALLCOLOR = new Color(210, 17, 220);
 
 	/**
 	 * Constructor for Ball
@@ -46,9 +63,10 @@ public class Ball {
 	 */
 	public Ball(String name, double x, double y, double xVel, double yVel) {
 		this.name = name;
-		position = new Vect(x, y);
-		velocity = new Vect(xVel, yVel);
-		circle = new Circle(position, 0.25);
+		this.x = x;
+		this.y = y;
+		this.vx = xVel;
+		this.vy = yVel;
 	}
 
 	/**
@@ -60,20 +78,19 @@ public class Ball {
 	 *            Vect velocity of this ball
 	 */
 	public Ball(Vect pos, Vect vel) {
+		this(null, pos.x(), pos.y(), vel.x(), vel.y());
 		position = pos;
 		velocity = vel;
-		circle = new Circle(position, 0.25);
 	}
 
 	/**
 	 * Checks the representation invariant.
 	 */
 	public void checkRep() {
-		assert (position.x() >= -0.25 && position.x() <= 20.25);
-		assert (position.y() >= -0.25 && position.y() <= 20.25);
-		assert (position.x() == circle.getCenter().x() && position.y() == circle
-				.getCenter().y());
-		assert (circle.getRadius() == 0.25);
+		assert (getX() >= -0.25 && getX() <= 20.25);
+		assert (getY() >= -0.25 && getY() <= 20.25);
+		assert (circle == null || circle.getRadius() == RADIUS);
+		assert (store == null || store.get(slot) == this);
 	}
 
 	/**
@@ -92,8 +109,9 @@ public class Ball {
 	 *            - ball to collide with
 	 */
 	public void hit(Ball ball) {
-		Geometry.VectPair newVelocities = Geometry.reflectBalls(this.position,
-				1, this.getVelocity(), ball.position, 1, ball.getVelocity());
+		Geometry.VectPair newVelocities = Geometry.reflectBalls(
+				this.getPosition(), 1, this.getVelocity(), ball.getPosition(), 1,
+				ball.getVelocity());
 		this.setVelocity(newVelocities.v1);
 		ball.setVelocity(newVelocities.v2);
 	}
@@ -124,16 +142,14 @@ public class Ball {
 	public void putInBoardRep(Board board, boolean remove) {
 
 		char[][] boardRep = board.getBoardRep();
+		int row = (int) Math.round(getY() + 1);
+		int col = (int) Math.round(getX() + 1);
 		if (!remove) {
-			if (boardRep[(int) Math.round(position.y() + 1)][(int) Math
-					.round(position.x() + 1)] == ' ')
-				boardRep[(int) Math.round(position.y() + 1)][(int) Math
-						.round(position.x() + 1)] = '*';
+			if (boardRep[row][col] == ' ')
+				boardRep[row][col] = '*';
 		} else {
-			if (boardRep[(int) Math.round(position.y() + 1)][(int) Math
-					.round(position.x() + 1)] == '*')
-				boardRep[(int) Math.round(position.y() + 1)][(int) Math
-						.round(position.x() + 1)] = ' ';
+			if (boardRep[row][col] == '*')
+				boardRep[row][col] = ' ';
 		}
 		board.setBoardRep(boardRep);
 	}
@@ -145,8 +161,8 @@ public class Ball {
 	 */
 	public Shape getShape() {
 		return new Ellipse2D.Double(
-				getPosition().x() * Constants.SCALE + Constants.SCALE, 
-				getPosition().y() * Constants.SCALE + Constants.SCALE, 
+				getX() * Constants.SCALE + Constants.SCALE, 
+				getY() * Constants.SCALE + Constants.SCALE, 
 				0.5 * Constants.SCALE, 0.5 * Constants.SCALE);
 	}
 
@@ -156,7 +172,10 @@ public class Ball {
 	 * @return color for the gadget
 	 */
 	public Color getColor() {
-		return BALLCOLOR;
+		if (color == null) {
+			color = new Color(210, 17, 220);
+		}
+		return color;
 	}
 
 	@Override
@@ -183,33 +202,64 @@ public class Ball {
 			Board board) {
 		checkRep();
 		putInBoardRep(board, true);
-		Vect oldPos = getPosition();
-		Vect oldVel = getVelocity();
-
-		Vect term1 = oldVel.times(deltaT);
-		Vect term2 = new Vect(0, 0.5 * gravity * deltaT * deltaT);
-
-		Vect newPos = oldPos.plus(term1).plus(term2);
-		double frictionScalar = 1 - (mu) * (deltaT) - mu2 * oldVel.length()
+		double oldVx = getVx();
+		double oldVy = getVy();
+		setPosition(getX() + oldVx * deltaT, getY() + oldVy * deltaT + 0.5
+				* gravity * deltaT * deltaT);
+		double frictionScalar = 1 - (mu) * (deltaT) - mu2 * getSpeed()
 				* deltaT;
-		Vect frictionVel = oldVel.times(frictionScalar);
-		Vect newVel = frictionVel.plus(new Vect(0, gravity * deltaT));
-
-		position = newPos;
-		velocity = newVel;
-		circle = new Circle(position, 0.25);
+		setVelocity(oldVx * frictionScalar, oldVy * frictionScalar + gravity
+				* deltaT);
 
 		checkRep();
 		putInBoardRep(board, false);
 	}
 
+	/**
+	 * Move the ball in a straight line at its current velocity, without
+	 * gravity or friction and without updating the board representation.
+	 * Used by Board's event-driven stepping, which applies gravity and friction
+	 * once per timestep with accelerate.
+	 * 
+	 * @param deltaT
+	 *            the time passed
+	 */
+	void advance(double deltaT) {
+		setPosition(getX() + getVx() * deltaT, getY() + getVy() * deltaT);
+	}
+
+	/**
+	 * Apply gravity and friction to the ball's velocity, as move does, without
+	 * moving the ball.
+	 * 
+	 * @param gravity
+	 *            the gravity of the board
+	 * @param mu
+	 *            the first friction coefficient of the board
+	 * @param mu2
+	 *            the second friction coefficient of the board
+	 * @param deltaT
+	 *            the time passed
+	 */
+	void accelerate(double gravity, double mu, double mu2, double deltaT) {
+		double frictionScalar = 1 - (mu) * (deltaT) - mu2 * getSpeed()
+				* deltaT;
+		setVelocity(getVx() * frictionScalar, getVy() * frictionScalar
+				+ gravity * deltaT);
+	}
+
 	/**
 	 * Accessor method that gets the velocity the ball is traveling at
 	 * 
 	 * @return a Vect representing the Ball's current velocity
 	 */
 	public Vect getVelocity() {
-		return new Vect(velocity.x(), velocity.y());
+		double vx = getVx();
+		double vy = getVy();
+		if (velocity == null || velocity.x() != vx || velocity.y() != vy) {
+			velocity = new Vect(vx, vy);
+		}
+		return velocity;
 	}
 
 	/**
@@ -218,7 +268,13 @@ public class Ball {
 	 * @return the Ball's Circle representation
 	 */
 	public Circle getCircle() {
-		return new Circle(circle.getCenter(), circle.getRadius());
+		double x = getX();
+		double y = getY();
+		if (circle == null || circle.getCenter().x() != x
+				|| circle.getCenter().y() != y) {
+			circle = new Circle(x, y, RADIUS);
+		}
+		return circle;
 	}
 
 	/**
@@ -227,7 +283,64 @@ public class Ball {
 	 * @return a Vect representing the Ball's current position
 	 */
 	public Vect getPosition() {
-		return new Vect(position.x(), position.y());
+		double x = getX();
+		double y = getY();
+		if (position == null || position.x() != x || position.y() != y) {
+			position = new Vect(x, y);
+		}
+		return position;
+	}
+
+	/**
+	 * @return x coordinate of the ball's center
+	 */
+	public double getX() {
+		return store == null ? x : store.x[slot];
+	}
+
+	/**
+	 * @return y coordinate of the ball's center
+	 */
+	public double getY() {
+		return store == null ? y : store.y[slot];
+	}
+
+	/**
+	 * @return x component of the ball's velocity
+	 */
+	public double getVx() {
+		return store == null ? vx : store.vx[slot];
+	}
+
+	/**
+	 * @return y component of the ball's velocity
+	 */
+	public double getVy() {
+		return store == null ? vy : store.vy[slot];
+	}
+
+	/**
+	 * @return true if the ball is on a board that has put it to sleep, because
+	 *         it is absorbed or has come to rest (see BallStore)
+	 */
+	public boolean isAsleep() {
+		return store != null && store.asleep[slot];
+	}
+
+	/**
+	 * @return radius of the ball
+	 */
+	public double getRadius() {
+		return RADIUS;
+	}
+
+	/**
+	 * @return magnitude of the ball's velocity
+	 */
+	public double getSpeed() {
+		double vx = getVx();
+		double vy = getVy();
+		return Math.sqrt(vx * vx + vy * vy);
 	}
 
 	/**
@@ -237,9 +350,29 @@ public class Ball {
 	 *            a Vect representing the velocity to set
 	 */
 	public void setVelocity(Vect velocity) {
+		setVelocity(velocity.x(), velocity.y());
 		this.velocity = velocity;
 	}
 
+	/**
+	 * Mutator method to change Ball's velocity
+	 * 
+	 * @param vx
+	 *            x component of the velocity to set
+	 * @param vy
+	 *            y component of the velocity to set
+	 */
+	public void setVelocity(double vx, double vy) {
+		if (store == null) {
+			this.vx = vx;
+			this.vy = vy;
+		} else {
+			store.vx[slot] = vx;
+			store.vy[slot] = vy;
+			store.wake(slot);
+		}
+	}
+
 	/**
 	 * Mutator method to change Ball's position
 	 * 
@@ -247,7 +380,61 @@ public class Ball {
 	 *            the Vect position to set
 	 */
 	public void setPosition(Vect position) {
+		setPosition(position.x(), position.y());
 		this.position = position;
 	}
 
+	/**
+	 * Mutator method to change Ball's position
+	 * 
+	 * @param x
+	 *            x coordinate of the position to set
+	 * @param y
+	 *            y coordinate of the position to set
+	 */
+	public void setPosition(double x, double y) {
+		if (store == null) {
+			this.x = x;
+			this.y = y;
+		} else {
+			store.x[slot] = x;
+			store.y[slot] = y;
+		}
+	}
+
+	/**
+	 * Make this ball a handle to its state in a BallStore. Called by the
+	 * store, which has already copied the ball's state into slot.
+	 * 
+	 * @param store
+	 *            the store now holding this ball
+	 * @param slot
+	 *            the ball's slot in store
+	 */
+	void attach(BallStore store, int slot) {
+		this.store = store;
+		this.slot = slot;
+	}
+
+	/**
+	 * Copy this ball's state out of its BallStore, so that the ball no longer
+	 * depends on the store. Called by the store before it drops the ball.
+	 */
+	void detach() {
+		x = getX();
+		y = getY();
+		vx = getVx();
+		vy = getVy();
+		store = null;
+	}
+
+	/**
+	 * @param store
+	 *            a ball store
+	 * @return this ball's slot in store, or -1 if it isn't in store
+	 */
+	int slotIn(BallStore store) {
+		return this.store == store ? slot : -1;
+	}
+
 }
@@ -0,0 +1,354 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The balls on a Board, stored as parallel arrays of primitives (structure of
+ * arrays) so that the per-timestep integration of gravity and friction is one
+ * tight loop over contiguous doubles, which the JIT can unroll and vectorize.
+ *
+ * Each ball in the store is still represented by a Ball object, which acts as
+ * a handle: while the ball is in the store, its getters and setters read and
+ * write the store's arrays at the ball's slot. Gadgets keep working with Ball
+ * objects and don't need to know about the store.
+ *
+ * A ball can be asleep: it doesn't move, and Board leaves it out of its
+ * collision checks except as the ball something else hits. Absorbed balls are
+ * always asleep. Other balls fall asleep, and stop, once they have moved
+ * slower than SLEEP_SPEED for SLEEP_TICKS timesteps in a row, but only on
+ * boards whose gravity can't speed them up past SLEEP_SPEED in one timestep
+ * (in practice, boards with no gravity), so that a ball at the top of its
+ * bounce never falls asleep. Anything that sets a ball's velocity, such as a
+ * collision or a triggered absorber, wakes it up.
+ *
+ * The store also remembers where each ball was when savePositions was last
+ * called, at the start of the board's last update, so that a BoardSnapshot
+ * can interpolate between the positions before and after the update.
+ *
+ * Slots are dense and ordered: the balls occupy slots 0..size-1, in the order
+ * they were added, and removing a ball shifts the later ones down. Board uses
+ * slots as ball indices for its spatial grid and event queue.
+ *
+ * Thread Safety: the arrays are written only by the thread that updates the
+ * owning Board. add, remove and getBalls lock the store, so that another
+ * thread (e.g. the GUI) can take a consistent list of the balls.
+ *
+ * Rep invariant:
+ * * 0 <= size <= handles.length, and every array has the same length.
+ * * for 0 <= i < size, handles[i].store == this and handles[i].slot == i.
+ * * handles[i] == null for i >= size.
+ * * for 0 <= i < size, absorbed[i] implies asleep[i], and a ball that is
+ *   asleep but not absorbed has zero velocity.
+ */
+class BallStore {
+
+	private static final int INITIAL_CAPACITY = 16;
+	/*
+	 * A ball slower than this, in L/s, for SLEEP_TICKS timesteps in a row
+	 * falls asleep.
+	 */
+	private static final double SLEEP_SPEED = 0.05;
+	private static final int SLEEP_TICKS = 20;
+
+	/*
+	 * Package-private so Ball can read and write through its slot without a
+	 * method call per access.
+	 */
+	double[] x = new double[INITIAL_CAPACITY];
+	double[] y = new double[INITIAL_CAPACITY];
+	double[] vx = new double[INITIAL_CAPACITY];
+	double[] vy = new double[INITIAL_CAPACITY];
+	boolean[] absorbed = new boolean[INITIAL_CAPACITY];
+	boolean[] asleep = new boolean[INITIAL_CAPACITY];
+	private int[] stillTicks = new int[INITIAL_CAPACITY]; // timesteps in a row slower than SLEEP_SPEED
+	private boolean sleepEnabled = true;
+	private double[] savedX = new double[INITIAL_CAPACITY];
+	private double[] savedY = new double[INITIAL_CAPACITY];
+	private Ball[] handles = new Ball[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * @return number of balls in the store
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param slot a slot in [0, size())
+	 * @return the ball in that slot
+	 */
+	Ball get(int slot) {
+		return handles[slot];
+	}
+
+	/**
+	 * @param ball a ball
+	 * @return the ball's slot, or -1 if it isn't in this store
+	 */
+	int indexOf(Ball ball) {
+		return ball.slotIn(this);
+	}
+
+	/**
+	 * Move a ball's state into the store, at the end. From now on the ball
+	 * reads and writes its state in the store.
+	 *
+	 * @param ball a ball that isn't in any store
+	 */
+	synchronized void add(Ball ball) {
+		if (size == handles.length) {
+			grow();
+		}
+		x[size] = ball.getX();
+		y[size] = ball.getY();
+		vx[size] = ball.getVx();
+		vy[size] = ball.getVy();
+		absorbed[size] = false;
+		asleep[size] = false;
+		stillTicks[size] = 0;
+		savedX[size] = x[size];
+		savedY[size] = y[size];
+		handles[size] = ball;
+		ball.attach(this, size);
+		size++;
+		checkRep();
+	}
+
+	/**
+	 * Take a ball out of the store, handing its state back to the Ball object.
+	 * Balls in later slots move down by one.
+	 *
+	 * @param slot slot of the ball to remove, in [0, size())
+	 */
+	synchronized void remove(int slot) {
+		Ball ball = handles[slot];
+		ball.detach();
+		int tail = size - slot - 1;
+		System.arraycopy(x, slot + 1, x, slot, tail);
+		System.arraycopy(y, slot + 1, y, slot, tail);
+		System.arraycopy(vx, slot + 1, vx, slot, tail);
+		System.arraycopy(vy, slot + 1, vy, slot, tail);
+		System.arraycopy(absorbed, slot + 1, absorbed, slot, tail);
+		System.arraycopy(asleep, slot + 1, asleep, slot, tail);
+		System.arraycopy(stillTicks, slot + 1, stillTicks, slot, tail);
+		System.arraycopy(savedX, slot + 1, savedX, slot, tail);
+		System.arraycopy(savedY, slot + 1, savedY, slot, tail);
+		System.arraycopy(handles, slot + 1, handles, slot, tail);
+		size--;
+		handles[size] = null;
+		for (int i = slot; i < size; i++) {
+			handles[i].attach(this, i);
+		}
+		checkRep();
+	}
+
+	/**
+	 * @return a new list of the balls in the store, in slot order
+	 */
+	synchronized List<Ball> getBalls() {
+		return new ArrayList<Ball>(Arrays.asList(handles).subList(0, size));
+	}
+
+	/**
+	 * Remember the current position of every ball, as its position before the
+	 * update that is about to start. A ball added later starts out with its
+	 * position saved.
+	 */
+	void savePositions() {
+		System.arraycopy(x, 0, savedX, 0, size);
+		System.arraycopy(y, 0, savedY, 0, size);
+	}
+
+	/**
+	 * Copy out the saved and current positions of every ball, in slot order.
+	 *
+	 * @param fromX
+	 *            receives the saved x coordinates; must have size() entries
+	 * @param fromY
+	 *            receives the saved y coordinates; must have size() entries
+	 * @param toX
+	 *            receives the current x coordinates; must have size() entries
+	 * @param toY
+	 *            receives the current y coordinates; must have size() entries
+	 */
+	void copyPositions(double[] fromX, double[] fromY, double[] toX,
+			double[] toY) {
+		System.arraycopy(savedX, 0, fromX, 0, size);
+		System.arraycopy(savedY, 0, fromY, 0, size);
+		System.arraycopy(x, 0, toX, 0, size);
+		System.arraycopy(y, 0, toY, 0, size);
+	}
+
+	/**
+	 * Wake a ball up, unless it is absorbed, and start counting its slow
+	 * timesteps again. Called whenever the ball's velocity is set.
+	 *
+	 * @param slot slot of the ball, in [0, size())
+	 */
+	void wake(int slot) {
+		if (!absorbed[slot]) {
+			asleep[slot] = false;
+		}
+		stillTicks[slot] = 0;
+	}
+
+	/**
+	 * Wake up every ball that isn't absorbed.
+	 */
+	void wakeAll() {
+		for (int i = 0; i < size; i++) {
+			wake(i);
+		}
+	}
+
+	/**
+	 * Allow or stop balls falling asleep. Stopping it wakes every ball that
+	 * isn't absorbed.
+	 *
+	 * @param enabled true to let balls fall asleep
+	 */
+	void setSleepEnabled(boolean enabled) {
+		sleepEnabled = enabled;
+		if (!enabled) {
+			wakeAll();
+		}
+	}
+
+	/**
+	 * Move every ball that isn't asleep according to its velocity, gravity
+	 * and friction, as Ball.move does for a single ball, then put to sleep the
+	 * balls that have been slow for long enough.
+	 *
+	 * @param gravity
+	 *            the gravity of the board
+	 * @param mu
+	 *            the first friction coefficient of the board
+	 * @param mu2
+	 *            the second friction coefficient of the board
+	 * @param deltaT
+	 *            the time passed
+	 */
+	void integrate(double gravity, double mu, double mu2, double deltaT) {
+		double fall = 0.5 * gravity * deltaT * deltaT;
+		double pull = gravity * deltaT;
+		double drag = 1 - mu * deltaT;
+		double drag2 = mu2 * deltaT;
+		for (int i = 0; i < size; i++) {
+			if (asleep[i]) {
+				continue;
+			}
+			double bx = vx[i];
+			double by = vy[i];
+			double frictionScalar = drag - drag2 * Math.sqrt(bx * bx + by * by);
+			x[i] += bx * deltaT;
+			y[i] += by * deltaT + fall;
+			vx[i] = bx * frictionScalar;
+			vy[i] = by * frictionScalar + pull;
+		}
+		settle(pull, null);
+	}
+
+	/**
+	 * Apply gravity and friction to the velocity of every ball that isn't
+	 * asleep, without moving it, as Ball.accelerate does for a single ball,
+	 * then put to sleep the balls that have been slow for long enough.
+	 *
+	 * @param gravity
+	 *            the gravity of the board
+	 * @param mu
+	 *            the first friction coefficient of the board
+	 * @param mu2
+	 *            the second friction coefficient of the board
+	 * @param deltaT
+	 *            the time passed
+	 * @param skip
+	 *            balls to leave alone, by slot; must have at least size()
+	 *            entries
+	 */
+	void accelerate(double gravity, double mu, double mu2, double deltaT,
+			boolean[] skip) {
+		double pull = gravity * deltaT;
+		double drag = 1 - mu * deltaT;
+		double drag2 = mu2 * deltaT;
+		for (int i = 0; i < size; i++) {
+			if (asleep[i] || skip[i]) {
+				continue;
+			}
+			double bx = vx[i];
+			double by = vy[i];
+			double frictionScalar = drag - drag2 * Math.sqrt(bx * bx + by * by);
+			vx[i] = bx * frictionScalar;
+			vy[i] = by * frictionScalar + pull;
+		}
+		settle(pull, skip);
+	}
+
+	/**
+	 * Count a timestep for every ball that is awake and slower than
+	 * SLEEP_SPEED, and put to sleep, at rest, those that have been slow for
+	 * SLEEP_TICKS timesteps in a row. Does nothing if gravity could speed a
+	 * ball up past SLEEP_SPEED in one timestep.
+	 *
+	 * @param pull
+	 *            the velocity gravity adds in one timestep
+	 * @param skip
+	 *            balls to leave alone, by slot, or null
+	 */
+	private void settle(double pull, boolean[] skip) {
+		if (!sleepEnabled || Math.abs(pull) >= SLEEP_SPEED) {
+			return;
+		}
+		double limit = SLEEP_SPEED * SLEEP_SPEED;
+		for (int i = 0; i < size; i++) {
+			if (asleep[i] || (skip != null && skip[i])) {
+				continue;
+			}
+			if (vx[i] * vx[i] + vy[i] * vy[i] >= limit) {
+				stillTicks[i] = 0;
+			} else if (++stillTicks[i] >= SLEEP_TICKS) {
+				asleep[i] = true;
+				vx[i] = 0;
+				vy[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Double the capacity of every array.
+	 */
+	private void grow() {
+		int capacity = 2 * handles.length;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		absorbed = Arrays.copyOf(absorbed, capacity);
+		asleep = Arrays.copyOf(asleep, capacity);
+		stillTicks = Arrays.copyOf(stillTicks, capacity);
+		savedX = Arrays.copyOf(savedX, capacity);
+		savedY = Arrays.copyOf(savedY, capacity);
+		handles = Arrays.copyOf(handles, capacity);
+	}
+
+	/**
+	 * Check the rep invariant.
+	 */
+	private void checkRep() {
+		assert (size >= 0 && size <= handles.length);
+		assert (x.length == handles.length && y.length == handles.length
+				&& vx.length == handles.length && vy.length == handles.length
+				&& absorbed.length == handles.length
+				&& asleep.length == handles.length
+				&& stillTicks.length == handles.length
+				&& savedX.length == handles.length
+				&& savedY.length == handles.length);
+		for (int i = 0; i < size; i++) {
+			assert (handles[i].slotIn(this) == i);
+			assert (!absorbed[i] || asleep[i]);
+			assert (absorbed[i] || !asleep[i] || (vx[i] == 0 && vy[i] == 0));
+		}
+	}
+}
@@ -2,23 +2,38 @@ package client;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import client.gadgets.Gadget;
+import client.gadgets.MovingGadget;
 import client.gadgets.Portal;
 import client.gadgets.Wall;
 import common.Constants;
+import common.RepInvariantException;
 import common.Constants.BoardSide;
+import physics.Vect;
 
 /**
  * a Board is an object that represents the 20x20 grid on which Pingball is played.
  * The board has gadgets and balls on it. The board can connect a wall to a server. 
  * 
- * Thread Safety: 
+ * By default, a ball on a board without gravity that moves slower than 0.05 L/s
+ * for 20 timesteps in a row falls asleep: it stops dead, instead of drifting on
+ * at that speed, until something hits it (see BallStore). Faster balls, and
+ * balls on boards with gravity, are never put to sleep. setSleepEnabled(false)
+ * keeps slow balls drifting.
+ * 
+ * Thread Safety: a Board is updated by one thread. Other threads, such as
+ * the GUI's, should draw it from the immutable snapshots that the updating
+ * thread publishes (see publishSnapshot and getSnapshot).
  */
 public class Board {
 
@@ -33,14 +48,41 @@ public class Board {
 	private double mu2;
 	private String name;
 	private List<Gadget> gadgets = Collections.synchronizedList(new ArrayList<Gadget>());
+	private final List<MovingGadget> movingGadgets = new ArrayList<MovingGadget>();
 	private HashMap<String, Portal> portals = new HashMap<String, Portal>();
-	private final List<Ball> balls = Collections.synchronizedList(new ArrayList<Ball>());
-	private List<Ball> absorbed = new ArrayList<Ball>();
+	private final BallStore balls = new BallStore();
 	private char[][] boardRep = new char[22][22];
 	private Wall[] borders = new Wall[4];
 	private Map<String, Gadget> gadgetNames = new HashMap<String, Gadget>();
 	private final Hashtable<String, ArrayList<String>> keyupToTriggers; 
     private final Hashtable<String, ArrayList<String>> keydownToTriggers; 
+    private final SpatialGrid grid = new SpatialGrid();
+    private double[] ballBoxes = new double[64]; // swept boxes of balls in the grid, 4 per ball
+    private boolean gadgetsBinned = false; // false if gadgets changed since the grid was built
+    private double[] gadgetBoxes = new double[0]; // padded footprints of gadgets, 4 per gadget
+    private int gadgetChecks = 0; // gadget collision times computed in the last update
+    private int gadgetChecksSkipped = 0; // ... and ruled out by gadgetBoxes instead
+    private boolean spatialGridEnabled = true;
+    private boolean spatialGridVerified = false;
+    private double gridTimestep = 0; // timestep of the update in progress, or 0 outside of update
+    private boolean eventDriven = false;
+    private final PriorityQueue<CollisionEvent> events = new PriorityQueue<CollisionEvent>();
+    private int[] eventVersions = new int[16]; // per ball index, bumped whenever the ball's path changes
+    private int[] eventCounts = new int[16]; // per ball index, collisions resolved in this update
+    private boolean[] outOfPlay = new boolean[16]; // per ball index, true once a wall or portal took the ball
+    private double eventTimestep = 0; // timestep of the event-driven update in progress, or 0 outside of it
+    private double eventTime = 0; // time reached so far in the event-driven update
+    private boolean eventGadgetsChanged = false;
+    private volatile BoardSnapshot snapshot; // published for renderers on other threads
+    private final Set<Gadget> changingGadgets = new HashSet<Gadget>(); // gadgets that have changed shape
+    private int staticLayerVersion = 0; // bumped whenever the gadgets that never changed do
+    /* Bounds the work per update when balls are pinned between gadgets and keep
+     * colliding at the same instant. */
+    private static final int MAX_EVENTS_PER_BALL = 32;
+    /* Gadget geometry can stick out of the getOrigin()/getSize() square by up to
+     * this much; flippers report their pivot as the origin. */
+    private static final double GADGET_FOOTPRINT_PADDING = 1.0;
+    private static final double SWEEP_SLACK = 0.01;
 	
     /**
      * Constructor for the board.
@@ -101,7 +143,7 @@ public class Board {
      */
 	public List<Ball> getBalls()
 	{
-		return new ArrayList<Ball>(balls);
+		return balls.getBalls();
 	}
 	/**
 	 * Initializes appropriate borders and walls for board object
@@ -131,9 +173,10 @@ public class Board {
 	 * network if a ball is transferred.
 	 * 
 	 * @param sh
-	 *            the server handler
+	 *            the server handler, or another sink for the messages, e.g. a
+	 *            host running the other boards in this process
 	 */
-	public void setServerHandler(ServerHandler sh) {
+	public void setServerHandler(MessageSink sh) {
 		for (Wall wall : borders) {
 			wall.setServerHandler(sh);
 		}
@@ -273,6 +316,11 @@ public class Board {
 		synchronized (gadgets) {
 			synchronized (gadgetNames) {
 				gadgets.add(gadget);
+				if (gadget instanceof MovingGadget) {
+					movingGadgets.add((MovingGadget) gadget);
+				}
+				gadgetsBinned = false;
+				staticLayerVersion++;
 				gadget.putInBoardRep(this, false);
 				String name = gadget.getName();
 				if (name != null) {
@@ -317,12 +365,14 @@ public class Board {
 	 */
 	@Override
 	public String toString() {
-		String string = "";
+		char[] text = new char[boardRep.length * (boardRep[0].length + 1)];
+		int end = 0;
 		for (char[] line : boardRep) {
-			string += String.valueOf(line);
-			string += "\n";
+			System.arraycopy(line, 0, text, end, line.length);
+			end += line.length;
+			text[end++] = '\n';
 		}
-		return string;
+		return new String(text, 0, end);
 	}
 	/**
 	 * Refresh the board, taking into account elapsed time causing motion, as
@@ -330,41 +380,113 @@ public class Board {
 	 * Update the board assuming timestep has passed since the last update.
 	 * Includes collisions with gadgets & gadget action triggers, and the ball moving 
 	 * according to gravity, friction, etc. 
-	 * Also prints the board to System.out
+	 * 
+	 * Collisions are resolved with every ball still at its position from the
+	 * start of the update, in this order:
+	 * 1. every awake ball against the other balls, so that each ball has its
+	 *    final velocity before anything else is checked;
+	 * 2. every awake ball against the gadgets;
+	 * 3. every ball still in play against the walls, in up to two passes, so
+	 *    that a ball bouncing into a corner also bounces off the second wall.
+	 * Balls that left the board are then removed, and the rest are moved
+	 * together, with gravity and friction, by one integrate pass over the
+	 * BallStore. Moving gadgets are advanced after the balls.
+	 * 
+	 * If event-driven stepping is enabled with setEventDriven, the update is
+	 * instead carried out collision by collision; see updateEventDriven.
+	 * 
+	 * Unless the spatial grid has been disabled with setSpatialGridEnabled,
+	 * only gadgets and balls that share a grid cell with a ball's swept
+	 * bounding box are checked for collisions with that ball.
+	 * 
+	 * Gadgets that move by themselves, such as turning flippers, are moved on
+	 * with the balls. No ball sleeps while one of them is moving, since it may
+	 * be about to hit the ball.
 	 * @param timestep the amount of time since the last update has been called
 	 */
     public void update(double timestep) {
+    	balls.savePositions();
+    	gadgetChecks = 0;
+    	gadgetChecksSkipped = 0;
+    	for (MovingGadget gadget : movingGadgets) {
+    		if (gadget.isMoving()) {
+    			balls.wakeAll();
+    			break;
+    		}
+    	}
+    	if (eventDriven) {
+    		updateEventDriven(timestep);
+    		return;
+    	}
 
     	List<Ball> ballsToRemove = new ArrayList<Ball>();
+    	if (spatialGridEnabled) {
+    		rebuildSpatialGrid(timestep);
+    		gridTimestep = timestep;
+    	}
 
-        for (Ball ball : balls) {
+    	for (int i = 0; i < balls.size(); i++) {
+    		if (balls.asleep[i]) {
+    			// a sleeping ball can only be hit, by a ball that is awake
+    			continue;
+    		}
+    		Ball ball = balls.get(i);
+            if (spatialGridEnabled) {
+            	collideWithBallsInGrid(ball, timestep);
+            	// hits changed the ball's velocity
+            	rebinBall(i, timestep);
+            } else {
+            	for (int j = 0; j < balls.size(); j++) {
+            		Ball ball2 = balls.get(j);
+            		if (ball2 != ball && !balls.absorbed[j]) {
+            			if (ball.timeUntilCollision(ball2) <= timestep) {
+            				ball.hit(ball2);
+            			}
+            		}
+            	}
+            }
+    	}
+
+    	// every ball now has its final velocity, so none can slip past a gadget
+    	// or wall because another ball hit it after it was checked
+    	for (int i = 0; i < balls.size(); i++) {
+    		if (balls.asleep[i]) {
+    			// it isn't moving, so it can't hit anything
+    			continue;
+    		}
+    		Ball ball = balls.get(i);
 
             boolean ballStillInPlay = true;
             
-            for (Ball ball2 : balls) {
-                if (ball2 != ball) {
-                    if (ball.timeUntilCollision(ball2) <= timestep && ballStillInPlay) {
-                        ball.hit(ball2);
-                    }
-                }
+            if (spatialGridEnabled) {
+            	ballStillInPlay = collideWithGadgetsInGrid(ball, timestep);
+            } else {
+            	for (int j = 0; j < gadgets.size(); j++) {
+            		Gadget gadget = gadgets.get(j);
+            		if (ballStillInPlay && mayCollide(ball, j, timestep)
+            				&& gadget.timeUntilCollision(ball, timestep) <= timestep) {
+            			if (! gadget.hit(ball, this)) ballStillInPlay = false;
+            		}
+            	}
             }
-            
-        	for (Gadget gadget : gadgets) {
-        		if (gadget.timeUntilCollision(ball) <= timestep && ballStillInPlay) {
-        			if (! gadget.hit(ball, this)) ballStillInPlay = false;
-        		}
-        	}
-
-            for (Wall wall : borders) {
-            	if (wall.timeUntilCollision(ball) <= timestep && ballStillInPlay) {
-            		if (! wall.hit(ball, this)) ballStillInPlay = false;
+
+            // a fast ball heading into a corner may only be on course for the
+            // wall checked first once it has bounced off the other one
+            boolean bounced = true;
+            for (int pass = 0; pass < 2 && bounced && ballStillInPlay; pass++) {
+            	bounced = false;
+            	for (Wall wall : borders) {
+            		if (wall.timeUntilCollision(ball, timestep) <= timestep && ballStillInPlay) {
+            			bounced = true;
+            			if (! wall.hit(ball, this)) ballStillInPlay = false;
+            		}
             	}
             }
             
                 
             if (ballStillInPlay) {
-                if (!absorbed.contains(ball)) {
-                    ball.move(gravity, mu, mu2, timestep, this);
+                if (spatialGridEnabled) {
+                	rebinBall(i, timestep);
                 }
             } else {
                 ballsToRemove.add(ball);
@@ -372,27 +494,590 @@ public class Board {
             } 
         }
         
+        gridTimestep = 0;
         for (Ball ball : ballsToRemove) {
-        	balls.remove(ball);
+        	balls.remove(balls.indexOf(ball));
+        }
+        for (int i = 0; i < balls.size(); i++) {
+        	balls.get(i).putInBoardRep(this, true);
+        }
+        balls.integrate(gravity, mu, mu2, timestep);
+        for (MovingGadget gadget : movingGadgets) {
+        	gadget.advance(timestep);
+        }
+        for (int i = 0; i < balls.size(); i++) {
+        	balls.get(i).putInBoardRep(this, false);
         }
         
         // Uncomment to print the board to the command line:
         // System.out.println(this.toString());
         checkRep();
     }
+
+    /**
+     * Update the board by stepping from collision to collision: find the
+     * earliest collision of any ball with a ball, gadget or wall, move every
+     * ball in a straight line to that instant, resolve that one collision,
+     * and repeat until timestep is used up. Gravity and friction are then
+     * applied to every ball's velocity once, at the end of the timestep.
+     * 
+     * Each ball has at most one predicted event in the queue at a time. When a
+     * collision changes a ball's path, only that ball's (and its partner's)
+     * events are invalidated and predicted again. A ball whose predicted
+     * partner changed course is predicted again when its stale event reaches
+     * the front of the queue.
+     * 
+     * Unlike the fixed-tick update, a ball can't pass through a gadget between
+     * ticks, and each collision is resolved exactly once. A ball that is
+     * pinned (e.g. squeezed between two other balls) and runs out of its
+     * event budget stays where it is for the rest of the timestep instead of
+     * slipping through whatever pins it.
+     * @param timestep the amount of time since the last update has been called
+     */
+    private void updateEventDriven(double timestep) {
+    	int n = balls.size();
+    	if (eventVersions.length < n) {
+    		eventVersions = new int[2 * n];
+    		eventCounts = new int[2 * n];
+    		outOfPlay = new boolean[2 * n];
+    	}
+    	Arrays.fill(eventCounts, 0, n, 0);
+    	Arrays.fill(outOfPlay, 0, n, false);
+    	events.clear();
+    	if (spatialGridEnabled) {
+    		rebuildSpatialGrid(timestep);
+    	}
+    	for (int i = 0; i < n; i++) {
+    		balls.get(i).putInBoardRep(this, true);
+    	}
+
+    	eventTimestep = timestep;
+    	eventTime = 0;
+    	for (int i = 0; i < n; i++) {
+    		predictCollision(i);
+    	}
+    	while (!events.isEmpty()) {
+    		CollisionEvent event = events.poll();
+    		if (event.version != eventVersions[event.ball] || outOfPlay[event.ball]) {
+    			continue;
+    		}
+    		if (event.other >= 0 && (event.otherVersion != eventVersions[event.other]
+    				|| outOfPlay[event.other])) {
+    			// the partner changed course since this was predicted
+    			predictCollision(event.ball);
+    			continue;
+    		}
+    		advanceBalls(event.time - eventTime);
+    		eventTime = event.time;
+    		resolveCollision(event);
+    	}
+    	advanceBalls(timestep - eventTime);
+    	eventTimestep = 0;
+
+    	balls.accelerate(gravity, mu, mu2, timestep, outOfPlay);
+    	for (int i = n - 1; i >= 0; i--) {
+    		if (outOfPlay[i]) {
+    			balls.remove(i);
+    		} else {
+    			balls.get(i).putInBoardRep(this, false);
+    		}
+    	}
+    	checkRep();
+    }
+
+    /**
+     * @param i index of a ball in balls
+     * @return true if the ball doesn't move for the rest of the event-driven
+     *         update, unless it is hit: it is out of play, asleep, or out of
+     *         events
+     */
+    private boolean isStationary(int i) {
+    	return outOfPlay[i] || eventCounts[i] >= MAX_EVENTS_PER_BALL
+    			|| balls.asleep[i];
+    }
+
+    /**
+     * @param i index of a ball in balls
+     * @return true if other balls can hit the ball for the rest of the
+     *         event-driven update: it is moving, or asleep but not absorbed
+     */
+    private boolean isHittable(int i) {
+    	return !outOfPlay[i] && eventCounts[i] < MAX_EVENTS_PER_BALL
+    			&& !balls.absorbed[i];
+    }
+
+    /**
+     * Predict the earliest collision of a ball within the rest of the current
+     * timestep, and queue it. Stationary balls are never predicted.
+     * @param i index of the ball in balls
+     */
+    private void predictCollision(int i) {
+    	Ball ball = balls.get(i);
+    	if (isStationary(i)) {
+    		return;
+    	}
+    	double remaining = eventTimestep - eventTime;
+    	double earliest = Double.POSITIVE_INFINITY;
+    	Gadget target = null;
+    	int otherBall = -1;
+
+    	if (spatialGridEnabled) {
+    		int count = queryGadgets(ball, remaining);
+    		int[] ids = grid.gadgetResult();
+    		for (int k = 0; k < count; k++) {
+    			if (!mayCollide(ball, ids[k], remaining)) {
+    				continue;
+    			}
+    			Gadget gadget = gadgets.get(ids[k]);
+    			double time = gadget.timeUntilCollision(ball, remaining);
+    			if (time < earliest) {
+    				earliest = time;
+    				target = gadget;
+    			}
+    		}
+    	} else {
+    		for (int j = 0; j < gadgets.size(); j++) {
+    			if (!mayCollide(ball, j, remaining)) {
+    				continue;
+    			}
+    			Gadget gadget = gadgets.get(j);
+    			double time = gadget.timeUntilCollision(ball, remaining);
+    			if (time < earliest) {
+    				earliest = time;
+    				target = gadget;
+    			}
+    		}
+    	}
+    	for (Wall wall : borders) {
+    		double time = wall.timeUntilCollision(ball, remaining);
+    		if (time < earliest) {
+    			earliest = time;
+    			target = wall;
+    		}
+    	}
+    	for (int j = 0; j < balls.size(); j++) {
+    		if (j != i && isHittable(j)) {
+    			double time = ball.timeUntilCollision(balls.get(j));
+    			if (time < earliest) {
+    				earliest = time;
+    				target = null;
+    				otherBall = j;
+    			}
+    		}
+    	}
+
+    	if (earliest <= remaining) {
+    		if (otherBall >= 0) {
+    			events.add(new CollisionEvent(eventTime + earliest, i, eventVersions[i],
+    					otherBall, eventVersions[otherBall]));
+    		} else {
+    			events.add(new CollisionEvent(eventTime + earliest, i, eventVersions[i], target));
+    		}
+    	}
+    }
+
+    /**
+     * Resolve a collision that is happening now, then predict the next
+     * collisions of the balls involved.
+     * @param event a valid event whose time is the current eventTime
+     */
+    private void resolveCollision(CollisionEvent event) {
+    	Ball ball = balls.get(event.ball);
+    	eventVersions[event.ball]++;
+    	eventCounts[event.ball]++;
+    	if (event.other >= 0) {
+    		ball.hit(balls.get(event.other));
+    		eventVersions[event.other]++;
+    		eventCounts[event.other]++;
+    		predictCollision(event.other);
+    	} else {
+    		// square and triangle bumpers remember which edge they will be hit on
+    		event.gadget.timeUntilCollision(ball);
+    		if (!event.gadget.hit(ball, this)) {
+    			outOfPlay[event.ball] = true;
+    		}
+    	}
+    	if (eventGadgetsChanged) {
+    		// a triggered action moved a gadget; every prediction may be wrong
+    		eventGadgetsChanged = false;
+    		for (int i = 0; i < balls.size(); i++) {
+    			eventVersions[i]++;
+    			predictCollision(i);
+    		}
+    	} else {
+    		predictCollision(event.ball);
+    	}
+    }
+
+    /**
+     * Move every ball that isn't stationary in a straight line, and the
+     * moving gadgets with them.
+     * @param deltaT the time passed
+     */
+    private void advanceBalls(double deltaT) {
+    	if (deltaT <= 0) {
+    		return;
+    	}
+    	for (int i = 0; i < balls.size(); i++) {
+    		if (!isStationary(i)) {
+    			balls.get(i).advance(deltaT);
+    		}
+    	}
+    	for (MovingGadget gadget : movingGadgets) {
+    		gadget.advance(deltaT);
+    	}
+    }
+
+    /**
+     * Take a snapshot of the board as it is after the last update and publish
+     * it for getSnapshot. Must be called by the thread that updates the board.
+     * @param timestep the length of the last update, in seconds
+     */
+    public void publishSnapshot(double timestep) {
+    	snapshot = new BoardSnapshot(balls, gadgets, changingGadgets,
+    			staticLayerVersion, borders, timestep);
+    }
+
+    /**
+     * Get the last snapshot published by publishSnapshot. Any thread may call this.
+     * @return the snapshot, or null if none has been published
+     */
+    public BoardSnapshot getSnapshot() {
+    	return snapshot;
+    }
+
+    /**
+     * Enable or disable event-driven stepping in update. It is disabled by
+     * default.
+     * @param eventDriven true to step from collision to collision
+     */
+    public void setEventDriven(boolean eventDriven) {
+    	this.eventDriven = eventDriven;
+    }
+
+    /**
+     * Tell the board that a gadget changed shape or position, e.g. a flipper
+     * flipped. During an event-driven update this invalidates every predicted
+     * collision. It also wakes every sleeping ball, since the gadget may have
+     * moved into one. From then on, snapshots list the gadget as changing, so
+     * that renderers stop caching it with the gadgets that never change.
+     * @param gadget the gadget that changed
+     */
+    public void notifyGadgetChanged(Gadget gadget) {
+    	if (eventTimestep > 0) {
+    		eventGadgetsChanged = true;
+    	}
+    	balls.wakeAll();
+    	if (changingGadgets.add(gadget)) {
+    		staticLayerVersion++;
+    	}
+    }
+
+    /**
+     * Allow or stop balls falling asleep. A sleeping ball is at rest, and
+     * update skips it until something hits it or a trigger wakes it up; see
+     * BallStore. Absorbed balls are always asleep. Balls may fall asleep by
+     * default.
+     * @param enabled true to let balls that come to rest fall asleep
+     */
+    public void setSleepEnabled(boolean enabled) {
+    	balls.setSleepEnabled(enabled);
+    }
+
+    /**
+     * Enable or disable the spatial grid broad phase. When disabled, update
+     * checks every ball against every other ball and every gadget.
+     * The grid is enabled by default.
+     * @param enabled true to use the spatial grid
+     */
+    public void setSpatialGridEnabled(boolean enabled) {
+    	this.spatialGridEnabled = enabled;
+    	this.gadgetsBinned = false;
+    }
+
+    /**
+     * Enable or disable verification of the spatial grid. When enabled, every
+     * update also runs the brute-force scan and throws a RepInvariantException
+     * if it finds a collision within the timestep that the grid did not
+     * report as a candidate. This is slow, and meant for debugging.
+     * @param verified true to check the grid against the brute-force scan
+     */
+    public void setSpatialGridVerified(boolean verified) {
+    	this.spatialGridVerified = verified;
+    }
+
+    /**
+     * Collide ball with the other balls that share a grid cell with its swept
+     * bounding box, in the same order as the brute-force scan. Every time ball
+     * hits another ball its velocity changes, so the candidates are looked up
+     * again and the scan carries on past the last ball checked.
+     * @param ball the ball being updated
+     * @param timestep the length of the current update
+     */
+    private void collideWithBallsInGrid(Ball ball, double timestep) {
+    	int count = queryBalls(ball, timestep);
+    	int[] ids = grid.ballResult();
+    	int last = -1;
+    	for (int k = 0; k < count; k++) {
+    		int j = ids[k];
+    		if (j <= last) {
+    			continue;
+    		}
+    		last = j;
+    		Ball ball2 = balls.get(j);
+    		if (ball2 != ball && !balls.absorbed[j] && ball.timeUntilCollision(ball2) <= timestep) {
+    			ball.hit(ball2);
+    			rebinBall(j, timestep);
+    			count = queryBalls(ball, timestep);
+    			ids = grid.ballResult();
+    			k = -1;
+    		}
+    	}
+    }
+
+    /**
+     * Collide ball with the gadgets that share a grid cell with its swept
+     * bounding box, in the same order as the brute-force scan. A hit can change
+     * the ball's velocity or position, so the candidates are looked up again
+     * after each one and the scan carries on past the last gadget checked.
+     * @param ball the ball being updated
+     * @param timestep the length of the current update
+     * @return false if a gadget took the ball out of play
+     */
+    private boolean collideWithGadgetsInGrid(Ball ball, double timestep) {
+    	int count = queryGadgets(ball, timestep);
+    	int[] ids = grid.gadgetResult();
+    	int last = -1;
+    	for (int k = 0; k < count; k++) {
+    		int j = ids[k];
+    		if (j <= last) {
+    			continue;
+    		}
+    		last = j;
+    		if (!mayCollide(ball, j, timestep)) {
+    			continue;
+    		}
+    		Gadget gadget = gadgets.get(j);
+    		if (gadget.timeUntilCollision(ball, timestep) <= timestep) {
+    			if (! gadget.hit(ball, this)) {
+    				return false;
+    			}
+    			count = queryGadgets(ball, timestep);
+    			ids = grid.gadgetResult();
+    			k = -1;
+    		}
+    	}
+    	return true;
+    }
+
+    /**
+     * Look up the balls sharing a grid cell with ball's swept bounding box.
+     * @return the number of candidates in grid.ballResult()
+     */
+    private int queryBalls(Ball ball, double timestep) {
+    	double reach = sweptReach(ball, timestep);
+    	int count = grid.queryBalls(ball.getX() - reach, ball.getY() - reach,
+    			ball.getX() + reach, ball.getY() + reach);
+    	if (spatialGridVerified) {
+    		verifyBallCandidates(ball, grid.ballResult(), count, timestep);
+    	}
+    	return count;
+    }
+
+    /**
+     * Look up the gadgets sharing a grid cell with ball's swept bounding box.
+     * @return the number of candidates in grid.gadgetResult()
+     */
+    private int queryGadgets(Ball ball, double timestep) {
+    	double reach = sweptReach(ball, timestep);
+    	int count = grid.queryGadgets(ball.getX() - reach, ball.getY() - reach,
+    			ball.getX() + reach, ball.getY() + reach);
+    	if (spatialGridVerified) {
+    		verifyGadgetCandidates(ball, grid.gadgetResult(), count, timestep);
+    	}
+    	return count;
+    }
+
+    /**
+     * Re-bin all gadgets (if the gadget list changed) and all balls.
+     * @param timestep the length of the coming update
+     */
+    private void rebuildSpatialGrid(double timestep) {
+    	if (!gadgetsBinned) {
+    		buildGadgetBoxes();
+    		grid.clearGadgets();
+    		for (int i = 0; i < gadgets.size(); i++) {
+    			grid.addGadget(i, gadgetBoxes[4 * i], gadgetBoxes[4 * i + 1],
+    					gadgetBoxes[4 * i + 2], gadgetBoxes[4 * i + 3]);
+    		}
+    		gadgetsBinned = true;
+    	}
+    	grid.clearBalls();
+    	if (ballBoxes.length < 4 * balls.size()) {
+    		ballBoxes = new double[8 * balls.size()];
+    	}
+    	for (int i = 0; i < balls.size(); i++) {
+    		binBall(i, balls.get(i), timestep);
+    	}
+    }
+
+    /**
+     * Move a ball to the cells covering its current swept bounding box.
+     * @param i index of the ball in balls
+     * @param timestep the length of the current update
+     */
+    private void rebinBall(int i, double timestep) {
+    	grid.removeBall(i, ballBoxes[4 * i], ballBoxes[4 * i + 1],
+    			ballBoxes[4 * i + 2], ballBoxes[4 * i + 3]);
+    	binBall(i, balls.get(i), timestep);
+    }
+
+    /**
+     * Add a ball to the cells covering its current swept bounding box, and
+     * remember the box in ballBoxes.
+     * @param i index of the ball in balls
+     * @param ball the ball
+     * @param timestep the length of the current update
+     */
+    private void binBall(int i, Ball ball, double timestep) {
+    	double reach = sweptReach(ball, timestep);
+    	ballBoxes[4 * i] = ball.getX() - reach;
+    	ballBoxes[4 * i + 1] = ball.getY() - reach;
+    	ballBoxes[4 * i + 2] = ball.getX() + reach;
+    	ballBoxes[4 * i + 3] = ball.getY() + reach;
+    	grid.addBall(i, ballBoxes[4 * i], ballBoxes[4 * i + 1],
+    			ballBoxes[4 * i + 2], ballBoxes[4 * i + 3]);
+    }
+
+    /**
+     * Work out the footprint of every gadget: its getOrigin()/getSize()
+     * square, padded by GADGET_FOOTPRINT_PADDING.
+     */
+    private void buildGadgetBoxes() {
+    	gadgetBoxes = new double[4 * gadgets.size()];
+    	for (int i = 0; i < gadgets.size(); i++) {
+    		Gadget gadget = gadgets.get(i);
+    		Vect origin = gadget.getOrigin();
+    		int[] size = gadget.getSize();
+    		gadgetBoxes[4 * i] = origin.x() - 0.5 - GADGET_FOOTPRINT_PADDING;
+    		gadgetBoxes[4 * i + 1] = origin.y() - 0.5 - GADGET_FOOTPRINT_PADDING;
+    		gadgetBoxes[4 * i + 2] = origin.x() - 0.5 + size[0] + GADGET_FOOTPRINT_PADDING;
+    		gadgetBoxes[4 * i + 3] = origin.y() - 0.5 + size[1] + GADGET_FOOTPRINT_PADDING;
+    	}
+    }
+
+    /**
+     * Check whether ball's swept bounding box overlaps a gadget's footprint,
+     * so that a gadget that ball can't reach within time is never asked for
+     * its collision time. Counts the check in gadgetChecks or
+     * gadgetChecksSkipped.
+     * @param ball the ball
+     * @param j index of the gadget in gadgets
+     * @param time the time within which a collision matters
+     * @return false if ball can't collide with the gadget within time
+     */
+    private boolean mayCollide(Ball ball, int j, double time) {
+    	if (gadgetBoxes.length != 4 * gadgets.size()) {
+    		buildGadgetBoxes();
+    	}
+    	double reach = sweptReach(ball, time);
+    	double x = ball.getX();
+    	double y = ball.getY();
+    	if (x + reach < gadgetBoxes[4 * j] || y + reach < gadgetBoxes[4 * j + 1]
+    			|| x - reach > gadgetBoxes[4 * j + 2] || y - reach > gadgetBoxes[4 * j + 3]) {
+    		gadgetChecksSkipped++;
+    		return false;
+    	}
+    	gadgetChecks++;
+    	return true;
+    }
+
+    /**
+     * @return the number of times the last update asked a gadget when a ball
+     *         would collide with it
+     */
+    public int getGadgetChecks() {
+    	return gadgetChecks;
+    }
+
+    /**
+     * @return the number of times the last update didn't need to ask a gadget
+     *         when a ball would collide with it, because the ball couldn't
+     *         reach the gadget's footprint in time
+     */
+    public int getGadgetChecksSkipped() {
+    	return gadgetChecksSkipped;
+    }
+
+    /**
+     * @param ball a ball
+     * @param timestep the length of the current update
+     * @return half the side of a square, centered on the ball, that contains
+     *         the ball for the whole timestep at its current velocity
+     */
+    private static double sweptReach(Ball ball, double timestep) {
+    	return Constants.BALL_RADIUS + ball.getSpeed() * timestep
+    			+ SWEEP_SLACK;
+    }
+
+    /**
+     * Check that no ball missing from the grid's candidates would collide
+     * with ball within timestep.
+     * @throws RepInvariantException if the grid missed a collision
+     */
+    private void verifyBallCandidates(Ball ball, int[] ids, int count, double timestep) {
+    	for (int j = 0; j < balls.size(); j++) {
+    		Ball ball2 = balls.get(j);
+    		if (ball2 != ball && Arrays.binarySearch(ids, 0, count, j) < 0
+    				&& ball.timeUntilCollision(ball2) <= timestep) {
+    			throw new RepInvariantException("Spatial grid missed a ball-ball collision");
+    		}
+    	}
+    }
+
+    /**
+     * Check that no gadget missing from the grid's candidates would collide
+     * with ball within timestep.
+     * @throws RepInvariantException if the grid missed a collision
+     */
+    private void verifyGadgetCandidates(Ball ball, int[] ids, int count, double timestep) {
+    	for (int j = 0; j < gadgets.size(); j++) {
+    		if (Arrays.binarySearch(ids, 0, count, j) < 0
+    				&& gadgets.get(j).timeUntilCollision(ball) <= timestep) {
+    			throw new RepInvariantException("Spatial grid missed a collision with "
+    					+ gadgets.get(j).getName());
+    		}
+    	}
+    }
     
     /**
      * @param ball ball that has been absorbed
      */
     public void notifyAbsorbed(Ball ball) {
-        absorbed.add(ball);
+        int index = balls.indexOf(ball);
+        if (index >= 0) {
+        	balls.absorbed[index] = true;
+        	balls.asleep[index] = true;
+        }
     }
     
     /**
      * @param ball ball that has been released
      */
     public void notifyReleased(Ball ball) {
-        absorbed.remove(ball);
+        int index = balls.indexOf(ball);
+        if (index >= 0) {
+        	balls.absorbed[index] = false;
+        	balls.wake(index);
+        }
+        if (gridTimestep > 0 && index >= 0) {
+        	// released in the middle of an update: the ball has a new position and velocity
+        	rebinBall(index, gridTimestep);
+        }
+        if (eventTimestep > 0 && index >= 0) {
+        	eventVersions[index]++;
+        	predictCollision(index);
+        }
     }
     
     /**
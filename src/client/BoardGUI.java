@@ -6,27 +6,51 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 import common.Constants;
-import client.gadgets.Gadget;
-import client.gadgets.Wall;
 
 /**
  * BoardGUI is a JPanel that represents a Pingball Board. It repaints the JPanel
- * to continuously represent the state of the Board.
+ * at a target frame rate to continuously represent the state of the Board.
  * 
- * Thread Safety: BoardGUI is confined to the Swing thread.
+ * Frames are drawn from the snapshots the board publishes after each update,
+ * never from the board itself. Between two updates the balls are drawn where
+ * they would be if they moved smoothly from their positions before the last
+ * update to their positions after it, so the animation runs at the frame rate
+ * rather than at the update rate, one update behind the simulation.
+ * 
+ * Gadgets that have never changed shape are drawn once into an image, the
+ * static layer, which every frame copies; only the balls and the gadgets that
+ * do change, like flippers, are drawn shape by shape. The static layer is
+ * drawn again only when the board, the panel size or the snapshot's static
+ * layer version changes, i.e. when a gadget is added or changes shape for the
+ * first time.
+ * 
+ * Thread Safety: BoardGUI is confined to the Swing thread. The Swing timer
+ * that paces the frames runs on it too.
  * 
  */
-public class BoardGUI extends JPanel implements Runnable {
+public class BoardGUI extends JPanel {
+
+	/**
+	 * Frame rate used if none is given
+	 */
+	public static final int DEFAULT_FPS = 60;
 
 	private static final long serialVersionUID = 1L;
 	private Board board;
-	private Thread animator;
+	private final Timer animator;
+	private final Ellipse2D.Double ballShape = new Ellipse2D.Double();
+	private BufferedImage staticLayer;
+	private Board staticLayerBoard;
+	private int staticLayerVersion;
 	private final Color BACKGROUNDCOLOR = new Color(231, 220, 166);
 	private PingBorder border = new PingBorder(Color.BLACK, 0);
 	private boolean firstPrintTop = false;
@@ -35,11 +59,26 @@ public class BoardGUI extends JPanel implements Runnable {
 	private boolean firstPrintRight = false;
 
 	/**
-	 * Create a new boardGui with the given board
+	 * Create a new boardGui with the given board, drawn at DEFAULT_FPS
 	 * @param board a Board. if null, will create a blank board with
 	 * the correct background color but no features on it.
 	 */
 	public BoardGUI(Board board) {
+		this(board, DEFAULT_FPS);
+	}
+
+	/**
+	 * Create a new boardGui with the given board
+	 * @param board a Board. if null, will create a blank board with
+	 * the correct background color but no features on it.
+	 * @param fps the number of frames to draw per second. requires > 0
+	 */
+	public BoardGUI(Board board, int fps) {
+		animator = new Timer(1000 / Math.min(fps, 1000), new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				repaint();
+			}
+		});
 		setBackground(BACKGROUNDCOLOR);
 		this.board = board;
 		// cleaner animations via double buffered
@@ -55,10 +94,15 @@ public class BoardGUI extends JPanel implements Runnable {
 	@Override
 	public void addNotify() {
 		super.addNotify();
-		animator = new Thread(this);
 		animator.start();
 	}
 
+	@Override
+	public void removeNotify() {
+		animator.stop();
+		super.removeNotify();
+	}
+
 	@Override
 	public void paint(Graphics g) {
 		super.paint(g);
@@ -68,48 +112,64 @@ public class BoardGUI extends JPanel implements Runnable {
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
 				RenderingHints.VALUE_ANTIALIAS_ON);
 
-		if (board != null) {
+		BoardSnapshot snapshot = board == null ? null : board.getSnapshot();
+		if (snapshot != null) {
 			// drawing gadgets
-			for (Gadget s : board.returnGadgets()) {
-				g2d.setColor(s.getColor());
-				g2d.fill(s.getShape());
+			if (staticLayer == null || staticLayerBoard != board
+					|| staticLayerVersion != snapshot.getStaticLayerVersion()
+					|| staticLayer.getWidth() != getWidth()
+					|| staticLayer.getHeight() != getHeight()) {
+				drawStaticLayer(snapshot);
 			}
-			// drawing balls
-			for (Ball b : board.getBalls()) {
-				g2d.setColor(b.getColor());
-				g2d.fill(b.getShape());
+			g2d.drawImage(staticLayer, 0, 0, null);
+			for (int i = 0; i < snapshot.getGadgetCount(); i++) {
+				if (!snapshot.isGadgetStatic(i)) {
+					g2d.setColor(snapshot.getGadgetColor(i));
+					g2d.fill(snapshot.getGadgetShape(i));
+				}
+			}
+			// drawing balls, where they are by now
+			double progress = snapshot.progress(System.nanoTime());
+			for (int i = 0; i < snapshot.getBallCount(); i++) {
+				ballShape.setFrame(
+						snapshot.getBallX(i, progress) * Constants.SCALE + Constants.SCALE,
+						snapshot.getBallY(i, progress) * Constants.SCALE + Constants.SCALE,
+						0.5 * Constants.SCALE, 0.5 * Constants.SCALE);
+				g2d.setColor(snapshot.getBallColor());
+				g2d.fill(ballShape);
 			}
 			// drawing walls
-			for (Wall w : board.getWallList()) {
-				if (w.wallConnectedName() != null) {
-					if (w.getSide() == Constants.BoardSide.RIGHT
+			for (Constants.BoardSide side : Constants.BoardSide.values()) {
+				String name = snapshot.getWallName(side);
+				if (name != null) {
+					if (side == Constants.BoardSide.RIGHT
 							&& !firstPrintRight) {
 						System.out.println("adding name to RIGHTSIDE");
 						firstPrintRight = true;
-						border.setString(w.getSide(), w.wallConnectedName());
+						border.setString(side, name);
 						setBorder(border);
-					} else if (w.getSide() == Constants.BoardSide.LEFT
+					} else if (side == Constants.BoardSide.LEFT
 							&& !firstPrintLeft) {
 						System.out.println("adding name to LEFTSIDE");
 						firstPrintLeft = true;
-						border.setString(w.getSide(), w.wallConnectedName());
+						border.setString(side, name);
 						setBorder(border);
-					} else if (w.getSide() == Constants.BoardSide.TOP
+					} else if (side == Constants.BoardSide.TOP
 							&& !firstPrintTop) {
 						System.out.println("adding name to TOPSIDE");
 						firstPrintTop = true;
-						border.setString(w.getSide(), w.wallConnectedName());
+						border.setString(side, name);
 						setBorder(border);
-					} else if (w.getSide() == Constants.BoardSide.BOTTOM
+					} else if (side == Constants.BoardSide.BOTTOM
 							&& !firstPrintBottom) {
 						System.out.println("adding name to BOTTOMSIDE");
 						firstPrintBottom = true;
-						border.setString(w.getSide(), w.wallConnectedName());
+						border.setString(side, name);
 						setBorder(border);
 					}
 
 				} else {
-					border.clearString(w.getSide());
+					border.clearString(side);
 					setBorder(border);
 				}
 			}
@@ -118,18 +178,30 @@ public class BoardGUI extends JPanel implements Runnable {
 		g.dispose();
 	}
 
-	@Override
-	public void run() {
-		while (true) {
-			try {
-				repaint();
-
-				Thread.sleep((long) Constants.TIMESTEP);
-			} catch (InterruptedException ex) {
-				Logger.getLogger(Board.class.getName()).log(Level.SEVERE, null,
-						ex);
+	/**
+	 * Draw the static gadgets of snapshot into a new static layer the size of
+	 * the panel.
+	 * 
+	 * @param snapshot
+	 *            a snapshot of board
+	 */
+	private void drawStaticLayer(BoardSnapshot snapshot) {
+		int width = Math.max(1, getWidth());
+		int height = Math.max(1, getHeight());
+		staticLayer = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g2d = staticLayer.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		for (int i = 0; i < snapshot.getGadgetCount(); i++) {
+			if (snapshot.isGadgetStatic(i)) {
+				g2d.setColor(snapshot.getGadgetColor(i));
+				g2d.fill(snapshot.getGadgetShape(i));
 			}
 		}
+		g2d.dispose();
+		staticLayerBoard = board;
+		staticLayerVersion = snapshot.getStaticLayerVersion();
 	}
 
 	/**
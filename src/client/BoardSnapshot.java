@@ -0,0 +1,212 @@
+package client;
+
+import java.awt.Color;
+import java.awt.Shape;
+import java.util.List;
+import java.util.Set;
+
+import common.Constants;
+import client.gadgets.Gadget;
+import client.gadgets.Wall;
+
+/**
+ * An immutable picture of a Board after an update, taken by the thread that
+ * updates the board so that a renderer on another thread can draw it without
+ * touching the board. It holds everything BoardGUI draws: the gadgets' shapes and
+ * colors, the names of the boards fused to each wall, and for every ball both its
+ * position before the update and its position after it, so that the renderer can
+ * interpolate the ball's position at any moment until the next update.
+ *
+ * Gadgets are split into static ones, which have never changed shape, and changing
+ * ones, such as flippers that have flipped. A renderer can draw the static gadgets
+ * once and reuse the picture for as long as getStaticLayerVersion stays the same.
+ *
+ * Thread Safety Argument:
+ * - every field is final and set in the constructor, and no array escapes, so a
+ *   snapshot published through a volatile field may be read by any thread.
+ * - the gadget shapes are the gadgets' own. Gadgets make their shapes when they are
+ *   made and never modify them, and callers must not modify them either.
+ *
+ * Rep Invariant:
+ * - fromX, fromY, toX and toY have the same length
+ * - gadgetShapes, gadgetColors and gadgetStatic have the same length
+ * - wallNames has one entry per BoardSide
+ * - stepNanos > 0
+ */
+public final class BoardSnapshot {
+	private final long time;
+	private final long stepNanos;
+	private final double[] fromX;
+	private final double[] fromY;
+	private final double[] toX;
+	private final double[] toY;
+	private final Color ballColor;
+	private final Shape[] gadgetShapes;
+	private final Color[] gadgetColors;
+	private final boolean[] gadgetStatic;
+	private final int staticLayerVersion;
+	private final String[] wallNames;
+
+	/**
+	 * Take a snapshot of a board. Must be called by the thread that updates it.
+	 *
+	 * @param balls
+	 *            the board's balls, whose positions before the last update
+	 *            were saved
+	 * @param gadgets
+	 *            the board's gadgets
+	 * @param changing
+	 *            the gadgets that have changed shape since they were added
+	 * @param staticLayerVersion
+	 *            a number that changes whenever the static gadgets do
+	 * @param walls
+	 *            the board's walls
+	 * @param timestep
+	 *            the length of the last update, in seconds. requires > 0
+	 */
+	BoardSnapshot(BallStore balls, List<Gadget> gadgets, Set<Gadget> changing,
+			int staticLayerVersion, Wall[] walls, double timestep) {
+		this.time = System.nanoTime();
+		this.stepNanos = (long) (timestep * 1e9);
+
+		int count = balls.size();
+		fromX = new double[count];
+		fromY = new double[count];
+		toX = new double[count];
+		toY = new double[count];
+		balls.copyPositions(fromX, fromY, toX, toY);
+		ballColor = count > 0 ? balls.get(0).getColor() : null;
+
+		gadgetShapes = new Shape[gadgets.size()];
+		gadgetColors = new Color[gadgets.size()];
+		gadgetStatic = new boolean[gadgets.size()];
+		for (int i = 0; i < gadgetShapes.length; i++) {
+			Gadget gadget = gadgets.get(i);
+			gadgetShapes[i] = gadget.getShape();
+			gadgetColors[i] = gadget.getColor();
+			gadgetStatic[i] = !changing.contains(gadget);
+		}
+		this.staticLayerVersion = staticLayerVersion;
+
+		wallNames = new String[Constants.BoardSide.values().length];
+		for (Wall wall : walls) {
+			wallNames[wall.getSide().ordinal()] = wall.wallConnectedName();
+		}
+		checkRep();
+	}
+
+	/**
+	 * How far the board has got from this snapshot towards the next one
+	 *
+	 * @param now
+	 *            the current System.nanoTime()
+	 * @return the fraction of an update's length that has passed since the
+	 *         snapshot was taken, between 0 and 1
+	 */
+	public double progress(long now) {
+		double progress = (double) (now - time) / stepNanos;
+		return Math.max(0, Math.min(1, progress));
+	}
+
+	/**
+	 * @return the number of balls
+	 */
+	public int getBallCount() {
+		return toX.length;
+	}
+
+	/**
+	 * @param i
+	 *            a ball, in [0, getBallCount())
+	 * @param progress
+	 *            how far through the update to look, between 0 (the position
+	 *            before it) and 1 (the position after it)
+	 * @return the x coordinate of the ball, in L
+	 */
+	public double getBallX(int i, double progress) {
+		return fromX[i] + (toX[i] - fromX[i]) * progress;
+	}
+
+	/**
+	 * @param i
+	 *            a ball, in [0, getBallCount())
+	 * @param progress
+	 *            how far through the update to look, between 0 (the position
+	 *            before it) and 1 (the position after it)
+	 * @return the y coordinate of the ball, in L
+	 */
+	public double getBallY(int i, double progress) {
+		return fromY[i] + (toY[i] - fromY[i]) * progress;
+	}
+
+	/**
+	 * @return the color to draw balls in, or null if there are no balls
+	 */
+	public Color getBallColor() {
+		return ballColor;
+	}
+
+	/**
+	 * @return the number of gadgets
+	 */
+	public int getGadgetCount() {
+		return gadgetShapes.length;
+	}
+
+	/**
+	 * @param i
+	 *            a gadget, in [0, getGadgetCount())
+	 * @return the gadget's shape, which must not be modified
+	 */
+	public Shape getGadgetShape(int i) {
+		return gadgetShapes[i];
+	}
+
+	/**
+	 * @param i
+	 *            a gadget, in [0, getGadgetCount())
+	 * @return the gadget's color
+	 */
+	public Color getGadgetColor(int i) {
+		return gadgetColors[i];
+	}
+
+	/**
+	 * @param i
+	 *            a gadget, in [0, getGadgetCount())
+	 * @return true if the gadget has never changed shape, so it can be drawn
+	 *         into a cached static layer
+	 */
+	public boolean isGadgetStatic(int i) {
+		return gadgetStatic[i];
+	}
+
+	/**
+	 * @return a number that is the same for two snapshots of a board if their
+	 *         static gadgets are the same
+	 */
+	public int getStaticLayerVersion() {
+		return staticLayerVersion;
+	}
+
+	/**
+	 * @param side
+	 *            a side of the board
+	 * @return the name of the board fused to that wall, or null if none is
+	 */
+	public String getWallName(Constants.BoardSide side) {
+		return wallNames[side.ordinal()];
+	}
+
+	/**
+	 * Verify the rep invariant (see the class comment)
+	 */
+	private void checkRep() {
+		assert fromX.length == toX.length && fromY.length == toX.length
+				&& toY.length == toX.length;
+		assert gadgetShapes.length == gadgetColors.length
+				&& gadgetStatic.length == gadgetColors.length;
+		assert wallNames.length == Constants.BoardSide.values().length;
+		assert stepNanos > 0;
+	}
+}
@@ -0,0 +1,78 @@
+package client;
+
+import client.gadgets.Gadget;
+
+/**
+ * A collision predicted by Board's event-driven stepping: at time, the ball at
+ * index ball will hit either the ball at index other or gadget.
+ *
+ * An event is only valid while both balls still have the versions recorded
+ * when it was predicted. Board bumps a ball's version whenever its path
+ * changes, which invalidates every event predicted for it without searching
+ * the queue.
+ *
+ * This is an immutable class.
+ *
+ * Rep invariant:
+ * * exactly one of (other >= 0) and (gadget != null) holds.
+ * * time >= 0
+ */
+class CollisionEvent implements Comparable<CollisionEvent> {
+
+	final double time;
+	final int ball;
+	final int version;
+	final int other;
+	final int otherVersion;
+	final Gadget gadget;
+
+	/**
+	 * Create a ball-gadget collision event.
+	 *
+	 * @param time time of the collision, measured from the start of the update
+	 * @param ball index of the ball in the board's ball list
+	 * @param version the ball's version when the collision was predicted
+	 * @param gadget the gadget (or wall) that will be hit
+	 */
+	CollisionEvent(double time, int ball, int version, Gadget gadget) {
+		this(time, ball, version, -1, 0, gadget);
+	}
+
+	/**
+	 * Create a ball-ball collision event.
+	 *
+	 * @param time time of the collision, measured from the start of the update
+	 * @param ball index of the first ball in the board's ball list
+	 * @param version the first ball's version when the collision was predicted
+	 * @param other index of the second ball in the board's ball list
+	 * @param otherVersion the second ball's version when the collision was
+	 *            predicted
+	 */
+	CollisionEvent(double time, int ball, int version, int other, int otherVersion) {
+		this(time, ball, version, other, otherVersion, null);
+	}
+
+	private CollisionEvent(double time, int ball, int version, int other,
+			int otherVersion, Gadget gadget) {
+		this.time = time;
+		this.ball = ball;
+		this.version = version;
+		this.other = other;
+		this.otherVersion = otherVersion;
+		this.gadget = gadget;
+		checkRep();
+	}
+
+	/**
+	 * Check the rep invariant.
+	 */
+	private void checkRep() {
+		assert ((other >= 0) != (gadget != null));
+		assert (time >= 0);
+	}
+
+	@Override
+	public int compareTo(CollisionEvent that) {
+		return Double.compare(this.time, that.time);
+	}
+}
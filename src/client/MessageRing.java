@@ -0,0 +1,232 @@
+package client;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue for exactly one producer thread and one consumer thread,
+ * such as the ServerHandler thread handing decoded messages to the PingballClient
+ * thread. Elements live in a fixed array indexed by two ever-increasing counters, head
+ * (the next element to take) and tail (the next slot to fill), so adding and taking
+ * allocate nothing. The consumer takes everything that has arrived at once with drainTo.
+ *
+ * What offer does when the ring is full is set by its Overflow policy:
+ * - BLOCK: wait until the consumer makes room. Nothing is lost, and the producer stops
+ *   reading from its source, which pushes back on whoever is sending.
+ * - DROP_OLDEST: discard the oldest element to make room, so the consumer always sees
+ *   the newest elements and the producer never waits.
+ *
+ * The ring counts the times it was found full, the elements dropped, and the most
+ * elements it has held at once; a ring that fills up is a sign that the consumer can't
+ * keep up.
+ *
+ * Thread Safety Argument:
+ * - offer must only be called by one producer thread; poll, drainTo and clear by one
+ *   consumer thread. The other methods may be called by any thread.
+ * - tail is only written by the producer. It writes an element into its slot before
+ *   advancing tail with lazySet, which orders the write before the consumer's read of
+ *   tail, and so before the consumer's read of the slot.
+ * - head is advanced by compareAndSet: by the consumer when it takes an element, and
+ *   with DROP_OLDEST by the producer when it drops one. An element is only returned by
+ *   whichever thread advances head past it, and the producer advances head before it
+ *   reuses the slot, so a consumer that read the slot too late fails its compareAndSet
+ *   and tries again.
+ * - taken slots are not cleared, since with DROP_OLDEST the producer may already be
+ *   reusing them; a ring holds on to at most capacity old elements.
+ * - the counters are volatile and only written by the producer.
+ *
+ * Rep Invariant:
+ * - capacity is a power of two, and mask == capacity - 1
+ * - 0 <= tail - head <= capacity
+ * - elements[i & mask] for head <= i < tail are the elements in the ring, oldest first
+ */
+public class MessageRing<E> {
+    /**
+     * What to do when an element is offered to a full ring
+     */
+    public static enum Overflow {
+        BLOCK, DROP_OLDEST;
+    }
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Object[] elements;
+    private final int mask;
+    private final Overflow overflow;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long fullCount;
+    private volatile long droppedCount;
+    private volatile int highWater;
+
+    /**
+     * Make an empty ring
+     *
+     * @param capacity the most elements the ring holds; rounded up to a power of two.
+     *                 requires > 0
+     * @param overflow what offer does when the ring is full
+     */
+    public MessageRing(int capacity, Overflow overflow) {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size *= 2;
+        }
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.overflow = overflow;
+        checkRep();
+    }
+
+    /**
+     * Add an element, making room for it as the Overflow policy says if the ring is full.
+     * Only the producer thread may call this.
+     *
+     * @param e the element to add, not null
+     * @return true if e was added; false if the thread was interrupted while waiting for
+     *         room, in which case the interrupt status is set again
+     */
+    public boolean offer(E e) {
+        long t = tail.get();
+        boolean wasFull = false;
+        while (true) {
+            long h = head.get();
+            if (t - h < elements.length) {
+                break;
+            }
+            if (!wasFull) {
+                wasFull = true;
+                fullCount++;
+            }
+            if (overflow == Overflow.DROP_OLDEST) {
+                if (head.compareAndSet(h, h + 1)) {
+                    droppedCount++;
+                    break;
+                }
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        elements[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+        int size = (int) (t + 1 - head.get());
+        if (size > highWater) {
+            highWater = size;
+        }
+        return true;
+    }
+
+    /**
+     * Take the oldest element. Only the consumer thread may call this.
+     *
+     * @return the oldest element, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+            Object e = elements[(int) h & mask];
+            if (head.compareAndSet(h, h + 1)) {
+                return (E) e;
+            }
+            // the producer dropped it; try the next one
+        }
+    }
+
+    /**
+     * Move up to max elements, oldest first, to a collection. Only the consumer thread
+     * may call this.
+     *
+     * @param batch the collection to add them to
+     * @param max the most elements to move
+     * @return the number of elements moved
+     */
+    public int drainTo(Collection<? super E> batch, int max) {
+        int moved = 0;
+        while (moved < max) {
+            E e = poll();
+            if (e == null) {
+                break;
+            }
+            batch.add(e);
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Discard every element. Only the consumer thread may call this.
+     */
+    public void clear() {
+        while (poll() != null) {
+        }
+    }
+
+    /**
+     * @return the number of elements in the ring; only a snapshot if another thread is
+     *         using it
+     */
+    public int size() {
+        long h = head.get();
+        return (int) Math.max(0, Math.min(elements.length, tail.get() - h));
+    }
+
+    /**
+     * @return true if the ring has no elements; only a snapshot if another thread is
+     *         using it
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the most elements the ring holds
+     */
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * @return the number of offers that found the ring full
+     */
+    public long getFullCount() {
+        return fullCount;
+    }
+
+    /**
+     * @return the number of elements dropped to make room for newer ones
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the most elements the ring has held at once
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d queued, %s when full, full %d times, %d dropped, at most %d queued",
+                size(), elements.length, overflow, fullCount, droppedCount, highWater);
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        assert Integer.bitCount(elements.length) == 1 && mask == elements.length - 1;
+        assert tail.get() - head.get() >= 0 && tail.get() - head.get() <= elements.length;
+    }
+}
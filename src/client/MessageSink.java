@@ -0,0 +1,18 @@
+package client;
+
+import common.netprotocol.NetworkMessage;
+
+/**
+ * Where a board's walls and portals send the messages about balls leaving the
+ * board: a ServerHandler, which sends them to the server, or a board host that
+ * hands the balls to other boards in the same process.
+ */
+public interface MessageSink {
+
+    /**
+     * Send a message from the board.
+     * Only called by the thread that updates the board.
+     * @param message message to send
+     */
+    public void send(NetworkMessage message);
+}
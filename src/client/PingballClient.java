@@ -1,8 +1,10 @@
 package client;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
@@ -11,6 +13,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import client.gadgets.Portal;
 import common.Constants;
+import common.PingballThreadFactory;
 import common.RepInvariantException;
 import common.netprotocol.*;
 
@@ -35,39 +38,144 @@ import physics.Vect;
  * 
  * Thread Safety Argument: 
  * - board and its gadgets are confined to the PingballClient thread. 
- * - the serverHandler thread passes messages via incomingMessages which is a threadsafe datatype. 
+ * - the serverHandler thread passes messages via incomingMessages, a single-producer,
+ *   single-consumer MessageRing. Each connection gets a new ring, so a ServerHandler that
+ *   is still shutting down can never be a second producer for the next one's ring.
+ *   incomingMessages is volatile so that any thread may read its counters.
+ * - incomingBatch is confined to the PingballClient thread.
  * - any GUI thread accessing the client does so by adding runnables to the threadsafe invokeLater queue.
+ * - a headless client never starts a GUI thread.
+ * - scheduler is only advanced by the PingballClient thread; its statistics may be read by any thread.
  * 
  * Rep Invariant: 
- * - incomingMessages must not be null. 
+ * - incomingMessages is null if and only if serverHandler is.
  * - if board is null, so is serverHandler and boardPath.
+ * - between timesteps, incomingBatch is empty unless the client is paused.
  */
 public class PingballClient {
+	/**
+	 * Most board updates to run back to back when the loop falls behind
+	 */
+	private static final int MAX_CATCH_UP_TICKS = 5;
+	/**
+	 * Size of the ring of messages from the server, and the most taken from
+	 * it in one timestep. While the client runs, at most this many messages
+	 * wait in the ring; when it is full the ServerHandler stops reading from
+	 * the server until the board catches up, since dropping messages would
+	 * lose balls. A paused client is not bounded by it: it still empties the
+	 * ring every timestep, into incomingBatch, which grows without limit
+	 * until the client resumes. This way the ServerHandler keeps reading, and
+	 * a paused client never holds up the server's sends to it.
+	 */
+	private static final int INCOMING_CAPACITY = 1024;
+
 	private Board board;
 	private String boardPath;
 	private ServerHandler serverHandler;
-	private final BlockingQueue<NetworkMessage> incomingMessages;
+	private volatile MessageRing<NetworkMessage> incomingMessages;
+	// messages taken from incomingMessages but not yet handled; while paused
+	// they pile up here, without limit
+	private final List<NetworkMessage> incomingBatch;
 	private final AtomicBoolean paused;
 	private final BlockingQueue<Runnable> invokeLaterQueue;
+	private final boolean headless;
+	private final long dumpIntervalNanos;
+	private final PingballThreadFactory threads;
+	private final boolean binary;
+	private final int fps;
+	private final TextRenderer textRenderer;
+	private volatile TickScheduler scheduler;
 
 	/**
 	 * Create a Pingball client (This should only be called via
 	 * PingballClient.main)
 	 */
 	public PingballClient() {
-		incomingMessages = new LinkedBlockingQueue<NetworkMessage>();
+		this(false, 0, false, true, BoardGUI.DEFAULT_FPS, false);
+	}
+
+	/**
+	 * Create a Pingball client (This should only be called via
+	 * PingballClient.main)
+	 * 
+	 * @param headless
+	 *            true to run without a GUI. A headless client never loads
+	 *            Swing, so it can run on a machine without a display.
+	 * @param dumpInterval
+	 *            if positive, the board is printed to System.out every
+	 *            dumpInterval seconds
+	 * @param virtualThreads
+	 *            true to run the ServerHandler on a virtual thread, if the JVM
+	 *            supports them
+	 * @param binary
+	 *            true to offer the server the binary message serialization
+	 * @param fps
+	 *            frames per second for the GUI to draw the board at.
+	 *            requires > 0
+	 * @param ansi
+	 *            true to print the board, every dumpInterval seconds, by
+	 *            redrawing the cells that changed on an ANSI terminal instead
+	 *            of printing it whole
+	 */
+	public PingballClient(boolean headless, double dumpInterval,
+			boolean virtualThreads, boolean binary, int fps, boolean ansi) {
+		incomingMessages = null;
+		incomingBatch = new ArrayList<NetworkMessage>(INCOMING_CAPACITY);
 		invokeLaterQueue = new LinkedBlockingQueue<Runnable>();
 		paused = new AtomicBoolean(false);
+		this.headless = headless;
+		this.dumpIntervalNanos = (long) (dumpInterval * 1e9);
+		this.threads = new PingballThreadFactory(virtualThreads);
+		this.binary = binary;
+		this.fps = fps;
+		this.textRenderer = ansi ? new TextRenderer() : null;
 	}
 
 	/**
-	 * startClient starts the serverHandler if necessary, then loops forever
-	 * stepping the board, processing incomingMessages, and printing the board
+	 * startClient starts the GUI (unless the client is headless), then loops
+	 * forever stepping the board, processing incomingMessages, and printing
+	 * the board if a dump interval was given
 	 * 
 	 */
 	public void startClient() {
 		checkRep();
 
+		if (!headless) {
+			startGUI();
+		}
+
+		if (Constants.DEBUG)
+			System.out.println("Reached main loop.");
+
+		scheduler = new TickScheduler(Constants.TIMESTEP, MAX_CATCH_UP_TICKS);
+		long nextDump = System.nanoTime() + dumpIntervalNanos;
+		while (true) {
+			step();
+			if (dumpIntervalNanos > 0 && System.nanoTime() - nextDump >= 0) {
+				if (board != null) dump();
+				nextDump += dumpIntervalNanos;
+			}
+		}
+	}
+
+	/**
+	 * Print the board to System.out, whole or as the changes since the last
+	 * dump
+	 */
+	private void dump() {
+		if (textRenderer == null) {
+			System.out.println(board.toString());
+		} else {
+			System.out.print(textRenderer.render(board.getBoardRep()));
+			System.out.flush();
+		}
+	}
+
+	/**
+	 * Open the PingballGUI window on the Swing event thread. This is the only
+	 * place the client refers to Swing.
+	 */
+	private void startGUI() {
 		final PingballClient client = this;
 		String hostnameValue = null;
 		if (serverHandler != null) {
@@ -83,69 +191,91 @@ public class PingballClient {
 				main.setVisible(true);
 			}
 		});
+	}
 
-		if (Constants.DEBUG)
-			System.out.println("Reached main loop.");
+	/**
+	 * Run one iteration of the main loop: run the queued invokeLater
+	 * runnables, wait until the next timestep is due, then run every
+	 * timestep that is due. The scheduler keeps the board at one timestep
+	 * of simulated time per timestep of real time, catching up on
+	 * timesteps that an expensive update has delayed. The messages those
+	 * timesteps send the server are flushed together at the end.
+	 */
+	private void step() {
+		while (!invokeLaterQueue.isEmpty()) {
+			Runnable r = invokeLaterQueue.remove();
+			r.run();
+		}
 
-		while (true) {
-			while (!invokeLaterQueue.isEmpty()) {
-				Runnable r = invokeLaterQueue.remove();
-				r.run();
-			}				
-	            try {
-	                // Sleep to limit framerate.
-	                Thread.sleep((int) (Constants.TIMESTEP*1000));
-	            } catch (InterruptedException e) {
-	                Thread.currentThread().interrupt();
-	            }
-
-			if (!paused.get()) {
-	            while (!incomingMessages.isEmpty() && board != null) {
-	                NetworkMessage message = incomingMessages.remove();
-	                if(Constants.DEBUG) System.out.println(message);
-	                if (message instanceof BallInMessage) {
-	                    // The sending board is responsible for making ballPos on the correct side of the receiving board.
-	                    Vect ballPos = ((BallInMessage) message).getBallPos();
-	                    Vect ballVel = ((BallInMessage) message).getBallVel();
-	                    board.addBall(new Ball(ballPos, ballVel));
-	                } else if (message instanceof BoardFuseMessage) {
-	                    Constants.BoardSide side = ((BoardFuseMessage) message).getSide();
-	                    String name = ((BoardFuseMessage) message).getBoardName();
-	                    board.connectWallToServer(side, name);
-	                } else if (message instanceof BoardUnfuseMessage) {
-	                    Constants.BoardSide side = ((BoardUnfuseMessage) message).getSide();
-	                    board.disconnectWallFromServer(side);
-	                } else if (message instanceof ConnectionRefusedMessage) {
-	                    // when the serverHandler receives a ConnectionRefusedMessage it
-	                    // kills itself (calls this.kill()) and then passes the message to PingballClient.
-	                    if (Constants.DEBUG) {
-	                        System.err.println("Connection refused by server. Reason: " + ((ConnectionRefusedMessage) message).getReason());
-	                    }
-	                } else if (message instanceof TeleportInMessage) {
-	                    String portalTo = ((TeleportInMessage) message).getPortalTo();
-	                    Vect ballVel = ((TeleportInMessage) message).getBallVel();
-	                    Portal portal = board.getPortal(portalTo);
-	                    if (portal == null) {
-	                        String boardTo = ((TeleportInMessage) message).getBoardTo();
-	                        String boardFrom = ((TeleportInMessage) message).getBoardFrom();
-	                        String portalFrom = ((TeleportInMessage) message).getPortalFrom();
-	                        serverHandler.send(new TeleportFailMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo));
-	                    } else {
-	                        Ball ball = new Ball(portal.getCenter(), ballVel);
-	                        board.addBall(ball);
-	                        portal.giveBall(ball);
-	                    }
-	                } else if (message instanceof TeleportFailMessage) {
-	                    String portalFrom = ((TeleportFailMessage) message).getPortalFrom();
-	                    Vect ballVel = ((TeleportFailMessage) message).getBallVel();
-	                    Portal portal = board.getPortal(portalFrom);
-	                    Ball ball = new Ball(portal.getCenter(), ballVel);
-	                    board.addBall(ball);
-	                    portal.giveBall(ball);
-	                }
-	            }
-
-				if (board != null) board.update(Constants.TIMESTEP);
+		int due = scheduler.awaitTicks();
+		for (int i = 0; i < due; i++) {
+			tick();
+		}
+		if (serverHandler != null) {
+			serverHandler.flush();
+		}
+	}
+
+	/**
+	 * Run one timestep: take the incoming messages, then, unless paused,
+	 * handle them along with any held while paused and update the board.
+	 */
+	private void tick() {
+        // take everything that has arrived at once, without allocating
+        MessageRing<NetworkMessage> incoming = incomingMessages;
+        if (incoming != null && board != null) {
+            incoming.drainTo(incomingBatch, INCOMING_CAPACITY);
+        }
+		if (!paused.get()) {
+            for (int i = 0; i < incomingBatch.size(); i++) {
+                NetworkMessage message = incomingBatch.get(i);
+                if(Constants.DEBUG) System.out.println(message);
+                if (message instanceof BallInMessage) {
+                    // The sending board is responsible for making ballPos on the correct side of the receiving board.
+                    Vect ballPos = ((BallInMessage) message).getBallPos();
+                    Vect ballVel = ((BallInMessage) message).getBallVel();
+                    board.addBall(new Ball(ballPos, ballVel));
+                } else if (message instanceof BoardFuseMessage) {
+                    Constants.BoardSide side = ((BoardFuseMessage) message).getSide();
+                    String name = ((BoardFuseMessage) message).getBoardName();
+                    board.connectWallToServer(side, name);
+                } else if (message instanceof BoardUnfuseMessage) {
+                    Constants.BoardSide side = ((BoardUnfuseMessage) message).getSide();
+                    board.disconnectWallFromServer(side);
+                } else if (message instanceof ConnectionRefusedMessage) {
+                    // when the serverHandler receives a ConnectionRefusedMessage it
+                    // kills itself (calls this.kill()) and then passes the message to PingballClient.
+                    if (Constants.DEBUG) {
+                        System.err.println("Connection refused by server. Reason: " + ((ConnectionRefusedMessage) message).getReason());
+                    }
+                } else if (message instanceof TeleportInMessage) {
+                    String portalTo = ((TeleportInMessage) message).getPortalTo();
+                    Vect ballVel = ((TeleportInMessage) message).getBallVel();
+                    Portal portal = board.getPortal(portalTo);
+                    if (portal == null) {
+                        String boardTo = ((TeleportInMessage) message).getBoardTo();
+                        String boardFrom = ((TeleportInMessage) message).getBoardFrom();
+                        String portalFrom = ((TeleportInMessage) message).getPortalFrom();
+                        serverHandler.send(new TeleportFailMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo));
+                    } else {
+                        Ball ball = new Ball(portal.getCenter(), ballVel);
+                        board.addBall(ball);
+                        portal.giveBall(ball);
+                    }
+                } else if (message instanceof TeleportFailMessage) {
+                    String portalFrom = ((TeleportFailMessage) message).getPortalFrom();
+                    Vect ballVel = ((TeleportFailMessage) message).getBallVel();
+                    Portal portal = board.getPortal(portalFrom);
+                    Ball ball = new Ball(portal.getCenter(), ballVel);
+                    board.addBall(ball);
+                    portal.giveBall(ball);
+                }
+            }
+            incomingBatch.clear();
+
+			if (board != null) {
+				board.update(Constants.TIMESTEP);
+				if (!headless) board.publishSnapshot(Constants.TIMESTEP);
 			}
 		}
 	}
@@ -158,8 +288,11 @@ public class PingballClient {
 			throw new RepInvariantException(
 					"serverHandler and boardPath must be null if board is");
 		}
-		if (incomingMessages == null) {
-			throw new RepInvariantException("incomingMessages must not be null");
+		if ((incomingMessages == null) != (serverHandler == null)) {
+			throw new RepInvariantException("incomingMessages must be null if and only if serverHandler is");
+		}
+		if (headless && board == null) {
+			throw new RepInvariantException("a headless client must have a board");
 		}
 	}
 
@@ -169,7 +302,9 @@ public class PingballClient {
 	 * @param args
 	 *            must be in the following format:
 	 * 
-	 *            Usage: PingballClient [--host HOST] [--port PORT] [FILE]
+	 *            Usage: PingballClient [--host HOST] [--port PORT]
+	 *            [--headless] [--dump SECONDS] [--ansi] [--fps FPS]
+	 *            [--virtual-threads] [--binary] [FILE]
 	 * 
 	 *            HOST is an optional hostname or IP address of the server to
 	 *            connect to. If no HOST is provided, then the client starts in
@@ -179,6 +314,28 @@ public class PingballClient {
 	 *            specifying the port where the server is listening for incoming
 	 *            connections. The default port is 10987.
 	 * 
+	 *            --headless runs the client without a GUI, and without
+	 *            loading Swing. FILE is required in this mode.
+	 * 
+	 *            --virtual-threads runs the connection to the server on a
+	 *            virtual thread. This needs Java 21 or later; older JVMs use a
+	 *            platform thread.
+	 * 
+	 *            --binary offers the server the more compact binary message
+	 *            serialization. Servers from before it was added reject the
+	 *            offer's connect message, so by default the client talks
+	 *            only in the text serialization.
+	 * 
+	 *            SECONDS is an optional interval at which the board is printed
+	 *            to standard output. By default it is never printed.
+	 * 
+	 *            --ansi prints the board, after the first time, by redrawing
+	 *            only the cells that changed, with ANSI escape sequences. This
+	 *            is much less output for a terminal to draw, e.g. over SSH.
+	 * 
+	 *            FPS is an optional positive integer, the number of frames per
+	 *            second at which the GUI draws the board. The default is 60.
+	 * 
 	 *            FILE is an optional argument specifying a file pathname of the
 	 *            Pingball board that this client should run.
 	 * 
@@ -187,6 +344,12 @@ public class PingballClient {
 		int port = Constants.DEFAULT_PORT;
 		String hostname = null;
 		String boardFilePath = null;
+		boolean headless = false;
+		double dumpInterval = 0;
+		boolean virtualThreads = false;
+		boolean binary = false;
+		int fps = BoardGUI.DEFAULT_FPS;
+		boolean ansi = false;
 
 		Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
 		try {
@@ -202,6 +365,26 @@ public class PingballClient {
 						}
 					} else if (flag.equals("--host")) {
 						hostname = arguments.remove();
+					} else if (flag.equals("--virtual-threads")) {
+						virtualThreads = true;
+					} else if (flag.equals("--binary")) {
+						binary = true;
+					} else if (flag.equals("--headless")) {
+						headless = true;
+					} else if (flag.equals("--ansi")) {
+						ansi = true;
+					} else if (flag.equals("--fps")) {
+						fps = Integer.parseInt(arguments.remove());
+						if (fps <= 0) {
+							throw new IllegalArgumentException("fps " + fps
+									+ " is not positive");
+						}
+					} else if (flag.equals("--dump")) {
+						dumpInterval = Double.parseDouble(arguments.remove());
+						if (dumpInterval < 0) {
+							throw new IllegalArgumentException("dump interval "
+									+ dumpInterval + " is negative");
+						}
 					} else {
 						if (boardFilePath != null) {
 							throw new IllegalArgumentException(
@@ -218,15 +401,23 @@ public class PingballClient {
 				}
 
 			}
+			if (headless && boardFilePath == null) {
+				throw new IllegalArgumentException("--headless requires FILE");
+			}
 
 		} catch (IllegalArgumentException iae) {
 			System.err.println(iae.getMessage());
 			System.err
-					.println("Usage: PingballClient [--host HOST] [--port PORT] [FILE]");
+					.println("Usage: PingballClient [--host HOST] [--port PORT] [--headless] [--dump SECONDS] [--ansi] [--fps FPS] [--virtual-threads] [--binary] [FILE]");
 			return;
 		}
 
-		PingballClient client = new PingballClient();
+		if (headless) {
+			// gadgets still carry java.awt.Color values; never look for a display
+			System.setProperty("java.awt.headless", "true");
+		}
+		PingballClient client = new PingballClient(headless, dumpInterval,
+				virtualThreads, binary, fps, ansi);
 		if (boardFilePath != null)
 			client.setBoard(boardFilePath);
 		if (hostname != null) {
@@ -256,6 +447,7 @@ public class PingballClient {
 		disconnectFromServer();
 		this.board = Parser.makeBoard(new File(path));
 		this.boardPath = path;
+		if (!headless) board.publishSnapshot(Constants.TIMESTEP);
 
 		if (Constants.DEBUG)
 			System.out.println(board.toString());
@@ -291,9 +483,11 @@ public class PingballClient {
 
 		// make serverHandler and send connection message to server
 		if (socket != null) {
+			incomingMessages = new MessageRing<NetworkMessage>(INCOMING_CAPACITY, MessageRing.Overflow.BLOCK);
 			serverHandler = new ServerHandler(socket, incomingMessages);
-			serverHandler.send(new ClientConnectMessage(board.getName()));
-			Thread serverHandlerThread = new Thread(serverHandler);
+			serverHandler.send(new ClientConnectMessage(board.getName(), binary));
+			serverHandler.flush();
+			Thread serverHandlerThread = threads.newThread(serverHandler);
 			serverHandlerThread.start();
 			board.setServerHandler(serverHandler);
 
@@ -307,14 +501,16 @@ public class PingballClient {
 		if (serverHandler != null)
 			serverHandler.kill();
 		serverHandler = null;
-		incomingMessages.clear();
+		incomingMessages = null;
+		incomingBatch.clear();
 		if (board != null)
 			board.setServerHandler(null);
 	}
 
 	/**
-	 * Stops the board from updating or from handling server messages TODO:
-	 * should we disconnect from the server? or what?
+	 * Stops the board from updating or from handling server messages. The
+	 * client stays connected, and holds the messages the server sends until
+	 * it resumes.
 	 */
 	protected void pause() {
 		paused.set(true);
@@ -352,4 +548,40 @@ public class PingballClient {
 	public Board getBoard() {
 		return board;
 	}
+
+	/**
+	 * @return the number of frames per second the GUI should draw the board at
+	 */
+	public int getFramesPerSecond() {
+		return fps;
+	}
+
+	/**
+	 * Get the scheduler pacing the main loop, whose statistics tell how far
+	 * board updates have fallen behind real time
+	 * @return the scheduler, or null if the client hasn't started
+	 */
+	public TickScheduler getTickScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Get the ring of messages from the server waiting to be handled, whose
+	 * counters tell whether the board keeps up with the balls sent to it.
+	 * 
+	 * @return the ring, or null if the client isn't connected to a server
+	 */
+	public MessageRing<NetworkMessage> getIncomingMessages() {
+		return incomingMessages;
+	}
+
+	/**
+	 * Only call this from the PingballClient thread, e.g. with invokeLater.
+	 * 
+	 * @return the number of messages from the server held, unhandled, while
+	 *         the client is paused
+	 */
+	public int getHeldMessageCount() {
+		return incomingBatch.size();
+	}
 }
@@ -110,7 +110,7 @@ public class PingballGUI extends JFrame {
 			connectMI
 					.setToolTipText("You must start a game before you can connect.");
 		}
-		boardPanel = new BoardGUI(board);
+		boardPanel = new BoardGUI(board, client.getFramesPerSecond());
 		
 
 		// set JFrame details
@@ -1,11 +1,7 @@
 package client;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
 
 import common.Constants;
 import common.netprotocol.*;
@@ -14,19 +10,25 @@ import common.netprotocol.NetworkMessage.DecodeException;
 /**
  * ServerHandler is a runnable meant to run as a thread.
  * It handles communication with the server including wire protocol and non-blockng communication with the socket.
+ * Messages passed to send are buffered until flush, so that everything the client sends in one
+ * pass of its loop goes out together. TCP_NODELAY is set on the socket, since the flushes
+ * already group messages.
  *
  * Thread Safety Argument:
  * - the socket reference is confined to this thread.
  *     - reading from the socket is confined to the ServerHandler thread.
- *     - writing to the socket is confined to the PingballClient thread.
+ *     - writing to the socket (send and flush) is confined to the PingballClient thread.
  *     - sockets support full duplex communication, so this is ok.
- * - incomingMessages is a threadsafe datatype.
+ * - incomingMessages is a single-producer, single-consumer MessageRing; the ServerHandler
+ *   thread is its only producer, and the PingballClient thread its only consumer.
+ * - the ServerHandler thread switches out to binary when the server accepts the binary
+ *   serialization; MessageWriter allows that.
  */
-public class ServerHandler implements Runnable {
+public class ServerHandler implements Runnable, MessageSink {
     private final Socket socket;
-    private final BlockingQueue<NetworkMessage> incomingMessages;
-    private final BufferedReader in;
-    private final PrintWriter out;
+    private final MessageRing<NetworkMessage> incomingMessages;
+    private final MessageReader in;
+    private final MessageWriter out;
 
     /**
      * Create a ServerHandler.
@@ -34,14 +36,16 @@ public class ServerHandler implements Runnable {
      * @param socket to communicate with the server.
      *        socket must already be connected.
      *        the caller must throw away their reference to socket after creating a ServerHandler
-     * @param incomingMessages threadsafe queue to receive messages
+     * @param incomingMessages ring to put received messages on; this ServerHandler must be
+     *        its only producer
      * @throws IOException if an error occurs while initializing the connection
      */
-    ServerHandler(Socket socket, BlockingQueue<NetworkMessage> incomingMessages) throws IOException {
+    ServerHandler(Socket socket, MessageRing<NetworkMessage> incomingMessages) throws IOException {
         this.socket = socket;
+        socket.setTcpNoDelay(true);
         this.incomingMessages = incomingMessages;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.out = new PrintWriter(socket.getOutputStream(), true);
+        this.in = new MessageReader(socket.getInputStream());
+        this.out = new MessageWriter(socket.getOutputStream());
     }
 
     /**
@@ -49,17 +53,25 @@ public class ServerHandler implements Runnable {
      * Listens for input from the server, and sends it to the client.
      * Ignores bad input messages, but prints an error to System.err if there is an IOException
      * Run ensures that a failure is noticed by calling kill() at the end.
+     * A ClientConnectMessage from the server accepts the binary serialization; it is handled
+     * here rather than passed to the client. If the client falls so far behind that
+     * incomingMessages fills up, this waits for it, and stops reading from the server meanwhile.
      */
     @Override
     public void run() {
         // handle the client
         try {
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                NetworkMessage message = NetworkMessage.deserialize(line);
+            for (NetworkMessage message = in.read(); message != null; message = in.read()) {
+                if (message instanceof ClientConnectMessage) {
+                    out.setBinary(((ClientConnectMessage) message).isBinary());
+                    continue;
+                }
                 if (message instanceof ConnectionRefusedMessage) {
                     this.kill();
                 }
-                incomingMessages.add(message);
+                if (!incomingMessages.offer(message)) {
+                    break; // interrupted while the client was behind
+                }
 
             }
         } catch (IOException e) {
@@ -77,13 +89,44 @@ public class ServerHandler implements Runnable {
     }
 
     /**
-     * Send a message to the server.
+     * Send a message to the server at the next flush.
      * Requires the thread to be running!
      * @param message message to send
      */
+    @Override
     public void send(NetworkMessage message) {
-        String strMessage = message.serialize();
-        out.println(strMessage);
+        try {
+            out.write(message);
+        } catch (IOException e) {
+            // run() will notice the connection is gone and kill itself
+            if (Constants.DEBUG) System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Send the messages passed to send since the last flush to the server.
+     */
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // run() will notice the connection is gone and kill itself
+            if (Constants.DEBUG) System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of messages sent to the server so far
+     */
+    public long getMessagesSent() {
+        return out.getMessages();
+    }
+
+    /**
+     * @return the number of flushes that sent the server at least one message
+     */
+    public long getFlushes() {
+        return out.getFlushes();
     }
 
     /**
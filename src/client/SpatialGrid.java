@@ -0,0 +1,252 @@
+package client;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the playing area, used by Board as the broad phase of
+ * collision detection. Gadgets and balls are binned by their bounding boxes,
+ * and a query returns every gadget (or ball) whose box shares a cell with the
+ * query box. Only those candidates need the expensive physics.Geometry
+ * time-of-impact calls.
+ *
+ * The grid covers [-1, 21) x [-1, 21) in L units, which is the 20x20 board
+ * plus its outer walls. Anything outside of that range is clamped to the
+ * border cells, so the grid never misses an object, it only gets less
+ * selective.
+ *
+ * Gadgets and balls are identified by their index in the Board's lists.
+ * Query results are returned in ascending index order so that the narrow
+ * phase visits candidates in the same order as a brute-force scan would.
+ *
+ * Thread Safety: SpatialGrid is confined to the thread that updates its
+ * Board.
+ *
+ * Rep invariant:
+ * * gadgetCells[c][0..gadgetCounts[c]) and ballCells[c][0..ballCounts[c])
+ *   hold no duplicates.
+ * * every entry of stamps is <= stamp.
+ */
+class SpatialGrid {
+
+	/**
+	 * Side length of a cell, in L.
+	 */
+	static final double CELL_SIZE = 1.0;
+	private static final double GRID_MIN = -1.0;
+	private static final int CELLS_PER_SIDE = 22;
+	private static final int CELL_COUNT = CELLS_PER_SIDE * CELLS_PER_SIDE;
+	private static final int INITIAL_CELL_CAPACITY = 4;
+
+	private final int[][] gadgetCells = new int[CELL_COUNT][];
+	private final int[] gadgetCounts = new int[CELL_COUNT];
+	private final int[][] ballCells = new int[CELL_COUNT][];
+	private final int[] ballCounts = new int[CELL_COUNT];
+
+	private int[] stamps = new int[16];
+	private int stamp = 0;
+	private int[] gadgetResult = new int[16];
+	private int[] ballResult = new int[16];
+
+	/**
+	 * Create an empty grid.
+	 */
+	SpatialGrid() {
+		for (int c = 0; c < CELL_COUNT; c++) {
+			gadgetCells[c] = new int[INITIAL_CELL_CAPACITY];
+			ballCells[c] = new int[INITIAL_CELL_CAPACITY];
+		}
+	}
+
+	/**
+	 * Remove every gadget from the grid.
+	 */
+	void clearGadgets() {
+		Arrays.fill(gadgetCounts, 0);
+	}
+
+	/**
+	 * Remove every ball from the grid.
+	 */
+	void clearBalls() {
+		Arrays.fill(ballCounts, 0);
+	}
+
+	/**
+	 * Bin a gadget into every cell overlapped by its bounding box.
+	 *
+	 * @param id index of the gadget. must not already be in the grid
+	 * @param minX left edge of the bounding box
+	 * @param minY top edge of the bounding box
+	 * @param maxX right edge of the bounding box
+	 * @param maxY bottom edge of the bounding box
+	 */
+	void addGadget(int id, double minX, double minY, double maxX, double maxY) {
+		int x0 = cell(minX), x1 = cell(maxX), y0 = cell(minY), y1 = cell(maxY);
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int c = y * CELLS_PER_SIDE + x;
+				gadgetCells[c] = append(gadgetCells[c], gadgetCounts[c], id);
+				gadgetCounts[c]++;
+			}
+		}
+	}
+
+	/**
+	 * Bin a ball into every cell overlapped by its (swept) bounding box.
+	 *
+	 * @param id index of the ball. must not already be in the grid
+	 * @param minX left edge of the bounding box
+	 * @param minY top edge of the bounding box
+	 * @param maxX right edge of the bounding box
+	 * @param maxY bottom edge of the bounding box
+	 */
+	void addBall(int id, double minX, double minY, double maxX, double maxY) {
+		int x0 = cell(minX), x1 = cell(maxX), y0 = cell(minY), y1 = cell(maxY);
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int c = y * CELLS_PER_SIDE + x;
+				ballCells[c] = append(ballCells[c], ballCounts[c], id);
+				ballCounts[c]++;
+			}
+		}
+	}
+
+	/**
+	 * Remove a ball from the cells overlapped by a bounding box. The box must
+	 * be the one the ball was added with.
+	 *
+	 * @param id index of the ball
+	 * @param minX left edge of the bounding box
+	 * @param minY top edge of the bounding box
+	 * @param maxX right edge of the bounding box
+	 * @param maxY bottom edge of the bounding box
+	 */
+	void removeBall(int id, double minX, double minY, double maxX, double maxY) {
+		int x0 = cell(minX), x1 = cell(maxX), y0 = cell(minY), y1 = cell(maxY);
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int c = y * CELLS_PER_SIDE + x;
+				int[] ids = ballCells[c];
+				for (int i = 0; i < ballCounts[c]; i++) {
+					if (ids[i] == id) {
+						ids[i] = ids[ballCounts[c] - 1];
+						ballCounts[c]--;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find every gadget sharing a cell with a bounding box.
+	 *
+	 * @param minX left edge of the bounding box
+	 * @param minY top edge of the bounding box
+	 * @param maxX right edge of the bounding box
+	 * @param maxY bottom edge of the bounding box
+	 * @return the number of candidates, which are stored in ascending order at
+	 *         the start of gadgetResult()
+	 */
+	int queryGadgets(double minX, double minY, double maxX, double maxY) {
+		return query(gadgetCells, gadgetCounts, true, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Find every ball sharing a cell with a bounding box.
+	 *
+	 * @param minX left edge of the bounding box
+	 * @param minY top edge of the bounding box
+	 * @param maxX right edge of the bounding box
+	 * @param maxY bottom edge of the bounding box
+	 * @return the number of candidates, which are stored in ascending order at
+	 *         the start of ballResult()
+	 */
+	int queryBalls(double minX, double minY, double maxX, double maxY) {
+		return query(ballCells, ballCounts, false, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * @return the buffer filled by the last call to queryGadgets. It is reused
+	 *         by the next call.
+	 */
+	int[] gadgetResult() {
+		return gadgetResult;
+	}
+
+	/**
+	 * @return the buffer filled by the last call to queryBalls. It is reused by
+	 *         the next call.
+	 */
+	int[] ballResult() {
+		return ballResult;
+	}
+
+	/**
+	 * Collect the distinct ids in every cell overlapped by a bounding box.
+	 */
+	private int query(int[][] cells, int[] counts, boolean gadgetQuery,
+			double minX, double minY, double maxX, double maxY) {
+		int x0 = cell(minX), x1 = cell(maxX), y0 = cell(minY), y1 = cell(maxY);
+		stamp++;
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+		int[] result = gadgetQuery ? gadgetResult : ballResult;
+		int n = 0;
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int c = y * CELLS_PER_SIDE + x;
+				int[] ids = cells[c];
+				for (int i = 0; i < counts[c]; i++) {
+					int id = ids[i];
+					if (id >= stamps.length) {
+						stamps = Arrays.copyOf(stamps, Math.max(id + 1, 2 * stamps.length));
+					}
+					if (stamps[id] != stamp) {
+						stamps[id] = stamp;
+						result = append(result, n, id);
+						n++;
+					}
+				}
+			}
+		}
+		Arrays.sort(result, 0, n);
+		if (gadgetQuery) {
+			gadgetResult = result;
+		} else {
+			ballResult = result;
+		}
+		return n;
+	}
+
+	/**
+	 * @param coordinate an x or y coordinate in L
+	 * @return index of the row or column of cells containing coordinate,
+	 *         clamped to the grid
+	 */
+	private static int cell(double coordinate) {
+		int c = (int) Math.floor((coordinate - GRID_MIN) / CELL_SIZE);
+		if (c < 0) {
+			return 0;
+		}
+		if (c >= CELLS_PER_SIDE) {
+			return CELLS_PER_SIDE - 1;
+		}
+		return c;
+	}
+
+	/**
+	 * Store value at ids[count], growing ids if it is full.
+	 *
+	 * @return ids, or its replacement if it had to grow
+	 */
+	private static int[] append(int[] ids, int count, int value) {
+		if (count == ids.length) {
+			ids = Arrays.copyOf(ids, 2 * ids.length);
+		}
+		ids[count] = value;
+		return ids;
+	}
+}
@@ -0,0 +1,109 @@
+package client;
+
+/**
+ * Draws a board's text representation (see Board.getBoardRep) on an ANSI terminal,
+ * sending only what changed. The first frame clears the screen and draws every
+ * cell; after that each frame moves the cursor to the cells that differ from the
+ * previous frame and redraws just those. A run of changed cells in one row costs
+ * one cursor move. Each frame leaves the cursor on the line below the board, and a
+ * frame in which nothing changed is empty.
+ *
+ * A ball moving across an empty board changes two cells a frame, so a frame is a
+ * few dozen bytes instead of the 506 of a full dump.
+ *
+ * Thread Safety Argument:
+ * - a TextRenderer must be confined to one thread, which must also be the thread
+ *   that writes the board representation it renders.
+ *
+ * Rep Invariant:
+ * - shown is null (nothing drawn yet), or a rectangular copy of the last frame drawn.
+ */
+public class TextRenderer {
+    private static final String ESC = "\u001b[";
+    private static final String CLEAR_SCREEN = ESC + "2J";
+
+    private final StringBuilder out = new StringBuilder();
+    private char[][] shown;
+
+    /**
+     * Render the next frame
+     *
+     * @param rep the board representation; must be rectangular
+     * @return the terminal output that turns the previous frame into rep
+     */
+    public String render(char[][] rep) {
+        out.setLength(0);
+        if (shown == null || shown.length != rep.length || shown[0].length != rep[0].length) {
+            drawAll(rep);
+        } else {
+            drawChanges(rep);
+        }
+        if (out.length() > 0) {
+            moveTo(rep.length, 0);
+        }
+        checkRep();
+        return out.toString();
+    }
+
+    /**
+     * Forget the last frame, so that the next one is drawn in full. Use this when
+     * something else may have written to the terminal.
+     */
+    public void reset() {
+        shown = null;
+    }
+
+    /**
+     * Clear the screen and draw every cell of rep
+     */
+    private void drawAll(char[][] rep) {
+        shown = new char[rep.length][];
+        out.append(CLEAR_SCREEN);
+        moveTo(0, 0);
+        for (int row = 0; row < rep.length; row++) {
+            shown[row] = rep[row].clone();
+            out.append(rep[row]).append('\n');
+        }
+    }
+
+    /**
+     * Draw the cells of rep that differ from shown
+     */
+    private void drawChanges(char[][] rep) {
+        for (int row = 0; row < rep.length; row++) {
+            char[] now = rep[row];
+            char[] was = shown[row];
+            int col = 0;
+            while (col < now.length) {
+                if (now[col] == was[col]) {
+                    col++;
+                    continue;
+                }
+                moveTo(row, col);
+                while (col < now.length && now[col] != was[col]) {
+                    out.append(now[col]);
+                    was[col] = now[col];
+                    col++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the cursor to a cell, counting from 0
+     */
+    private void moveTo(int row, int col) {
+        out.append(ESC).append(row + 1).append(';').append(col + 1).append('H');
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        if (shown != null) {
+            for (char[] row : shown) {
+                assert row.length == shown[0].length;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a fixed-timestep loop by System.nanoTime, so that the simulation advances
+ * by the same amount of simulated time every real second however long each step
+ * takes. Real time is added to an accumulator, and a step is due for every tickNanos
+ * in it. A loop that falls behind runs the due steps back to back to catch up, but
+ * never more than maxCatchUp at a time; any steps beyond that are dropped, so that
+ * a board that can't keep up at all slows down instead of stalling the loop.
+ *
+ * The scheduler records how far behind the loop has fallen:
+ * - ticks: steps handed out so far
+ * - late ticks: steps run to catch up, because the step before them overran
+ * - dropped ticks: steps skipped because more than maxCatchUp were due
+ * - max lag: the most real time the loop has been behind, in nanoseconds
+ *
+ * Thread Safety Argument:
+ * - awaitTicks and advance must only be called by the one thread running the loop.
+ * - the statistics are volatile and only written by that thread, so any thread may
+ *   read them.
+ *
+ * Rep Invariant:
+ * - tickNanos > 0, maxCatchUp > 0
+ * - 0 <= accumulator < tickNanos between calls to advance
+ * - lateTicks <= ticks
+ */
+public class TickScheduler {
+    private final long tickNanos;
+    private final int maxCatchUp;
+    private long last;
+    private long accumulator;
+
+    private volatile long ticks;
+    private volatile long lateTicks;
+    private volatile long droppedTicks;
+    private volatile long maxLagNanos;
+
+    /**
+     * Create a TickScheduler whose first step is due tickSeconds from now
+     * @param tickSeconds simulated (and real) time per step. requires > 0
+     * @param maxCatchUp most steps to run back to back. requires > 0
+     */
+    public TickScheduler(double tickSeconds, int maxCatchUp) {
+        this.tickNanos = (long) (tickSeconds * 1e9);
+        this.maxCatchUp = maxCatchUp;
+        this.last = System.nanoTime();
+        this.accumulator = 0;
+        checkRep();
+    }
+
+    /**
+     * Block until at least one step is due
+     * @return the number of steps to run now, between 1 and maxCatchUp;
+     *         or 0 if the thread was interrupted while waiting
+     */
+    public int awaitTicks() {
+        int due = advance(System.nanoTime());
+        while (due == 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(tickNanos - accumulator);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+            due = advance(System.nanoTime());
+        }
+        return due;
+    }
+
+    /**
+     * Add the real time up to now to the accumulator and take the due steps out of it
+     * @param now the current System.nanoTime()
+     * @return the number of steps to run now, between 0 and maxCatchUp
+     */
+    public int advance(long now) {
+        accumulator += Math.max(0, now - last);
+        last = now;
+        long due = accumulator / tickNanos;
+        if (due == 0) {
+            return 0;
+        }
+
+        // the loop is behind by all but the step that just came due
+        long lag = accumulator - tickNanos;
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+        if (due > maxCatchUp) {
+            droppedTicks += due - maxCatchUp;
+            due = maxCatchUp;
+        }
+        accumulator %= tickNanos;
+        ticks += due;
+        lateTicks += due - 1;
+        checkRep();
+        return (int) due;
+    }
+
+    /**
+     * @return the number of steps handed out so far
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the number of steps run to catch up after a step overran
+     */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    /**
+     * @return the number of steps skipped because too many were due at once
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * @return the most real time the loop has been behind, in nanoseconds
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ticks, %d late, %d dropped, max lag %.1f ms",
+                ticks, lateTicks, droppedTicks, maxLagNanos / 1e6);
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        assert tickNanos > 0;
+        assert maxCatchUp > 0;
+        assert accumulator >= 0 && accumulator < tickNanos;
+        assert lateTicks <= ticks;
+    }
+}
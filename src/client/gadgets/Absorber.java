@@ -12,7 +12,6 @@ import common.Constants;
 import client.Ball;
 import client.Board;
 import physics.Circle;
-import physics.Geometry;
 import physics.LineSegment;
 import physics.Vect;
 
@@ -37,6 +36,7 @@ public class Absorber implements Gadget {
 
 	private LineSegment[] lines;
 	private Circle[] corners;
+	private CollisionShape collisionShape;
 	private Vect southEast;
 	private List<Ball> balls = new ArrayList<Ball>();
 	private Set<Gadget> triggers = new HashSet<Gadget>();
@@ -44,7 +44,7 @@ public class Absorber implements Gadget {
 	private int width;
 	private int height;
 	private final Shape shape;
-	private final Color ABSORBCOLOR = new Color(125, 138, 24);
+	private Color color;
 
 	private String name;
 
@@ -88,6 +88,7 @@ public class Absorber implements Gadget {
 		corners[1] = new Circle(northEast, 0);
 		corners[2] = new Circle(southWest, 0);
 		corners[3] = new Circle(southEast, 0);
+		collisionShape = new CollisionShape(lines, corners);
 		double xPosD = xPos;
 		double yPosD = yPos;
 		this.shape = new Rectangle2D.Double(
@@ -139,8 +140,8 @@ public class Absorber implements Gadget {
 	@Override
 	public boolean hit(Ball ball, Board board) {
 		ball.putInBoardRep(board, true);
-		ball.setPosition(new Vect(southEast.x(), southEast.y()));
-		ball.setVelocity(new Vect(0, 0));
+		ball.setPosition(southEast.x(), southEast.y());
+		ball.setVelocity(0, 0);
 		balls.add(ball);
 		board.notifyAbsorbed(ball);
 		for (Gadget g : triggers) {
@@ -151,23 +152,12 @@ public class Absorber implements Gadget {
 
 	@Override
 	public double timeUntilCollision(Ball ball) {
-		double minTime = Double.POSITIVE_INFINITY;
-		double time;
-		for (LineSegment line : lines) {
-			time = Geometry.timeUntilWallCollision(line, ball.getCircle(),
-					ball.getVelocity());
-			if (time < minTime) {
-				minTime = time;
-			}
-		}
-		for (Circle corner : corners) {
-			time = Geometry.timeUntilCircleCollision(corner, ball.getCircle(),
-					ball.getVelocity());
-			if (time < minTime) {
-				minTime = time;
-			}
-		}
-		return minTime;
+		return collisionShape.timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public double timeUntilCollision(Ball ball, double maxTime) {
+		return collisionShape.timeUntilCollision(ball, maxTime);
 	}
 
 	@Override
@@ -175,8 +165,8 @@ public class Absorber implements Gadget {
 		if (!balls.isEmpty()) {
 			Ball ball = balls.get(0);
 			balls.remove(ball);
-			ball.setPosition(new Vect(southEast.x(), southEast.y()));
-			ball.setVelocity(new Vect(0, -50));
+			ball.setPosition(southEast.x(), southEast.y());
+			ball.setVelocity(0, -50);
 			ball.putInBoardRep(board, false);
 			board.notifyReleased(ball);
 		}
@@ -208,7 +198,10 @@ public class Absorber implements Gadget {
 
 	@Override
 	public Color getColor() {
-		return ABSORBCOLOR;
+		if (color == null) {
+			color = new Color(125, 138, 24);
+		}
+		return color;
 	}
 
 	@Override
@@ -11,6 +11,7 @@ import client.Ball;
 import client.Board;
 import physics.Circle;
 import physics.Geometry;
+import physics.LineSegment;
 import physics.Vect;
 
 /**
@@ -27,10 +28,11 @@ public class CircleBumper implements Gadget {
 	 */
 	private Vect position;
 	private Circle circle;
+	private CollisionShape collisionShape;
 	private List<Gadget> triggers = new ArrayList<Gadget>();
 	private String name;
 	private final Shape shape;
-	private final Color CIRCLECOLOR = new Color(25, 116, 171);
+	private Color color;
 
 	/**
 	 * Circle Bumper constructor: create a circle of radius 0.5 at specified
@@ -49,6 +51,8 @@ public class CircleBumper implements Gadget {
 
 		this.position = new Vect(xPos, yPos);
 		circle = new Circle(position, 0.5);
+		collisionShape = new CollisionShape(new LineSegment[0],
+				new Circle[] { circle });
 		this.shape = new Ellipse2D.Double(xPos * Constants.SCALE
 				+ Constants.SCALE, yPos * Constants.SCALE + Constants.SCALE,
 				Constants.SCALE, Constants.SCALE);
@@ -95,9 +99,12 @@ public class CircleBumper implements Gadget {
 
 	@Override
 	public double timeUntilCollision(Ball ball) {
-		double time = Geometry.timeUntilCircleCollision(circle,
-				ball.getCircle(), ball.getVelocity());
-		return time;
+		return collisionShape.timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public double timeUntilCollision(Ball ball, double maxTime) {
+		return collisionShape.timeUntilCollision(ball, maxTime);
 	}
 	
 	/**
@@ -132,7 +139,10 @@ public class CircleBumper implements Gadget {
 
 	@Override
 	public Color getColor() {
-		return CIRCLECOLOR;
+		if (color == null) {
+			color = new Color(25, 116, 171);
+		}
+		return color;
 	}
 
 	@Override
@@ -0,0 +1,216 @@
+package client.gadgets;
+
+import physics.Circle;
+import physics.Geometry;
+import physics.LineSegment;
+
+import client.Ball;
+
+/**
+ * The fixed outline of a gadget that balls bounce off: straight edges and round parts
+ * (corners, which are circles of radius 0, or whole bumpers). The shape works out
+ * everything about its parts that doesn't depend on the ball when it is made: each
+ * edge's endpoint and unit normal, each circle's center and radius, and a bounding box
+ * around all of them. timeUntilCollision uses these to rule out, with a few
+ * multiplications, the parts a ball can't reach in time, and only asks Geometry to
+ * solve for the parts that are left.
+ *
+ * A part is ruled out when the ball is clear of it and
+ * - the box the ball sweeps in maxTime misses the bounding box (every part at once),
+ * - the ball is moving away from, or parallel to, the line through an edge, or too
+ *   slowly towards it to get there in maxTime, or
+ * - the ball is moving away from a circle, or is further from it than it can travel
+ *   in maxTime.
+ * Each test is a little generous (by SLACK), so a part is never ruled out if Geometry
+ * would find a collision with it within maxTime, and such collisions are found exactly
+ * as before.
+ *
+ * The shape also remembers which part the last collision it found was with, for the
+ * gadget to reflect the ball off when it is hit.
+ *
+ * Thread Safety Argument:
+ * - a shape belongs to one gadget, and is only used by the thread updating its board.
+ *
+ * Rep Invariant:
+ * - edges.length == edgeX.length == edgeY.length == normalX.length == normalY.length
+ * - circles.length == circleX.length == circleY.length == circleRadius.length
+ * - every normal has length 1, and is perpendicular to its edge
+ * - minX <= maxX and minY <= maxY, and the box contains every edge and circle
+ * - nearestEdge and nearestCircle are not both non-null
+ */
+class CollisionShape {
+    /**
+     * How much further than it could possibly get (in L) a part must be to be ruled out,
+     * to allow for rounding in Geometry
+     */
+    private static final double SLACK = 1e-9;
+
+    private final LineSegment[] edges;
+    private final double[] edgeX; // p1 of each edge
+    private final double[] edgeY;
+    private final double[] normalX;
+    private final double[] normalY;
+    private final Circle[] circles;
+    private final double[] circleX;
+    private final double[] circleY;
+    private final double[] circleRadius;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private LineSegment nearestEdge;
+    private Circle nearestCircle;
+
+    /**
+     * Make a shape
+     *
+     * @param edges the straight edges; requires each to have length > 0
+     * @param circles the round parts, such as corners; requires edges and circles not
+     *                to both be empty
+     */
+    CollisionShape(LineSegment[] edges, Circle[] circles) {
+        this.edges = edges.clone();
+        this.edgeX = new double[edges.length];
+        this.edgeY = new double[edges.length];
+        this.normalX = new double[edges.length];
+        this.normalY = new double[edges.length];
+        this.circles = circles.clone();
+        this.circleX = new double[circles.length];
+        this.circleY = new double[circles.length];
+        this.circleRadius = new double[circles.length];
+
+        double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < edges.length; i++) {
+            LineSegment edge = edges[i];
+            double x1 = edge.p1().x(), y1 = edge.p1().y();
+            double x2 = edge.p2().x(), y2 = edge.p2().y();
+            double length = edge.length();
+            edgeX[i] = x1;
+            edgeY[i] = y1;
+            normalX[i] = (y2 - y1) / length;
+            normalY[i] = (x1 - x2) / length;
+            loX = Math.min(loX, Math.min(x1, x2));
+            loY = Math.min(loY, Math.min(y1, y2));
+            hiX = Math.max(hiX, Math.max(x1, x2));
+            hiY = Math.max(hiY, Math.max(y1, y2));
+        }
+        for (int i = 0; i < circles.length; i++) {
+            Circle circle = circles[i];
+            circleX[i] = circle.getCenter().x();
+            circleY[i] = circle.getCenter().y();
+            circleRadius[i] = circle.getRadius();
+            loX = Math.min(loX, circleX[i] - circleRadius[i]);
+            loY = Math.min(loY, circleY[i] - circleRadius[i]);
+            hiX = Math.max(hiX, circleX[i] + circleRadius[i]);
+            hiY = Math.max(hiY, circleY[i] + circleRadius[i]);
+        }
+        this.minX = loX;
+        this.minY = loY;
+        this.maxX = hiX;
+        this.maxY = hiY;
+        checkRep();
+    }
+
+    /**
+     * Calculate the time until a Ball at fixed velocity will collide with this shape,
+     * if it does so within maxTime, and remember which part it will hit
+     *
+     * @param ball the Ball in question
+     * @param maxTime the longest time of interest, in seconds; may be
+     *                Double.POSITIVE_INFINITY
+     * @return the time until collision if it is at most maxTime; otherwise a time
+     *         greater than maxTime, possibly Double.POSITIVE_INFINITY
+     */
+    double timeUntilCollision(Ball ball, double maxTime) {
+        nearestEdge = null;
+        nearestCircle = null;
+        double x = ball.getX(), y = ball.getY();
+        double vx = ball.getVx(), vy = ball.getVy();
+        double radius = ball.getRadius();
+
+        if (maxTime < Double.POSITIVE_INFINITY) {
+            double reach = radius + SLACK;
+            double endX = x + vx * maxTime, endY = y + vy * maxTime;
+            if (Math.max(x, endX) + reach < minX || Math.min(x, endX) - reach > maxX
+                    || Math.max(y, endY) + reach < minY || Math.min(y, endY) - reach > maxY) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+
+        double minTime = Double.POSITIVE_INFINITY;
+        double time;
+        for (int i = 0; i < edges.length; i++) {
+            double distance = (x - edgeX[i]) * normalX[i] + (y - edgeY[i]) * normalY[i];
+            double away = vx * normalX[i] + vy * normalY[i];
+            if (distance < 0) {
+                distance = -distance;
+                away = -away;
+            }
+            double gap = distance - radius - SLACK;
+            if (gap > 0 && (away >= 0 || gap > -away * maxTime)) {
+                continue;
+            }
+            time = Geometry.timeUntilWallCollision(edges[i], ball.getCircle(), ball.getVelocity());
+            if (time < minTime) {
+                minTime = time;
+                nearestEdge = edges[i];
+            }
+        }
+        double speed = -1; // worked out the first time it is needed
+        for (int i = 0; i < circles.length; i++) {
+            double dx = circleX[i] - x, dy = circleY[i] - y;
+            double touching = radius + circleRadius[i] + SLACK;
+            double distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared > touching * touching) {
+                if (dx * vx + dy * vy <= 0) {
+                    continue;
+                }
+                if (maxTime < Double.POSITIVE_INFINITY) {
+                    if (speed < 0) {
+                        speed = ball.getSpeed();
+                    }
+                    double reach = touching + speed * maxTime;
+                    if (distanceSquared > reach * reach) {
+                        continue;
+                    }
+                }
+            }
+            time = Geometry.timeUntilCircleCollision(circles[i], ball.getCircle(), ball.getVelocity());
+            if (time < minTime) {
+                minTime = time;
+                nearestEdge = null;
+                nearestCircle = circles[i];
+            }
+        }
+        checkRep();
+        return minTime;
+    }
+
+    /**
+     * @return the edge the ball will hit, as found by the last call to
+     *         timeUntilCollision; null if the ball will hit a circle or nothing
+     */
+    LineSegment getNearestEdge() {
+        return nearestEdge;
+    }
+
+    /**
+     * @return the circle the ball will hit, as found by the last call to
+     *         timeUntilCollision; null if the ball will hit an edge or nothing
+     */
+    Circle getNearestCircle() {
+        return nearestCircle;
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        assert edges.length == normalX.length && edges.length == normalY.length;
+        assert circles.length == circleRadius.length;
+        assert minX <= maxX && minY <= maxY;
+        assert nearestEdge == null || nearestCircle == null;
+    }
+}
@@ -0,0 +1,386 @@
+package client.gadgets;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+
+import physics.Angle;
+import physics.Circle;
+import physics.Geometry;
+import physics.LineSegment;
+import physics.Vect;
+
+import client.Ball;
+import common.Constants;
+
+/**
+ * How a flipper turns about its pivot, and what a ball bounces off while it does. A
+ * flipper is a 0.5L thick rectangle along a line from its pivot to its tip. When it is
+ * triggered it turns a quarter turn, at a fixed angular speed, towards its other end
+ * position, or back towards the one it came from if it was still turning; advance
+ * turns it as time passes.
+ *
+ * At rest in either end position the flipper is the rectangle with its thickness on
+ * the side it turns towards, which is inside the flipper's 2x2 square. Those two
+ * rectangles are made once, as CollisionShapes, and balls bounce off them as off a
+ * bumper. While it is turning, the flipper is the rectangle with its thickness on the
+ * side it is turning towards (its leading face), and balls bounce off it with
+ * Geometry's rotating wall and circle collisions at the flipper's real angular
+ * velocity, so a flipper hits a ball in its way as hard as it is moving where it hits
+ * it. Those collisions are much more costly to solve than ones with fixed edges, so the
+ * rectangle's edges and outer corner are worked out once per advance, not once per
+ * ball, and so is the box the rectangle sweeps through until it stops or the time
+ * asked about runs out, whichever is sooner. A ball whose own swept box misses that
+ * box is ruled out without solving for any of them.
+ *
+ * Angles are in Geometry's sense: a positive angle turns (0, 1) towards (-1, 0).
+ *
+ * Thread Safety Argument:
+ * - a motion belongs to one flipper, and is only used by the thread updating its board.
+ *
+ * Rep Invariant:
+ * - 0 <= angle <= QUARTER_TURN, and direction is 1 or -1
+ * - the flipper is moving iff angle != (flipped ? QUARTER_TURN : 0)
+ * - while moving, edges are the current rectangle, leading face first, and corner is the
+ *   outer end of the leading face; otherwise edges and corner are null
+ * - nearestEdge and nearestCorner are not both non-null
+ * - if sweptTime >= 0, sweptMinX/Y and sweptMaxX/Y are the box the flipper sweeps
+ *   through in the next sweptTime seconds, or until it stops if that is sooner
+ */
+class FlipperMotion {
+    private static final double QUARTER_TURN = Math.PI / 2;
+    private static final double THICKNESS = 0.5; // in L
+    /**
+     * How much further than it could possibly get (in L) a ball must be to be ruled out,
+     * to allow for rounding in Geometry
+     */
+    private static final double SLACK = 1e-9;
+    private static final Circle[] NO_CORNERS = new Circle[0];
+
+    private final Vect pivot;
+    private final LineSegment restLine;
+    private final int direction;
+    private final CollisionShape restShape;
+    private final CollisionShape flippedShape;
+    private double speed;
+
+    private boolean flipped = false;
+    private double angle = 0; // turned from the rest position towards the flipped one
+    private LineSegment[] edges;
+    private Circle corner;
+    private double sweptTime = -1; // -1 if the swept box is out of date
+    private double sweptMinX;
+    private double sweptMinY;
+    private double sweptMaxX;
+    private double sweptMaxY;
+
+    private LineSegment nearestEdge;
+    private Circle nearestCorner;
+    private double nearestVelocity; // angular velocity of the part that will be hit
+
+    /**
+     * Make the motion of a flipper at rest
+     *
+     * @param pivot the point the flipper turns about
+     * @param restLine the flipper's line at rest, from pivot to tip
+     * @param direction 1 if the flipper turns by a positive angle from rest to flipped,
+     *                  -1 if by a negative one
+     */
+    FlipperMotion(Vect pivot, LineSegment restLine, int direction) {
+        this.pivot = pivot;
+        this.restLine = restLine;
+        this.direction = direction;
+        this.restShape = new CollisionShape(rectangle(restLine, direction), NO_CORNERS);
+        this.flippedShape = new CollisionShape(rectangle(turn(QUARTER_TURN), -direction), NO_CORNERS);
+        this.speed = Constants.FLIPPER_ANGULAR_SPEED;
+        checkRep();
+    }
+
+    /**
+     * Start turning towards the other end position
+     */
+    void flip() {
+        flipped = !flipped;
+        findEdges();
+        checkRep();
+    }
+
+    /**
+     * Turn the flipper for some time, until it reaches the end position it is turning
+     * towards
+     *
+     * @param deltaT the time passed, in seconds
+     */
+    void advance(double deltaT) {
+        if (!isMoving()) {
+            return;
+        }
+        if (flipped) {
+            angle = Math.min(QUARTER_TURN, angle + speed * deltaT);
+        } else {
+            angle = Math.max(0, angle - speed * deltaT);
+        }
+        findEdges();
+        checkRep();
+    }
+
+    /**
+     * @return true if the flipper is still turning
+     */
+    boolean isMoving() {
+        return angle != (flipped ? QUARTER_TURN : 0);
+    }
+
+    /**
+     * @param speed how fast the flipper turns, in radians per second. requires > 0
+     */
+    void setSpeed(double speed) {
+        this.speed = speed;
+        sweptTime = -1;
+    }
+
+    /**
+     * @return the flipper's angular velocity, in radians per second; 0 if it isn't
+     *         turning
+     */
+    double getAngularVelocity() {
+        if (!isMoving()) {
+            return 0;
+        }
+        return flipped ? direction * speed : -direction * speed;
+    }
+
+    /**
+     * Calculate the time until a Ball at fixed velocity will collide with the flipper,
+     * turning as it is, if it does so within maxTime, and remember which part it will
+     * hit
+     *
+     * @param ball the Ball in question
+     * @param maxTime the longest time of interest, in seconds; may be
+     *                Double.POSITIVE_INFINITY
+     * @return the time until collision if it is at most maxTime; otherwise a time
+     *         greater than maxTime, possibly Double.POSITIVE_INFINITY
+     */
+    double timeUntilCollision(Ball ball, double maxTime) {
+        nearestEdge = null;
+        nearestCorner = null;
+        nearestVelocity = 0;
+        CollisionShape endShape = flipped ? flippedShape : restShape;
+        if (!isMoving()) {
+            double time = endShape.timeUntilCollision(ball, maxTime);
+            nearestEdge = endShape.getNearestEdge();
+            checkRep();
+            return time;
+        }
+
+        // the flipper only turns until it gets to its end position
+        double stop = (flipped ? QUARTER_TURN - angle : angle) / speed;
+        double omega = getAngularVelocity();
+        double minTime = Double.POSITIVE_INFINITY;
+        double time;
+        if (maySweepInto(ball, Math.min(maxTime, stop))) {
+            for (LineSegment edge : edges) {
+                time = Geometry.timeUntilRotatingWallCollision(edge, pivot, omega,
+                        ball.getCircle(), ball.getVelocity());
+                if (time < minTime && time <= stop) {
+                    minTime = time;
+                    nearestEdge = edge;
+                }
+            }
+            time = Geometry.timeUntilRotatingCircleCollision(corner, pivot, omega,
+                    ball.getCircle(), ball.getVelocity());
+            if (time < minTime && time <= stop) {
+                minTime = time;
+                nearestEdge = null;
+                nearestCorner = corner;
+            }
+        }
+        if (nearestEdge != null || nearestCorner != null) {
+            nearestVelocity = omega;
+        } else {
+            // after it stops, the flipper is at rest in its end position
+            time = endShape.timeUntilCollision(ball, maxTime);
+            if (time >= stop) {
+                minTime = time;
+                nearestEdge = endShape.getNearestEdge();
+            }
+        }
+        checkRep();
+        return minTime;
+    }
+
+    /**
+     * Check whether the box a ball sweeps through in some time overlaps the box the
+     * flipper sweeps through in that time
+     *
+     * @param ball the ball
+     * @param time the time, in seconds; requires the flipper to be moving, and
+     *             time <= the time until it stops
+     * @return false if the ball can't touch the flipper within time
+     */
+    private boolean maySweepInto(Ball ball, double time) {
+        if (time != sweptTime) {
+            findSweptBox(time);
+        }
+        double x = ball.getX(), y = ball.getY();
+        double endX = x + ball.getVx() * time, endY = y + ball.getVy() * time;
+        double reach = ball.getRadius() + SLACK;
+        return Math.max(x, endX) + reach >= sweptMinX && Math.min(x, endX) - reach <= sweptMaxX
+                && Math.max(y, endY) + reach >= sweptMinY && Math.min(y, endY) - reach <= sweptMaxY;
+    }
+
+    /**
+     * Work out the box the flipper sweeps through as it turns for some time: the box
+     * around the arcs that the pivot and the corners of its rectangle move along
+     *
+     * @param time the time, in seconds; requires the flipper to be moving, and
+     *             time <= the time until it stops
+     */
+    private void findSweptBox(double time) {
+        sweptTime = time;
+        sweptMinX = sweptMaxX = pivot.x();
+        sweptMinY = sweptMaxY = pivot.y();
+        double turned = getAngularVelocity() * time;
+        LineSegment face = edges[0];
+        addArc(face.p1(), turned);
+        addArc(face.p2(), turned);
+        addArc(edges[1].p2(), turned);
+    }
+
+    /**
+     * Grow the swept box to hold the arc a point moves along as the flipper turns
+     *
+     * @param point a corner of the flipper
+     * @param turned the angle the flipper turns by, at most a quarter turn either way
+     */
+    private void addArc(Vect point, double turned) {
+        double dx = point.x() - pivot.x(), dy = point.y() - pivot.y();
+        double radius = Math.hypot(dx, dy);
+        double start = Math.atan2(dy, dx);
+        double from = Math.min(start, start + turned);
+        double to = Math.max(start, start + turned);
+        addPoint(point.x(), point.y());
+        addPoint(pivot.x() + radius * Math.cos(start + turned), pivot.y() + radius * Math.sin(start + turned));
+        // the arc bulges out furthest where it crosses an axis through the pivot
+        for (int k = -3; k <= 3; k++) {
+            double axis = k * QUARTER_TURN;
+            if (axis > from && axis < to) {
+                addPoint(pivot.x() + radius * Math.cos(axis), pivot.y() + radius * Math.sin(axis));
+            }
+        }
+    }
+
+    /**
+     * Grow the swept box to hold a point
+     */
+    private void addPoint(double x, double y) {
+        sweptMinX = Math.min(sweptMinX, x - SLACK);
+        sweptMinY = Math.min(sweptMinY, y - SLACK);
+        sweptMaxX = Math.max(sweptMaxX, x + SLACK);
+        sweptMaxY = Math.max(sweptMaxY, y + SLACK);
+    }
+
+    /**
+     * Work out the velocity of a ball bouncing off the part of the flipper found by the
+     * last call to timeUntilCollision, at the flipper's angular velocity then
+     *
+     * @param ball the ball, touching that part
+     * @param reflection the fraction of the ball's speed relative to the flipper that
+     *                   it keeps
+     * @return the ball's velocity after the bounce; its velocity now if no part was
+     *         found
+     */
+    Vect reflect(Ball ball, double reflection) {
+        if (nearestCorner != null) {
+            return Geometry.reflectRotatingCircle(nearestCorner, pivot, nearestVelocity,
+                    ball.getCircle(), ball.getVelocity(), reflection);
+        }
+        if (nearestEdge != null) {
+            return Geometry.reflectRotatingWall(nearestEdge, pivot, nearestVelocity,
+                    ball.getCircle(), ball.getVelocity(), reflection);
+        }
+        return ball.getVelocity();
+    }
+
+    /**
+     * @return the outline of the flipper while it is turning, to draw in the GUI;
+     *         requires isMoving()
+     */
+    Shape getShape() {
+        LineSegment face = edges[0];
+        LineSegment line = edges[1];
+        Path2D.Double outline = new Path2D.Double();
+        outline.moveTo(pixel(line.p1().x()), pixel(line.p1().y()));
+        outline.lineTo(pixel(line.p2().x()), pixel(line.p2().y()));
+        outline.lineTo(pixel(face.p2().x()), pixel(face.p2().y()));
+        outline.lineTo(pixel(face.p1().x()), pixel(face.p1().y()));
+        outline.closePath();
+        return outline;
+    }
+
+    /**
+     * @param coordinate an x or y coordinate on the board, in L
+     * @return the same coordinate in the GUI, in pixels
+     */
+    private static double pixel(double coordinate) {
+        return (coordinate + 0.5) * Constants.SCALE + Constants.SCALE;
+    }
+
+    /**
+     * @param turned an angle
+     * @return the rest line turned about the pivot by turned, towards the flipped
+     *         position
+     */
+    private LineSegment turn(double turned) {
+        return Geometry.rotateAround(restLine, pivot, new Angle(direction * turned));
+    }
+
+    /**
+     * Make the edges of the rectangle along a line, leading face first
+     *
+     * @param line a line from the pivot
+     * @param side 1 to put the thickness on the side a positive angle turns the line
+     *             towards, -1 for the other side
+     * @return the face parallel to line, line itself, and the ends at the pivot and tip
+     */
+    private static LineSegment[] rectangle(LineSegment line, int side) {
+        double length = line.length();
+        // a positive angle turns the line's direction (x, y) towards (-y, x)
+        double offsetX = -side * THICKNESS * (line.p2().y() - line.p1().y()) / length;
+        double offsetY = side * THICKNESS * (line.p2().x() - line.p1().x()) / length;
+        Vect offset = new Vect(offsetX, offsetY);
+        Vect faceStart = line.p1().plus(offset);
+        Vect faceEnd = line.p2().plus(offset);
+        return new LineSegment[] {
+            new LineSegment(faceStart, faceEnd),
+            line,
+            new LineSegment(line.p1(), faceStart),
+            new LineSegment(line.p2(), faceEnd),
+        };
+    }
+
+    /**
+     * Work out the edges and outer corner of the flipper at its current angle, with its
+     * thickness on the side it is turning towards
+     */
+    private void findEdges() {
+        sweptTime = -1;
+        if (!isMoving()) {
+            edges = null;
+            corner = null;
+            return;
+        }
+        int side = flipped ? direction : -direction;
+        edges = rectangle(turn(angle), side);
+        corner = new Circle(edges[0].p2(), 0);
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        assert angle >= 0 && angle <= QUARTER_TURN;
+        assert direction == 1 || direction == -1;
+        assert (edges != null) == isMoving() && (corner != null) == isMoving();
+        assert nearestEdge == null || nearestCorner == null;
+    }
+}
@@ -54,6 +54,21 @@ public interface Gadget {
 	 */
 	public double timeUntilCollision(Ball ball);
 
+	/**
+	 * Calculate the time until a Ball at fixed velocity will collide with this
+	 * Gadget, if it does so within maxTime. Gadgets may answer this much more
+	 * cheaply than timeUntilCollision(ball) for balls that are nowhere near
+	 * them.
+	 * 
+	 * @param ball
+	 *            the Ball in question
+	 * @param maxTime
+	 *            the longest time of interest, in seconds
+	 * @return the time until collision if it is at most maxTime; otherwise a
+	 *         time greater than maxTime, possibly Double.POSITIVE_INFINITY
+	 */
+	public double timeUntilCollision(Ball ball, double maxTime);
+
 	/**
 	 * The action to take when this Gadget is triggered
 	 * 
@@ -94,6 +109,8 @@ public interface Gadget {
 
 	/**
 	 * Returns the color given to the gadget from the chosen colorscheme.
+	 * Gadgets create their Color on the first call, so that a headless
+	 * client, which never calls this, doesn't load AWT.
 	 * 
 	 * @return color for the gadget
 	 */
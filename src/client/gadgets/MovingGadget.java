@@ -0,0 +1,24 @@
+package client.gadgets;
+
+/**
+ * A gadget that moves by itself as time passes, such as a flipper turning after it
+ * has been triggered. The board advances its moving gadgets as it moves its balls, and
+ * their timeUntilCollision takes their motion into account.
+ */
+public interface MovingGadget extends Gadget {
+
+	/**
+	 * Move the gadget on by some time
+	 *
+	 * @param deltaT
+	 *            the time passed, in seconds
+	 */
+	public void advance(double deltaT);
+
+	/**
+	 * @return true if the gadget is moving, so a ball at rest may be about to
+	 *         be hit by it
+	 */
+	public boolean isMoving();
+
+}
@@ -9,11 +9,11 @@ import java.util.List;
 import common.Constants;
 import common.netprotocol.TeleportOutMessage;
 import physics.Circle;
-import physics.Geometry;
+import physics.LineSegment;
 import physics.Vect;
 import client.Ball;
 import client.Board;
-import client.ServerHandler;
+import client.MessageSink;
 
 /**
  * Model for the Portal gadget.
@@ -29,16 +29,17 @@ public class Portal implements Gadget {
 	/**
 	 * No representation invariants
 	 */
-	public ServerHandler serverHandler;
+	public MessageSink serverHandler;
 	private String otherPortal;
 	private String otherBoard;
 	private List<Gadget> triggers = new ArrayList<Gadget>();
 	private List<Ball> exiting = new ArrayList<Ball>();
 	private Circle circle;
+	private CollisionShape collisionShape;
 	private Vect position;
 	private String name;
 	private Shape portalShape;
-	private final Color PORTALCOLOR = new Color(0, 0, 0);
+	private Color color;
 
 	/**
 	 * Creates a portal on the specified board linked to the specified other
@@ -62,6 +63,8 @@ public class Portal implements Gadget {
 		this.name = name;
 		this.position = new Vect(xPos, yPos);
 		this.circle = new Circle(position, .5);
+		collisionShape = new CollisionShape(new LineSegment[0],
+				new Circle[] { circle });
 		this.otherBoard = otherBoard;
 		this.otherPortal = otherPortal;
 		portalShape = new Ellipse2D.Double(xPos * Constants.SCALE
@@ -115,9 +118,12 @@ public class Portal implements Gadget {
 
 	@Override
 	public double timeUntilCollision(Ball ball) {
-		double time = Geometry.timeUntilCircleCollision(circle,
-				ball.getCircle(), ball.getVelocity());
-		return time;
+		return collisionShape.timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public double timeUntilCollision(Ball ball, double maxTime) {
+		return collisionShape.timeUntilCollision(ball, maxTime);
 	}
 
 	@Override
@@ -145,7 +151,10 @@ public class Portal implements Gadget {
 
 	@Override
 	public Color getColor() {
-		return PORTALCOLOR;
+		if (color == null) {
+			color = new Color(0, 0, 0);
+		}
+		return color;
 	}
 
 	@Override
@@ -169,7 +178,7 @@ public class Portal implements Gadget {
 	 * @param sh
 	 *            - server handler for the client that this portal is on
 	 */
-	public void setServerHandler(ServerHandler sh) {
+	public void setServerHandler(MessageSink sh) {
 		serverHandler = sh;
 	}
 
@@ -3,31 +3,26 @@ package client.gadgets;
 import java.awt.Color;
 import java.awt.Shape;
 import java.awt.geom.RoundRectangle2D;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import common.Constants;
 
 import client.Ball;
 import client.Board;
-import physics.Angle;
-import physics.Geometry;
 import physics.LineSegment;
 import physics.Vect;
 
 /**
- * Model for the Right Flipper gadget.
- * 
+ * Model for the Right Flipper gadget. When triggered, it turns a quarter turn
+ * about its pivot at Constants.FLIPPER_ANGULAR_SPEED; see FlipperMotion.
  */
-public class RightFlipper implements Gadget {
+public class RightFlipper implements MovingGadget {
 
 	/**
 	 * Rep invariant: 0 <= (pivotCoord.x/y, rotatedCoord.x/y,
 	 * nonRotatedCoord.x/y) <= 19 and are integer-valued doubles line represents
-	 * the flipper
+	 * the flipper at rest, and motion turns it
 	 */
 
 	private LineSegment line;
@@ -35,7 +30,6 @@ public class RightFlipper implements Gadget {
 	private int orientation;
 	private Vect pivot;
 	private double reflection = 0.95;
-	private double angularVelocity = 0;
 	private Set<Gadget> triggers = new HashSet<Gadget>();
 	private Vect pivotCoord;
 	private Vect rotatedCoord;
@@ -45,7 +39,8 @@ public class RightFlipper implements Gadget {
 	private final double archWidth = 20.0;
 	private Shape shape;
 	private Shape rotatedShape;
-	private final Color FLIPCOLOR = new Color(238, 172, 150);
+	private Color color;
+	private FlipperMotion motion;
 
 	/**
 	 * Constructor for RightFlipper
@@ -163,6 +158,8 @@ public class RightFlipper implements Gadget {
 				* Constants.SCALE + Constants.SCALE, rShapeType.x()
 				* Constants.SCALE, rShapeType.y() * Constants.SCALE,
 				archHeight, archWidth);
+		// it turns clockwise on the screen, where y points down
+		this.motion = new FlipperMotion(pivot, line, 1);
 	}
 
 	/**
@@ -178,28 +175,23 @@ public class RightFlipper implements Gadget {
 				&& nonRotatedCoord.y() >= 0 && nonRotatedCoord.y() <= 19);
 	}
 
+	/**
+	 * Start the flipper turning towards its other position, or back if it is
+	 * still turning. The board text shows it in the position it is turning
+	 * towards.
+	 */
 	@Override
 	public void action(Board board) {
-
 		this.putInBoardRep(board, true);
-		if (rotated) {
-			line = Geometry.rotateAround(line, pivot, new Angle(Math.PI / 2.0));
-			rotated = false;
-		} else {
-			line = Geometry.rotateAround(line, pivot, new Angle(
-					3 * Math.PI / 2.0));
-			rotated = true;
-		}
-
+		rotated = !rotated;
+		motion.flip();
 		this.putInBoardRep(board, false);
+		board.notifyGadgetChanged(this);
 	}
 
 	@Override
 	public boolean hit(Ball ball, Board board) {
-		Vect velocity = Geometry.reflectRotatingWall(lineToCollideWith(ball),
-				pivot, angularVelocity, ball.getCircle(), ball.getVelocity(),
-				reflection);
-		ball.setVelocity(velocity);
+		ball.setVelocity(motion.reflect(ball, reflection));
 		for (Gadget g : triggers) {
 			g.action(board);
 		}
@@ -248,12 +240,32 @@ public class RightFlipper implements Gadget {
 
 	@Override
 	public double timeUntilCollision(Ball ball) {
-		List<Double> times = new ArrayList<Double>();
-		for (LineSegment edge : getRect()) {
-			times.add(Geometry.timeUntilWallCollision(edge, ball.getCircle(),
-					ball.getVelocity()));
-		}
-		return Collections.min(times);
+		return motion.timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public double timeUntilCollision(Ball ball, double maxTime) {
+		return motion.timeUntilCollision(ball, maxTime);
+	}
+
+	@Override
+	public void advance(double deltaT) {
+		motion.advance(deltaT);
+	}
+
+	@Override
+	public boolean isMoving() {
+		return motion.isMoving();
+	}
+
+	/**
+	 * Set how fast the flipper turns
+	 * 
+	 * @param speed
+	 *            angular speed in radians per second. requires > 0
+	 */
+	public void setAngularSpeed(double speed) {
+		motion.setSpeed(speed);
 	}
 
 	@Override
@@ -273,7 +285,9 @@ public class RightFlipper implements Gadget {
 
 	@Override
 	public Shape getShape() {
-		if (rotated)
+		if (motion.isMoving())
+			return motion.getShape();
+		else if (rotated)
 			return rotatedShape;
 		else
 			return shape;
@@ -281,70 +295,10 @@ public class RightFlipper implements Gadget {
 
 	@Override
 	public Color getColor() {
-		return FLIPCOLOR;
-	}
-
-	/**
-	 * Checks to see if the flipper is in a verticle
-	 * 
-	 * @return true if flipper is verticle
-	 */
-	private boolean isHorizontal() {
-		boolean isHor = true;
-		if (orientation == 0 || orientation == 180)
-			isHor = false;
-		if (rotated)
-			isHor = !isHor;
-		return isHor;
-	}
-	
-	/**
-	 * Creates line segments that make up this flipper using position vectors
-	 * and lines.
-	 * 
-	 * @return the list of line segments that make up the flipper rectangle
-	 */
-	private List<LineSegment> getRect() {
-		List<LineSegment> rect = new ArrayList<LineSegment>();
-		rect.add(line);
-		if (isHorizontal()) {
-			rect.add(new LineSegment(line.p1().plus(new Vect(0, 0.5)), line
-					.p2().plus(new Vect(0, 0.5))));
-			rect.add(new LineSegment(line.p1(), line.p1()
-					.plus(new Vect(0, 0.5))));
-			rect.add(new LineSegment(line.p2(), line.p2()
-					.plus(new Vect(0, 0.5))));
-		} else {
-			rect.add(new LineSegment(line.p1().plus(new Vect(-0.5, 0)), line
-					.p2().plus(new Vect(-0.5, 0))));
-			rect.add(new LineSegment(line.p1(), line.p1().plus(
-					new Vect(-0.5, 0))));
-			rect.add(new LineSegment(line.p2(), line.p2().plus(
-					new Vect(-0.5, 0))));
-		}
-		return rect;
-	}
-
-	/**
-	 * Returns the line segment representation of the wall that the ball will
-	 * collide with.
-	 * 
-	 * @param ball
-	 *            - ball that is colliding with the wall
-	 * @return LineSegement of wall that is being collided with
-	 */
-	private LineSegment lineToCollideWith(Ball ball) {
-		double minTime = 9999;
-		LineSegment closestWall = null;
-		for (LineSegment edge : getRect()) {
-			double thisTime = Geometry.timeUntilWallCollision(edge,
-					ball.getCircle(), ball.getVelocity());
-			if (thisTime < minTime) {
-				minTime = thisTime;
-				closestWall = edge;
-			}
+		if (color == null) {
+			color = new Color(238, 172, 150);
 		}
-		return closestWall;
+		return color;
 	}
 
 }
@@ -29,6 +29,7 @@ public class SquareBumper implements Gadget {
     private Vect position;
     private LineSegment[] lines;
     private Circle[] corners;
+    private CollisionShape collisionShape;
     private LineSegment nextHit;
     private Circle nextCornerHit;
     private String nextHitType;
@@ -37,7 +38,7 @@ public class SquareBumper implements Gadget {
 	private double xPos;
 	private double yPos;
 	private final Shape shape;
-	private final Color SQUARECOLOR = new Color(18,35,113);
+	private Color color;
 
     /**
      * Constructor for SquareBumper
@@ -78,6 +79,7 @@ public class SquareBumper implements Gadget {
         corners[1] = new Circle(new Vect(position.x() + .5, position.y() - .5), 0);
         corners[2] = new Circle(new Vect(position.x() - .5, position.y() + .5), 0);
         corners[3] = new Circle(new Vect(position.x() + .5, position.y() + .5), 0);
+        collisionShape = new CollisionShape(lines, corners);
     }
 
     /**
@@ -125,27 +127,20 @@ public class SquareBumper implements Gadget {
     
     @Override
     public double timeUntilCollision(Ball ball) {
-        double minTime = Double.POSITIVE_INFINITY;
-        double time;
-        for (LineSegment line : lines) {
-            time = Geometry.timeUntilWallCollision(line, ball.getCircle(),
-                    ball.getVelocity());
-            if (time < minTime) {
-                minTime = time;
-                nextHit = line;
-                nextHitType = "line";
-            } 
-        }
-        for (Circle corner : corners) {
-            time = Geometry.timeUntilCircleCollision(corner, ball.getCircle(),
-                    ball.getVelocity());
-            if (time < minTime) {
-                minTime = time;
-                nextCornerHit = corner;
-                nextHitType = "circle";
-            }
+        return timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public double timeUntilCollision(Ball ball, double maxTime) {
+        double time = collisionShape.timeUntilCollision(ball, maxTime);
+        if (collisionShape.getNearestEdge() != null) {
+            nextHit = collisionShape.getNearestEdge();
+            nextHitType = "line";
+        } else if (collisionShape.getNearestCircle() != null) {
+            nextCornerHit = collisionShape.getNearestCircle();
+            nextHitType = "circle";
         }
-        return minTime;
+        return time;
     }
     
 	/**
@@ -179,7 +174,10 @@ public class SquareBumper implements Gadget {
 
 	@Override
 	public Color getColor() {
-		return SQUARECOLOR;
+		if (color == null) {
+			color = new Color(18, 35, 113);
+		}
+		return color;
 	}
 	
 	@Override
@@ -35,6 +35,7 @@ public class TriangleBumper implements Gadget {
 	private Vect position;
 	private LineSegment[] lines;
 	private Circle[] corners;
+	private CollisionShape collisionShape;
 	private char rep;
 	private LineSegment nextHit;
 	private Circle nextCornerHit;
@@ -43,7 +44,7 @@ public class TriangleBumper implements Gadget {
 	private Set<Gadget> triggers = new HashSet<Gadget>();
 	private double[] xPointsD;
 	private double[] yPointsD;
-	private final Color TRICOLOR = new Color(86, 180, 216);
+	private Color color;
 	private Shape triangleShape;
 
 	/**
@@ -126,6 +127,7 @@ public class TriangleBumper implements Gadget {
 			throw new RuntimeException(
 					"Invalid orientation given. Can only be multiples of 90.");
 		}
+		collisionShape = new CollisionShape(lines, corners);
 		xPointsD = new double[] { (corners[0].getCenter().x()+0.5) * Constants.SCALE + Constants.SCALE,
 				(corners[1].getCenter().x()+0.5) * Constants.SCALE + Constants.SCALE,
 				(corners[2].getCenter().x()+0.5) * Constants.SCALE + Constants.SCALE };
@@ -188,27 +190,20 @@ public class TriangleBumper implements Gadget {
 
 	@Override
 	public double timeUntilCollision(Ball ball) {
-		double minTime = Double.POSITIVE_INFINITY;
-		double time;
-		for (LineSegment line : lines) {
-			time = Geometry.timeUntilWallCollision(line, ball.getCircle(),
-					ball.getVelocity());
-			if (time < minTime) {
-				minTime = time;
-				nextHit = line;
-				nextHitType = "line";
-			}
-		}
-		for (Circle corner : corners) {
-			time = Geometry.timeUntilCircleCollision(corner, ball.getCircle(),
-					ball.getVelocity());
-			if (time < minTime) {
-				minTime = time;
-				nextCornerHit = corner;
-				nextHitType = "circle";
-			}
+		return timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public double timeUntilCollision(Ball ball, double maxTime) {
+		double time = collisionShape.timeUntilCollision(ball, maxTime);
+		if (collisionShape.getNearestEdge() != null) {
+			nextHit = collisionShape.getNearestEdge();
+			nextHitType = "line";
+		} else if (collisionShape.getNearestCircle() != null) {
+			nextCornerHit = collisionShape.getNearestCircle();
+			nextHitType = "circle";
 		}
-		return minTime;
+		return time;
 	}
 
 	/**
@@ -244,7 +239,10 @@ public class TriangleBumper implements Gadget {
 
 	@Override
 	public Color getColor() {
-		return TRICOLOR;
+		if (color == null) {
+			color = new Color(86, 180, 216);
+		}
+		return color;
 	}
 
 	@Override
@@ -7,7 +7,8 @@ import common.Constants;
 import common.netprotocol.BallOutMessage;
 import client.Ball;
 import client.Board;
-import client.ServerHandler;
+import client.MessageSink;
+import physics.Circle;
 import physics.Geometry;
 import physics.LineSegment;
 import physics.Vect;
@@ -21,10 +22,11 @@ public class Wall implements Gadget {
 	 * Rep invariant: line.length() == 20
 	 */
 	private LineSegment line;
+	private CollisionShape collisionShape;
 	private boolean open = false;
 	private Constants.BoardSide boardSide;
 	private String connectedBoardName = null;
-	private ServerHandler serverHandler;
+	private MessageSink serverHandler;
 	private String sidething;
 
 	/**
@@ -60,6 +62,8 @@ public class Wall implements Gadget {
 			line = new LineSegment(-.5, 19.5, -.5, -.5);
 			sidething = "left";
 		}
+		collisionShape = new CollisionShape(new LineSegment[] { line },
+				new Circle[0]);
 	}
 
 	/**
@@ -112,7 +116,7 @@ public class Wall implements Gadget {
 	 * @param sh
 	 *            - server handler for the client that this portal is on
 	 */
-	public void setServerHandler(ServerHandler sh) {
+	public void setServerHandler(MessageSink sh) {
 		this.serverHandler = sh;
 	}
 
@@ -166,9 +170,12 @@ public class Wall implements Gadget {
 
 	@Override
 	public double timeUntilCollision(Ball ball) {
-		double tt = Geometry.timeUntilWallCollision(line, ball.getCircle(),
-				ball.getVelocity());
-		return tt;
+		return collisionShape.timeUntilCollision(ball, Double.POSITIVE_INFINITY);
+	}
+
+	@Override
+	public double timeUntilCollision(Ball ball, double maxTime) {
+		return collisionShape.timeUntilCollision(ball, maxTime);
 	}
 
 	/**
@@ -12,13 +12,38 @@ public class Constants {
 	 */
 	public static enum BoardSide {
         LEFT, RIGHT, TOP, BOTTOM;
+
+        /**
+         * @return the side of a neighboring board that touches this side
+         */
+        public BoardSide opposite() {
+            switch (this) {
+                case LEFT: return RIGHT;
+                case RIGHT: return LEFT;
+                case TOP: return BOTTOM;
+                default: return TOP;
+            }
+        }
     }
 	public static final double TIMESTEP = 1d/20d; //seconds
 	/**
 	 * Enable debug to see additional status messages printed to System.out
 	 */
 	public static final boolean DEBUG = false;
+	/**
+	 * Run -Dpingball.checkRep=true to check the full rep invariants of long-lived
+	 * objects, such as the server, every time they change. The checks cost time in
+	 * proportion to the objects' size, so they are off by default.
+	 */
+	public static final boolean CHECK_REP = Boolean.getBoolean("pingball.checkRep");
 	public static final double BALL_RADIUS = 0.25; // in L
+	/**
+	 * How fast flippers turn, in radians per second. Run
+	 * -Dpingball.flipperSpeed=DEGREES to set it in degrees per second; it is
+	 * 1080 by default, a quarter turn in 1/12 of a second.
+	 */
+	public static final double FLIPPER_ANGULAR_SPEED = Math.toRadians(
+			Double.parseDouble(System.getProperty("pingball.flipperSpeed", "1080")));
 	
 	public static final int DEFAULT_PORT = 10987;
     public static final int MIN_PORT = 0;
@@ -0,0 +1,90 @@
+package common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Makes the threads that run ClientHandlers, ServerHandlers, the SocketAcceptor and the
+ * CommandLineInterface. These spend nearly all of their time blocked in readLine or
+ * accept, so on a JVM with virtual threads (Java 21 and later) they can be virtual
+ * threads, which cost a small heap object instead of a platform thread and its stack.
+ *
+ * Virtual threads are looked up reflectively, so that the code still compiles and runs on
+ * older JVMs. If they are asked for but not available, the factory makes platform threads
+ * instead; isVirtual() tells which one it is doing. Java 19 and 20 have Thread.ofVirtual
+ * but, without --enable-preview, throw UnsupportedOperationException when it is called, so
+ * the constructor calls it once to find out.
+ *
+ * Thread Safety Argument:
+ * * All fields are final, and the reflected Methods are threadsafe to invoke.
+ *
+ * Rep Invariant:
+ * * if virtual, ofVirtual and unstarted are not null
+ */
+public class PingballThreadFactory implements ThreadFactory {
+
+    private final boolean virtual;
+    private final Method ofVirtual;
+    private final Method unstarted;
+
+    /**
+     * Make a factory for platform or virtual threads
+     *
+     * @param virtual true to make virtual threads if this JVM supports them
+     */
+    public PingballThreadFactory(boolean virtual) {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        if (virtual) {
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+                ofVirtual.invoke(null);
+            } catch (Exception e) {
+                // not there, or there only as a disabled preview feature
+                ofVirtual = null;
+                unstarted = null;
+            }
+        }
+        this.ofVirtual = ofVirtual;
+        this.unstarted = unstarted;
+        this.virtual = ofVirtual != null;
+
+        checkRep();
+    }
+
+    /**
+     * @return true if this factory makes virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Make an unstarted thread
+     *
+     * @param r the Runnable for the thread to run
+     * @return a new virtual thread if isVirtual(), or else a new platform thread
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+        if (!virtual) {
+            return new Thread(r);
+        }
+        try {
+            return (Thread) unstarted.invoke(ofVirtual.invoke(null), r);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not make a virtual thread", e);
+        }
+    }
+
+    /**
+     * Rep Invariant:
+     * * if virtual, ofVirtual and unstarted are not null
+     */
+    private void checkRep() {
+        if (virtual && (ofVirtual == null || unstarted == null)) {
+            throw new RepInvariantException("virtual threads without a builder");
+        }
+    }
+}
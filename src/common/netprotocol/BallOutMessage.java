@@ -1,5 +1,9 @@
 package common.netprotocol;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import physics.Vect;
 import common.Constants.BoardSide;
 
@@ -39,6 +43,21 @@ public class BallOutMessage extends NetworkMessage {
         return new BallOutMessage(ballPos, ballVel, fromSide);
     }
 
+    /**
+     * Deserialize the message from a binary body.
+     * See NetworkMessage.deserializeBinary for specification.
+     * See this NetworkMessage's serializeBinaryBody for specific serialization specification.
+     * @return decoded NetworkMessage
+     * @param body body of the binary frame
+     * @throws IOException if the body can't be read
+     */
+    public static NetworkMessage deserializeBinary(DataInput body) throws IOException, DecodeException {
+        Vect ballPos = NetworkMessage.deserializeVect(body);
+        Vect ballVel = NetworkMessage.deserializeVect(body);
+        BoardSide fromSide = NetworkMessage.deserializeBoardSide(body);
+        return new BallOutMessage(ballPos, ballVel, fromSide);
+    }
+
     /**
      * Create a message.
      * @param ballPos  position of the ball
@@ -63,6 +82,25 @@ public class BallOutMessage extends NetworkMessage {
         return message;
     }
 
+    /**
+     * @return binary type tag of this message
+     */
+    protected byte binaryTag() {
+        return BALL_OUT_TAG;
+    }
+
+    /**
+     * Serialize the message body according to specs in NetworkMessage.serializeBinary,
+     * with the same fields in the same order as serialize
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected void serializeBinaryBody(DataOutput out) throws IOException {
+        serializeVect(ballPos, out);
+        serializeVect(ballVel, out);
+        serializeBoardSide(fromSide, out);
+    }
+
     /**
      * @return return ballPos
      */
@@ -1,5 +1,9 @@
 package common.netprotocol;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import common.Constants.BoardSide;
 
 /**
@@ -38,6 +42,23 @@ public class BoardFuseMessage extends NetworkMessage {
         return new BoardFuseMessage(boardName, side);
     }
 
+    /**
+     * Deserialize the message from a binary body.
+     * See NetworkMessage.deserializeBinary for specification.
+     * See this NetworkMessage's serializeBinaryBody for specific serialization specification.
+     * @return decoded NetworkMessage
+     * @param body body of the binary frame
+     * @throws IOException if the body can't be read
+     */
+    public static NetworkMessage deserializeBinary(DataInput body) throws IOException, DecodeException {
+        String boardName = NetworkMessage.deserializeString(body);
+        if (boardName.isEmpty()) {
+            throw new DecodeException("Empty boardName");
+        }
+        BoardSide side = NetworkMessage.deserializeBoardSide(body);
+        return new BoardFuseMessage(boardName, side);
+    }
+
     /**
      * Create a message.
      * @param boardName name of the board fusing
@@ -59,6 +80,24 @@ public class BoardFuseMessage extends NetworkMessage {
         return message;
     }
 
+    /**
+     * @return binary type tag of this message
+     */
+    protected byte binaryTag() {
+        return BOARD_FUSE_TAG;
+    }
+
+    /**
+     * Serialize the message body according to specs in NetworkMessage.serializeBinary,
+     * with the same fields in the same order as serialize
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected void serializeBinaryBody(DataOutput out) throws IOException {
+        serializeString(boardName, out);
+        serializeBoardSide(side, out);
+    }
+
     /**
      * @return return boardName
      */
@@ -1,5 +1,9 @@
 package common.netprotocol;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import common.Constants.BoardSide;
 
 /**
@@ -33,6 +37,19 @@ public class BoardUnfuseMessage extends NetworkMessage {
         return new BoardUnfuseMessage(side);
     }
 
+    /**
+     * Deserialize the message from a binary body.
+     * See NetworkMessage.deserializeBinary for specification.
+     * See this NetworkMessage's serializeBinaryBody for specific serialization specification.
+     * @return decoded NetworkMessage
+     * @param body body of the binary frame
+     * @throws IOException if the body can't be read
+     */
+    public static NetworkMessage deserializeBinary(DataInput body) throws IOException, DecodeException {
+        BoardSide side = NetworkMessage.deserializeBoardSide(body);
+        return new BoardUnfuseMessage(side);
+    }
+
     /**
      * Create a message.
      * @param side which side to unfuse
@@ -51,6 +68,23 @@ public class BoardUnfuseMessage extends NetworkMessage {
         return message;
     }
 
+    /**
+     * @return binary type tag of this message
+     */
+    protected byte binaryTag() {
+        return BOARD_UNFUSE_TAG;
+    }
+
+    /**
+     * Serialize the message body according to specs in NetworkMessage.serializeBinary,
+     * with the same fields in the same order as serialize
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected void serializeBinaryBody(DataOutput out) throws IOException {
+        serializeBoardSide(side, out);
+    }
+
     /**
      * @return return side
      */
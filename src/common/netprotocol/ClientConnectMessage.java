@@ -1,8 +1,20 @@
 package common.netprotocol;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Client -> Server
  * Message sent when a client wants to connect to a server.
+ * The client may offer to switch to the binary serialization (see NetworkMessage.serializeBinary).
+ *
+ * Server -> Client
+ * Sent back to a client that offered the binary serialization, to accept the offer.
+ * After sending it the server sends binary frames, and after receiving it the client does.
+ * Both sides accept either serialization at any time, so messages sent before the switch
+ * are still understood.
+ *
  * This is an immutable class.
  *
  * Thread Safety Argument:
@@ -14,6 +26,10 @@ public class ClientConnectMessage extends NetworkMessage {
      * - all data is immutable (enforced by type system)
      */
     private final String boardName;
+    private final boolean binary; // whether the binary serialization is offered or accepted
+
+    // Optional last field of the text serialization, offering the binary serialization.
+    public static final String BINARY = "binary";
 
     /**
      * Deserialize the message.
@@ -24,22 +40,52 @@ public class ClientConnectMessage extends NetworkMessage {
      */
     public static NetworkMessage deserialize(String body) throws DecodeException {
         String units[] = body.split(STD_SEP);
-        if (units.length != 1) {
+        if (units.length != 1 && units.length != 2) {
             throw new DecodeException("Wrong body length: " + units.length);
         }
         String boardName = units[0];
         if (boardName.isEmpty()) {
             throw new DecodeException("Empty boardName");
         }
-        return new ClientConnectMessage(boardName);
+        if (units.length == 2 && !units[1].equals(BINARY)) {
+            throw new DecodeException("Unknown serialization: " + units[1]);
+        }
+        return new ClientConnectMessage(boardName, units.length == 2);
     }
 
     /**
-     * Create a message.
+     * Deserialize the message from a binary body.
+     * See NetworkMessage.deserializeBinary for specification.
+     * See this NetworkMessage's serializeBinaryBody for specific serialization specification.
+     * @return decoded NetworkMessage
+     * @param body body of the binary frame
+     * @throws IOException if the body can't be read
+     */
+    public static NetworkMessage deserializeBinary(DataInput body) throws IOException, DecodeException {
+        String boardName = NetworkMessage.deserializeString(body);
+        if (boardName.isEmpty()) {
+            throw new DecodeException("Empty boardName");
+        }
+        boolean binary = body.readBoolean();
+        return new ClientConnectMessage(boardName, binary);
+    }
+
+    /**
+     * Create a message that doesn't offer the binary serialization.
      * @param boardName name of the board connecting
      */
     public ClientConnectMessage(String boardName) {
+        this(boardName, false);
+    }
+
+    /**
+     * Create a message.
+     * @param boardName name of the board connecting
+     * @param binary true to offer (from a client) or accept (from the server) the binary serialization
+     */
+    public ClientConnectMessage(String boardName, boolean binary) {
         this.boardName = boardName;
+        this.binary = binary;
     }
 
     /**
@@ -49,13 +95,41 @@ public class ClientConnectMessage extends NetworkMessage {
     public String serialize() {
         String message = this.getClass().getSimpleName() + STD_SEP;
         message += serializeString(boardName);
+        if (binary) {
+            message += STD_SEP + BINARY;
+        }
         return message;
     }
 
+    /**
+     * @return binary type tag of this message
+     */
+    protected byte binaryTag() {
+        return CLIENT_CONNECT_TAG;
+    }
+
+    /**
+     * Serialize the message body according to specs in NetworkMessage.serializeBinary,
+     * with the same fields in the same order as serialize
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected void serializeBinaryBody(DataOutput out) throws IOException {
+        serializeString(boardName, out);
+        out.writeBoolean(binary);
+    }
+
     /**
      * @return return boardName
      */
     public String getBoardName() {
         return boardName;
     }
+
+    /**
+     * @return true if the binary serialization is offered or accepted
+     */
+    public boolean isBinary() {
+        return binary;
+    }
 }
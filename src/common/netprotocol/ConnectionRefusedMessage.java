@@ -1,5 +1,9 @@
 package common.netprotocol;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Server -> Client
  * Message sent to notify a client that the server refused its connection.
@@ -34,6 +38,22 @@ public class ConnectionRefusedMessage extends NetworkMessage {
         return new ConnectionRefusedMessage(reason);
     }
     
+    /**
+     * Deserialize the message from a binary body.
+     * See NetworkMessage.deserializeBinary for specification.
+     * See this NetworkMessage's serializeBinaryBody for specific serialization specification.
+     * @return decoded NetworkMessage
+     * @param body body of the binary frame
+     * @throws IOException if the body can't be read
+     */
+    public static NetworkMessage deserializeBinary(DataInput body) throws IOException, DecodeException {
+        String reason = NetworkMessage.deserializeString(body);
+        if (reason.isEmpty()) {
+            throw new DecodeException("Empty reason");
+        }
+        return new ConnectionRefusedMessage(reason);
+    }
+
     /**
      * Constructor for ConnectionRefusedMessage
      * @param reason - reason for connection refusal
@@ -52,6 +72,23 @@ public class ConnectionRefusedMessage extends NetworkMessage {
         return message;
     }
 
+    /**
+     * @return binary type tag of this message
+     */
+    protected byte binaryTag() {
+        return CONNECTION_REFUSED_TAG;
+    }
+
+    /**
+     * Serialize the message body according to specs in NetworkMessage.serializeBinary,
+     * with the same fields in the same order as serialize
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected void serializeBinaryBody(DataOutput out) throws IOException {
+        serializeString(reason, out);
+    }
+
     /**
      * @return return reason
      */
@@ -0,0 +1,97 @@
+package common.netprotocol;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import common.netprotocol.NetworkMessage.DecodeException;
+
+/**
+ * Reads NetworkMessages from a stream that may carry both serializations:
+ * lines of text ending in '\n', and binary frames (see NetworkMessage.serializeBinary).
+ * The first byte of each message says which one it is.
+ *
+ * Thread Safety Argument:
+ * - a MessageReader must be confined to one reading thread.
+ * - close() may be called from any thread; it only closes the underlying stream.
+ */
+public class MessageReader {
+    private final InputStream in;
+    private final TextDecoder decoder = new TextDecoder();
+    private byte[] buffer = new byte[256];
+
+    /**
+     * Create a MessageReader.
+     * @param in stream to read messages from
+     */
+    public MessageReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    /**
+     * Read the next message, blocking until it has all arrived.
+     * A text line may end in "\r\n" instead of "\n", and the last line of the
+     * stream may have no line terminator at all, as for BufferedReader.readLine.
+     *
+     * @return the next message, or null if the stream has ended
+     * @throws IOException if the stream can't be read, or ends in the middle of a binary frame
+     * @throws DecodeException if the message is not a valid NetworkMessage
+     */
+    public NetworkMessage read() throws IOException, DecodeException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+
+        if (NetworkMessage.isBinaryTag(first)) {
+            int high = in.read();
+            int low = in.read();
+            if (low < 0) {
+                throw new EOFException("Stream ended in a binary header");
+            }
+            int length = NetworkMessage.BINARY_HEADER_LENGTH + ((high << 8) | low);
+            ensureCapacity(length);
+            buffer[0] = (byte) first;
+            buffer[1] = (byte) high;
+            buffer[2] = (byte) low;
+            for (int n = NetworkMessage.BINARY_HEADER_LENGTH; n < length; ) {
+                int read = in.read(buffer, n, length - n);
+                if (read < 0) {
+                    throw new EOFException("Stream ended in a binary body");
+                }
+                n += read;
+            }
+            return NetworkMessage.deserializeBinary(buffer, length);
+        }
+
+        int length = 0;
+        for (int b = first; b >= 0 && b != '\n'; b = in.read()) {
+            ensureCapacity(length + 1);
+            buffer[length++] = (byte) b;
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        return decoder.decode(new String(buffer, 0, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Close the underlying stream. A read() blocked in another thread will fail.
+     * @throws IOException if the stream can't be closed
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Grow buffer to hold at least capacity bytes.
+     */
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, 2 * buffer.length));
+        }
+    }
+}
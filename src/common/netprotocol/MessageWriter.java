@@ -0,0 +1,103 @@
+package common.netprotocol;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes NetworkMessages to a stream, as lines of text until the peer has agreed
+ * to the binary serialization and then as binary frames (see NetworkMessage.serializeBinary).
+ * Messages are buffered until flush() is called, so that all the messages a loop produces
+ * in one pass go out together, in as few TCP segments as they fit in, instead of one
+ * segment per message. The writer counts the messages it has written and the flushes
+ * that sent any, to show how well messages are being coalesced.
+ *
+ * Thread Safety Argument:
+ * - write() and flush() must be confined to one writing thread.
+ * - the counters are volatile and only written by the writing thread, so any thread
+ *   may read them.
+ * - binary is volatile, so setBinary() may be called from another thread, e.g. the
+ *   thread that reads the peer's acceptance of the binary serialization.
+ * - close() may be called from any thread; BufferedOutputStream is synchronized.
+ */
+public class MessageWriter {
+    private final OutputStream out;
+    private volatile boolean binary = false;
+    private int unflushed = 0; // messages written since the last flush
+    private volatile long messages = 0;
+    private volatile long flushes = 0;
+
+    /**
+     * Create a MessageWriter that starts out writing text.
+     * @param out stream to write messages to
+     */
+    public MessageWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out);
+    }
+
+    /**
+     * @param binary true to write binary frames from now on, false to write text
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return true if messages are written as binary frames
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Write a message. It reaches the peer at the next flush(), or earlier if the buffer fills.
+     * @param message message to write
+     * @throws IOException if the stream can't be written
+     */
+    public void write(NetworkMessage message) throws IOException {
+        if (binary) {
+            out.write(message.serializeBinary());
+        } else {
+            out.write((message.serialize() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        unflushed++;
+    }
+
+    /**
+     * Send the messages written since the last flush to the peer. Does nothing if there
+     * are none.
+     * @throws IOException if the stream can't be written
+     */
+    public void flush() throws IOException {
+        if (unflushed == 0) {
+            return;
+        }
+        messages += unflushed;
+        flushes++;
+        unflushed = 0;
+        out.flush();
+    }
+
+    /**
+     * @return the number of messages flushed so far
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the number of flushes that sent at least one message
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Flush any unflushed messages and close the underlying stream.
+     * @throws IOException if the stream can't be closed
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -1,5 +1,14 @@
 package common.netprotocol;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,16 +25,37 @@ import common.Constants.BoardSide;
  * NetworkMessage.deserialize can only deserialize messages with headers
  * that it knows about. For this reason, every implementation
  * must have a correspoding entry in the known message type
- * list in the deserialize method.
+ * lists in TextDecoder.decode and the deserializeWithRegex method.
  * This is an unfortunate compromise. It was deemed better
  * than the alternative of using fragile language introspection
  * to find implementations.
  *
+ * Messages also have a compact binary serialization, described in the
+ * spec for serializeBinary. Peers agree to use it in their ClientConnectMessages;
+ * until they have, and with peers that don't support it, the text serialization is used.
+ * Another known message type list is in deserializeBinary.
+ *
  */
 public abstract class NetworkMessage {
     // Standard separator for message units.
     protected static final String STD_SEP = "#";
 
+    // Binary type tags, one per message type. See isBinaryTag.
+    protected static final byte BALL_IN_TAG = 1;
+    protected static final byte BALL_OUT_TAG = 2;
+    protected static final byte BOARD_FUSE_TAG = 3;
+    protected static final byte BOARD_UNFUSE_TAG = 4;
+    protected static final byte CLIENT_CONNECT_TAG = 5;
+    protected static final byte CONNECTION_REFUSED_TAG = 6;
+    protected static final byte TELEPORT_OUT_TAG = 7;
+    protected static final byte TELEPORT_IN_TAG = 8;
+    protected static final byte TELEPORT_FAIL_TAG = 9;
+
+    /** Length of a binary frame's header: the type tag and the body length. */
+    public static final int BINARY_HEADER_LENGTH = 3;
+    /** Longest body a binary frame can carry. */
+    public static final int MAX_BINARY_BODY = 0xFFFF;
+
     /**
      * Decode from a message received to an instance of a NetworkMessage.
      * See NetworkMessage.serialize for a description of the serialization grammar.
@@ -34,6 +64,23 @@ public abstract class NetworkMessage {
      * to decode only the BODY of the message and return an instance
      * of that NetworkMessage.
      *
+     * This implementation hands the whole message to a TextDecoder, which
+     * decodes it in one pass to the same result as deserializeWithRegex.
+     *
+     * @param message string to decode
+     * @return decoded NetworkMessage
+     * @throws DecodeException indicator of failure
+     */
+    public static NetworkMessage deserialize(String message) throws DecodeException {
+        return new TextDecoder().decode(message);
+    }
+
+    /**
+     * Decode from a message received to an instance of a NetworkMessage,
+     * the way deserialize did before TextDecoder: with regular expressions
+     * and the implementations' deserialize(String body) methods.
+     * This is the reference that TextDecoder is tested and benchmarked against.
+     *
      * This implementation is only responsible for determining which
      * implementation of NetworkMessage should do the rest of the deserialization.
      *
@@ -41,7 +88,7 @@ public abstract class NetworkMessage {
      * @return decoded NetworkMessage
      * @throws DecodeException indicator of failure
      */
-    public static NetworkMessage deserialize(String message) throws DecodeException {
+    public static NetworkMessage deserializeWithRegex(String message) throws DecodeException {
         // Extract the header
         Pattern headerPattern = Pattern.compile("^(.*?)" + STD_SEP);
         Matcher headerMatcher = headerPattern.matcher(message);
@@ -117,6 +164,121 @@ public abstract class NetworkMessage {
      */
     public abstract String serialize();
 
+    /**
+     * Decode a binary frame received to an instance of a NetworkMessage.
+     * See NetworkMessage.serializeBinary for a description of the binary format.
+     *
+     * Implementations of NetworkMessage should have a static
+     * deserializeBinary(DataInput) method that decodes only the BODY of the frame,
+     * like their deserialize(String) method.
+     *
+     * @param frame array holding the frame, starting at index 0
+     * @param length number of bytes in the frame, including the header
+     * @return decoded NetworkMessage
+     * @throws DecodeException indicator of failure
+     */
+    public static NetworkMessage deserializeBinary(byte[] frame, int length) throws DecodeException {
+        if (length < BINARY_HEADER_LENGTH) {
+            throw new DecodeException("Binary header missing.");
+        }
+        int bodyLength = ((frame[1] & 0xFF) << 8) | (frame[2] & 0xFF);
+        if (bodyLength != length - BINARY_HEADER_LENGTH) {
+            throw new DecodeException("Wrong frame length: " + length + " for body length " + bodyLength);
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(frame, BINARY_HEADER_LENGTH, bodyLength);
+        DataInputStream body = new DataInputStream(bytes);
+
+        // Pass work on to a known NetworkMessage implementation.
+        NetworkMessage message;
+        try {
+            switch (frame[0]) {
+                case BALL_IN_TAG: message = BallInMessage.deserializeBinary(body); break;
+                case BALL_OUT_TAG: message = BallOutMessage.deserializeBinary(body); break;
+                case BOARD_FUSE_TAG: message = BoardFuseMessage.deserializeBinary(body); break;
+                case BOARD_UNFUSE_TAG: message = BoardUnfuseMessage.deserializeBinary(body); break;
+                case CLIENT_CONNECT_TAG: message = ClientConnectMessage.deserializeBinary(body); break;
+                case CONNECTION_REFUSED_TAG: message = ConnectionRefusedMessage.deserializeBinary(body); break;
+                case TELEPORT_OUT_TAG: message = TeleportOutMessage.deserializeBinary(body); break;
+                case TELEPORT_IN_TAG: message = TeleportInMessage.deserializeBinary(body); break;
+                case TELEPORT_FAIL_TAG: message = TeleportFailMessage.deserializeBinary(body); break;
+                default: throw new DecodeException("Unrecognized type tag: " + frame[0]);
+            }
+        } catch (EOFException e) {
+            throw new DecodeException("Binary body too short.", e);
+        } catch (IOException e) {
+            throw new DecodeException("Could not read binary body.", e);
+        }
+        if (bytes.available() > 0) {
+            throw new DecodeException("Binary body too long by " + bytes.available() + " bytes.");
+        }
+        return message;
+    }
+
+    /**
+     * Serialize a network message to a binary frame.
+     * All NetworkMessages can be serialized.
+     *
+     * A frame is a header followed by a body:
+     * frame ::= tag length body
+     * tag ::= <1 byte, unique to the message type>
+     * length ::= <2 bytes, unsigned big-endian length of body>
+     * body ::= field*
+     *
+     * Tags are control characters other than '\n' and '\r', which no text
+     * serialization begins with, so a reader can tell from its first byte whether
+     * the next message is a binary frame or a line of text.
+     *
+     * The recommended field encodings are in the static binary helper methods in
+     * this class: a Vect is two IEEE-754 doubles, a BoardSide is one byte,
+     * and a String is a 2-byte length followed by that many bytes of UTF-8.
+     * For example, a BallOutMessage is a 36 byte frame, where its text serialization
+     * is usually around 90 bytes.
+     *
+     * @return binary serialization of NetworkMessage
+     * @throws EncodeException if the body is longer than MAX_BINARY_BODY
+     */
+    public byte[] serializeBinary() throws EncodeException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(binaryTag());
+            out.writeShort(0); // filled in below
+            serializeBinaryBody(out);
+        } catch (IOException e) {
+            // this should never happen; ByteArrayOutputStreams don't throw.
+            throw new RuntimeException(e);
+        }
+        byte[] frame = bytes.toByteArray();
+        int bodyLength = frame.length - BINARY_HEADER_LENGTH;
+        if (bodyLength > MAX_BINARY_BODY) {
+            throw new EncodeException("Message too long for a binary frame: " + bodyLength + " bytes");
+        }
+        frame[1] = (byte) (bodyLength >>> 8);
+        frame[2] = (byte) bodyLength;
+        return frame;
+    }
+
+    /**
+     * @return the binary type tag of this message type
+     */
+    protected abstract byte binaryTag();
+
+    /**
+     * Write the body of this message's binary frame.
+     * See NetworkMessage.serializeBinary for the format.
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected abstract void serializeBinaryBody(DataOutput out) throws IOException;
+
+    /**
+     * @param b a byte read from a connection, as an unsigned value
+     * @return true if b starts a binary frame rather than a line of text
+     */
+    public static boolean isBinaryTag(int b) {
+        return b >= 0 && b < ' ' && b != '\n' && b != '\r';
+    }
+
 
     /**
      * Exception thrown when a NetworkMessage message cannot be decoded.
@@ -210,6 +372,41 @@ public abstract class NetworkMessage {
         }
     }
 
+    /**
+     * Serialize a Vect to a binary body.
+     * Helper method for binary message serialization.
+     *
+     * Writes the x and then the y coordinate as 8-byte IEEE-754 doubles.
+     *
+     * @param v Vect to serialize
+     * @param out where to write it
+     * @throws IOException if out does
+     */
+    protected static void serializeVect(Vect v, DataOutput out) throws IOException {
+        out.writeDouble(v.x());
+        out.writeDouble(v.y());
+    }
+
+    /**
+     * Deserialize a Vect from a binary body.
+     * Helper method for binary message deserialization.
+     *
+     * Like the text serialization, only accepts finite coordinates.
+     *
+     * @param in where to read the Vect
+     * @return deserialized Vect
+     * @throws IOException if in does
+     * @throws DecodeException if a coordinate is NaN or infinite
+     */
+    protected static Vect deserializeVect(DataInput in) throws IOException, DecodeException {
+        double x = in.readDouble();
+        double y = in.readDouble();
+        if (Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y)) {
+            throw new DecodeException("Could not decode Vect (not finite): " + x + " " + y);
+        }
+        return new Vect(x, y);
+    }
+
     /**
      * Serialize a BoardSide.
      * Helper method for message serialization.
@@ -260,6 +457,33 @@ public abstract class NetworkMessage {
         }
     }
 
+    /**
+     * Serialize a BoardSide to a binary body.
+     * Helper method for binary message serialization.
+     *
+     * Writes the one byte 'L', 'R', 'T', or 'B', as in the text serialization.
+     *
+     * @param bs BoardSide to serialize
+     * @param out where to write it
+     * @throws IOException if out does
+     */
+    protected static void serializeBoardSide(BoardSide bs, DataOutput out) throws IOException {
+        out.writeByte(serializeBoardSide(bs).charAt(0));
+    }
+
+    /**
+     * Deserialize a BoardSide from a binary body.
+     * Helper method for binary message deserialization.
+     *
+     * @param in where to read the BoardSide
+     * @return deserialized BoardSide
+     * @throws IOException if in does
+     * @throws DecodeException if the byte is not a BoardSide
+     */
+    protected static BoardSide deserializeBoardSide(DataInput in) throws IOException, DecodeException {
+        return deserializeBoardSide(String.valueOf((char) in.readUnsignedByte()));
+    }
+
     /**
      * Serialize a String.
      * Helper method for message serialization.
@@ -280,4 +504,40 @@ public abstract class NetworkMessage {
         }
     }
 
+    /**
+     * Serialize a String to a binary body.
+     * Helper method for binary message serialization.
+     *
+     * Writes the length of the string's UTF-8 encoding as 2 unsigned big-endian bytes,
+     * followed by the encoding. Like serializeString, rejects strings containing '#',
+     * so that every message can still be sent as text.
+     *
+     * @param s String to serialize
+     * @param out where to write it
+     * @throws IOException if out does
+     * @throws EncodeException if s contains '#' or is too long
+     */
+    protected static void serializeString(String s, DataOutput out) throws IOException, EncodeException {
+        byte[] bytes = serializeString(s).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_BINARY_BODY) {
+            throw new EncodeException("String too long for encoding: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Deserialize a String from a binary body.
+     * Helper method for binary message deserialization.
+     *
+     * @param in where to read the String
+     * @return deserialized String
+     * @throws IOException if in does
+     */
+    protected static String deserializeString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
 }
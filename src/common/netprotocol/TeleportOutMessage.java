@@ -1,5 +1,9 @@
 package common.netprotocol;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import physics.Vect;
 
 /**
@@ -43,6 +47,23 @@ public class TeleportOutMessage extends NetworkMessage {
     }
 
 
+    /**
+     * Deserialize the message from a binary body.
+     * See NetworkMessage.deserializeBinary for specification.
+     * See this NetworkMessage's serializeBinaryBody for specific serialization specification.
+     * @return decoded NetworkMessage
+     * @param body body of the binary frame
+     * @throws IOException if the body can't be read
+     */
+    public static NetworkMessage deserializeBinary(DataInput body) throws IOException, DecodeException {
+        Vect ballVel = NetworkMessage.deserializeVect(body);
+        String boardFrom = NetworkMessage.deserializeString(body);
+        String portalFrom = NetworkMessage.deserializeString(body);
+        String boardTo = NetworkMessage.deserializeString(body);
+        String portalTo = NetworkMessage.deserializeString(body);
+        return new TeleportOutMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo);
+    }
+
      /**
       * Create a message.
       * @param ballVel
@@ -73,6 +94,27 @@ public class TeleportOutMessage extends NetworkMessage {
         return message;
     }
 
+    /**
+     * @return binary type tag of this message
+     */
+    protected byte binaryTag() {
+        return TELEPORT_OUT_TAG;
+    }
+
+    /**
+     * Serialize the message body according to specs in NetworkMessage.serializeBinary,
+     * with the same fields in the same order as serialize
+     * @param out where to write the body
+     * @throws IOException if out does
+     */
+    protected void serializeBinaryBody(DataOutput out) throws IOException {
+        serializeVect(ballVel, out);
+        serializeString(boardFrom, out);
+        serializeString(portalFrom, out);
+        serializeString(boardTo, out);
+        serializeString(portalTo, out);
+    }
+
     /**
      * @return return ballVel
      */
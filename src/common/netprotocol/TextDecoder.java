@@ -0,0 +1,490 @@
+package common.netprotocol;
+
+import java.util.Arrays;
+
+import physics.Vect;
+import common.Constants.BoardSide;
+import common.netprotocol.NetworkMessage.DecodeException;
+
+/**
+ * TextDecoder decodes the text serialization of NetworkMessages
+ * (see NetworkMessage.serialize) in a single pass over the message.
+ *
+ * It accepts exactly the messages that NetworkMessage.deserializeWithRegex and the
+ * subclasses' deserialize methods accept, and decodes them to the same values,
+ * but it never compiles a Pattern, never splits the body, and only makes
+ * Strings for String fields. Headers are found through a table of the known
+ * headers indexed by length, and Vect coordinates are parsed in place.
+ *
+ * Like the other decoders, TextDecoder must know every NetworkMessage
+ * implementation; see the known message type list in decode.
+ *
+ * Thread Safety Argument:
+ * - the tables are immutable.
+ * - the cursor fields are mutated by decode, so a TextDecoder must be confined
+ *   to one thread. Reusing one TextDecoder for many messages saves an allocation each.
+ */
+public class TextDecoder {
+    // Known message types, indexing HEADERS.
+    private static final int BALL_IN = 0;
+    private static final int BALL_OUT = 1;
+    private static final int BOARD_FUSE = 2;
+    private static final int BOARD_UNFUSE = 3;
+    private static final int CLIENT_CONNECT = 4;
+    private static final int CONNECTION_REFUSED = 5;
+    private static final int TELEPORT_OUT = 6;
+    private static final int TELEPORT_IN = 7;
+    private static final int TELEPORT_FAIL = 8;
+
+    private static final String[] HEADERS = {
+        BallInMessage.class.getSimpleName(),
+        BallOutMessage.class.getSimpleName(),
+        BoardFuseMessage.class.getSimpleName(),
+        BoardUnfuseMessage.class.getSimpleName(),
+        ClientConnectMessage.class.getSimpleName(),
+        ConnectionRefusedMessage.class.getSimpleName(),
+        TeleportOutMessage.class.getSimpleName(),
+        TeleportInMessage.class.getSimpleName(),
+        TeleportFailMessage.class.getSimpleName(),
+    };
+
+    // HEADERS_BY_LENGTH[n] holds the types whose header is n chars long.
+    private static final int[][] HEADERS_BY_LENGTH;
+    static {
+        int longest = 0;
+        for (String header : HEADERS) {
+            longest = Math.max(longest, header.length());
+        }
+        HEADERS_BY_LENGTH = new int[longest + 1][0];
+        for (int type = 0; type < HEADERS.length; type++) {
+            int[] types = HEADERS_BY_LENGTH[HEADERS[type].length()];
+            types = Arrays.copyOf(types, types.length + 1);
+            types[types.length - 1] = type;
+            HEADERS_BY_LENGTH[HEADERS[type].length()] = types;
+        }
+    }
+
+    // Powers of ten that are exact doubles.
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+    // FIVES[n] is 5^n, for each power of ten in POWERS_OF_TEN.
+    private static final long[] FIVES = new long[POWERS_OF_TEN.length];
+    static {
+        FIVES[0] = 1;
+        for (int n = 1; n < FIVES.length; n++) {
+            FIVES[n] = 5 * FIVES[n - 1];
+        }
+    }
+    // Largest integer up to which every long is an exact double.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    // Most significant digits parsed without Double.parseDouble; 10^18 < 2^60.
+    private static final int MAX_DIGITS = 18;
+    // Result of compareToRoundingInterval when it can't tell.
+    private static final int UNKNOWN = 2;
+
+    /*
+     * Cursor over the message being decoded:
+     * - text is the message
+     * - pos is the start of the next field
+     * - end is the end of the body, without any trailing separators
+     * - fields is the number of fields in the body, counted as String.split counts them
+     * - fieldStart and fieldEnd bound the field most recently read
+     */
+    private CharSequence text;
+    private int pos;
+    private int end;
+    private int fields;
+    private int fieldStart;
+    private int fieldEnd;
+
+    /**
+     * Decode a message. See NetworkMessage.deserialize for specification.
+     *
+     * @param message message to decode
+     * @return decoded NetworkMessage
+     * @throws DecodeException indicator of failure
+     */
+    public NetworkMessage decode(CharSequence message) throws DecodeException {
+        int headerEnd = findHeader(message);
+        int type = lookUpHeader(message, headerEnd);
+        startBody(message, headerEnd + 1);
+
+        // Decode the body as the known NetworkMessage implementation does.
+        switch (type) {
+            case BALL_IN: {
+                expectFields(3);
+                Vect ballPos = nextVect();
+                Vect ballVel = nextVect();
+                BoardSide toSide = nextBoardSide();
+                return new BallInMessage(ballPos, ballVel, toSide);
+            }
+            case BALL_OUT: {
+                expectFields(3);
+                Vect ballPos = nextVect();
+                Vect ballVel = nextVect();
+                BoardSide fromSide = nextBoardSide();
+                return new BallOutMessage(ballPos, ballVel, fromSide);
+            }
+            case BOARD_FUSE: {
+                expectFields(2);
+                String boardName = nextString();
+                if (boardName.isEmpty()) {
+                    throw new DecodeException("Empty boardName");
+                }
+                BoardSide side = nextBoardSide();
+                return new BoardFuseMessage(boardName, side);
+            }
+            case BOARD_UNFUSE: {
+                expectFields(1);
+                BoardSide side = nextBoardSide();
+                return new BoardUnfuseMessage(side);
+            }
+            case CLIENT_CONNECT: {
+                if (fields != 1 && fields != 2) {
+                    throw new DecodeException("Wrong body length: " + fields);
+                }
+                String boardName = nextString();
+                if (boardName.isEmpty()) {
+                    throw new DecodeException("Empty boardName");
+                }
+                if (fields == 2 && !nextFieldEquals(ClientConnectMessage.BINARY)) {
+                    throw new DecodeException("Unknown serialization: " + field());
+                }
+                return new ClientConnectMessage(boardName, fields == 2);
+            }
+            case CONNECTION_REFUSED: {
+                expectFields(1);
+                String reason = nextString();
+                if (reason.isEmpty()) {
+                    throw new DecodeException("Empty reason");
+                }
+                return new ConnectionRefusedMessage(reason);
+            }
+            case TELEPORT_OUT: {
+                expectFields(5);
+                Vect ballVel = nextVect();
+                String boardFrom = nextString();
+                String portalFrom = nextString();
+                String boardTo = nextString();
+                String portalTo = nextString();
+                return new TeleportOutMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo);
+            }
+            case TELEPORT_IN: {
+                expectFields(5);
+                Vect ballVel = nextVect();
+                String boardFrom = nextString();
+                String portalFrom = nextString();
+                String boardTo = nextString();
+                String portalTo = nextString();
+                return new TeleportInMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo);
+            }
+            default: { // TELEPORT_FAIL
+                expectFields(5);
+                Vect ballVel = nextVect();
+                String boardFrom = nextString();
+                String portalFrom = nextString();
+                String boardTo = nextString();
+                String portalTo = nextString();
+                return new TeleportFailMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo);
+            }
+        }
+    }
+
+    /**
+     * Find the separator after the header. Like the "^(.*?)#" pattern of the regex
+     * decoder, the header may not contain a line terminator.
+     * @return index of the first separator
+     */
+    private static int findHeader(CharSequence message) throws DecodeException {
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '#') {
+                return i;
+            }
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                break;
+            }
+        }
+        throw new DecodeException("No valid header found.");
+    }
+
+    /**
+     * @return the type whose header is message[0..headerEnd)
+     */
+    private static int lookUpHeader(CharSequence message, int headerEnd) throws DecodeException {
+        if (headerEnd < HEADERS_BY_LENGTH.length) {
+            for (int type : HEADERS_BY_LENGTH[headerEnd]) {
+                String header = HEADERS[type];
+                int i = 0;
+                while (i < headerEnd && header.charAt(i) == message.charAt(i)) {
+                    i++;
+                }
+                if (i == headerEnd) {
+                    return type;
+                }
+            }
+        }
+        throw new DecodeException("Unrecognized header: " + message.subSequence(0, headerEnd));
+    }
+
+    /**
+     * Point the cursor at the body message[bodyStart..) and count its fields.
+     * String.split drops trailing empty fields, except that an empty body is one empty field.
+     */
+    private void startBody(CharSequence message, int bodyStart) {
+        text = message;
+        pos = bodyStart;
+        end = message.length();
+        while (end > bodyStart && message.charAt(end - 1) == '#') {
+            end--;
+        }
+        if (end == bodyStart) {
+            fields = message.length() == bodyStart ? 1 : 0;
+            return;
+        }
+        fields = 1;
+        for (int i = bodyStart; i < end; i++) {
+            if (message.charAt(i) == '#') {
+                fields++;
+            }
+        }
+    }
+
+    /**
+     * @throws DecodeException unless the body has n fields
+     */
+    private void expectFields(int n) throws DecodeException {
+        if (fields != n) {
+            throw new DecodeException("Wrong body length: " + fields);
+        }
+    }
+
+    /**
+     * Move the cursor over the next field, setting fieldStart and fieldEnd.
+     * Requires that the body has another field.
+     */
+    private void nextField() {
+        fieldStart = pos;
+        fieldEnd = pos;
+        while (fieldEnd < end && text.charAt(fieldEnd) != '#') {
+            fieldEnd++;
+        }
+        pos = fieldEnd + 1;
+    }
+
+    /**
+     * @return the field most recently read
+     */
+    private String field() {
+        return text.subSequence(fieldStart, fieldEnd).toString();
+    }
+
+    /**
+     * Read the next field as a String.
+     */
+    private String nextString() {
+        nextField();
+        return field();
+    }
+
+    /**
+     * Read the next field and compare it to s, without making a String of it.
+     */
+    private boolean nextFieldEquals(String s) {
+        nextField();
+        if (fieldEnd - fieldStart != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (text.charAt(fieldStart + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the next field as a BoardSide. See NetworkMessage.deserializeBoardSide.
+     */
+    private BoardSide nextBoardSide() throws DecodeException {
+        nextField();
+        if (fieldEnd - fieldStart == 1) {
+            switch (text.charAt(fieldStart)) {
+                case 'L': return BoardSide.LEFT;
+                case 'R': return BoardSide.RIGHT;
+                case 'T': return BoardSide.TOP;
+                case 'B': return BoardSide.BOTTOM;
+                default: break;
+            }
+        }
+        throw new DecodeException("Could not deserialize BoardSide: " + field());
+    }
+
+    /**
+     * Read the next field as a Vect. See NetworkMessage.deserializeVect: like its
+     * pattern, this finds the first "x y" pair anywhere in the field, where x and y
+     * are an optional '-', digits, '.', and digits.
+     */
+    private Vect nextVect() throws DecodeException {
+        nextField();
+        for (int xStart = fieldStart; xStart < fieldEnd; xStart++) {
+            int xEnd = endOfDecimal(xStart);
+            if (xEnd < 0 || xEnd == fieldEnd || text.charAt(xEnd) != ' ') {
+                continue;
+            }
+            int yEnd = endOfDecimal(xEnd + 1);
+            if (yEnd < 0) {
+                continue;
+            }
+            return new Vect(parseDecimal(xStart, xEnd), parseDecimal(xEnd + 1, yEnd));
+        }
+        throw new DecodeException("Could not decode Vect (malformed Vect): " + field());
+    }
+
+    /**
+     * Match -?[0-9]+\.[0-9]+ at text[start..fieldEnd). Every repetition is greedy and
+     * nothing it is followed by can be a digit, so the match never needs to backtrack.
+     * @return the end of the match, or -1 if there is none
+     */
+    private int endOfDecimal(int start) {
+        int i = start;
+        if (i < fieldEnd && text.charAt(i) == '-') {
+            i++;
+        }
+        int digits = endOfDigits(i);
+        if (digits == i || digits == fieldEnd || text.charAt(digits) != '.') {
+            return -1;
+        }
+        i = digits + 1;
+        digits = endOfDigits(i);
+        return digits == i ? -1 : digits;
+    }
+
+    /**
+     * @return the end of the run of digits starting at text[start]
+     */
+    private int endOfDigits(int start) {
+        int i = start;
+        while (i < fieldEnd && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Parse text[start..end), which matches -?[0-9]+\.[0-9]+, to the same double as
+     * Double.parseDouble, that is, to the double nearest the decimal number.
+     *
+     * If the digits form an exact double, one division by an exact power of ten is
+     * correctly rounded. Otherwise (typically 17 digits, as Double.toString often
+     * prints) the division is an estimate within an ulp or so, and the estimate or its
+     * neighbour is checked exactly with 128-bit integer arithmetic. Numbers with more
+     * than 18 digits or 22 decimal places, and exact ties, fall back to Double.parseDouble.
+     */
+    private double parseDecimal(int start, int end) {
+        boolean negative = text.charAt(start) == '-';
+        long mantissa = 0;
+        int digits = 0; // significant digits in mantissa
+        int fractionDigits = -1; // -1 until the point is passed
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                fractionDigits = 0;
+                continue;
+            }
+            if (digits == MAX_DIGITS) {
+                return Double.parseDouble(text.subSequence(start, end).toString());
+            }
+            mantissa = 10 * mantissa + (c - '0');
+            if (mantissa != 0) {
+                digits++;
+            }
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text.subSequence(start, end).toString());
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        if (mantissa > MAX_EXACT_MANTISSA) {
+            for (int attempt = 0; ; attempt++) {
+                int side = compareToRoundingInterval(mantissa, fractionDigits, value);
+                if (side == 0) {
+                    break;
+                }
+                if (side == UNKNOWN || attempt == 2) {
+                    return Double.parseDouble(text.subSequence(start, end).toString());
+                }
+                value = side > 0 ? Math.nextUp(value) : Math.nextDown(value);
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Compare mantissa / 10^exponent to the interval of numbers that round to c.
+     * @param mantissa requires 0 < mantissa < 10^MAX_DIGITS
+     * @param exponent requires 0 <= exponent < POWERS_OF_TEN.length
+     * @param c a positive double
+     * @return -1 if the number is below the interval, 0 if it is inside it, 1 if it is
+     *         above it, or UNKNOWN if it is on the boundary or c is outside the range
+     *         this check handles
+     */
+    private static int compareToRoundingInterval(long mantissa, int exponent, double c) {
+        // c = significand * 2^binaryExponent; the interval is c +- 2^binaryExponent / 2
+        long bits = Double.doubleToRawLongBits(c);
+        int biasedExponent = (int) (bits >>> 52) & 0x7FF;
+        long significand = (bits & ((1L << 52) - 1)) | (1L << 52);
+        if (biasedExponent == 0 || biasedExponent == 0x7FF || significand == 1L << 52) {
+            // subnormal, infinite, or a power of two with a narrower interval below it
+            return UNKNOWN;
+        }
+        int binaryExponent = biasedExponent - 1075;
+
+        // Multiplying through by 2^shift / 10^exponent, where shift = 1 - binaryExponent - exponent,
+        // the number is mantissa * 2^shift and the interval is (2 * significand +- 1) * 5^exponent.
+        int shift = 1 - binaryExponent - exponent;
+        if (shift < 0 || 64 - Long.numberOfLeadingZeros(mantissa) + shift > 127) {
+            return UNKNOWN;
+        }
+        long numberHigh = shift == 0 ? 0 : shift >= 64 ? mantissa << (shift - 64) : mantissa >>> (64 - shift);
+        long numberLow = shift >= 64 ? 0 : mantissa << shift;
+        long five = FIVES[exponent];
+        long below = 2 * significand - 1;
+        long above = 2 * significand + 1;
+        int low = compare128(numberHigh, numberLow, multiplyHigh(below, five), below * five);
+        int high = compare128(numberHigh, numberLow, multiplyHigh(above, five), above * five);
+        if (low == 0 || high == 0) {
+            return UNKNOWN;
+        }
+        return low < 0 ? -1 : high > 0 ? 1 : 0;
+    }
+
+    /**
+     * @return the sign of (aHigh, aLow) - (bHigh, bLow), as unsigned 128-bit numbers
+     */
+    private static int compare128(long aHigh, long aLow, long bHigh, long bLow) {
+        int high = Long.compareUnsigned(aHigh, bHigh);
+        return high != 0 ? high : Long.compareUnsigned(aLow, bLow);
+    }
+
+    /**
+     * @param a requires a >= 0
+     * @param b requires b >= 0
+     * @return the high 64 bits of the 128-bit product a * b
+     */
+    private static long multiplyHigh(long a, long b) {
+        long aHigh = a >>> 32;
+        long aLow = a & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long carry = ((lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + (lowHigh & 0xFFFFFFFFL)) >>> 32;
+        return aHigh * bHigh + (highLow >>> 32) + (lowHigh >>> 32) + carry;
+    }
+}
@@ -0,0 +1,162 @@
+package server;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import client.Board;
+
+/**
+ * Updates many boards at once on a work-stealing ForkJoinPool. Boards don't touch
+ * each other during an update (balls only move between boards when the messages their
+ * walls and portals send are delivered), so each board's update is a task of its own.
+ * A step splits the list of boards in halves until each task has one board, so idle
+ * workers steal whole halves of the remaining work rather than one board at a time,
+ * and returns only when every board is done: the end of step is the barrier after
+ * which the caller may hand balls from board to board.
+ *
+ * A board whose update throws is left as it is and reported on System.err; the other
+ * boards still update.
+ *
+ * Thread Safety Argument:
+ * - step must only be called by one thread at a time, and nothing else may use the
+ *   boards during a step.
+ * - each board is updated by exactly one worker. ForkJoinPool.invoke orders the
+ *   caller's writes before the tasks and the tasks' writes before it returns.
+ * - a task's failure count is written by the worker that runs it before the task
+ *   completes, and read by the task that joins it.
+ * - steps and failures are volatile and only written by the thread calling step, so
+ *   any thread may read them.
+ *
+ * Rep Invariant:
+ * - steps >= 0, failures >= 0
+ */
+public class BoardScheduler {
+    private final ForkJoinPool pool;
+    private final boolean publishSnapshots;
+    private volatile long steps;
+    private volatile long failures;
+
+    /**
+     * Make a scheduler
+     *
+     * @param parallelism number of worker threads. requires > 0
+     * @param publishSnapshots true to publish each board's snapshot after its update,
+     *                         for renderers on other threads (see Board.getSnapshot)
+     */
+    public BoardScheduler(int parallelism, boolean publishSnapshots) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.publishSnapshots = publishSnapshots;
+        checkRep();
+    }
+
+    /**
+     * Update every board by one timestep, and wait until all are done
+     *
+     * @param boards the boards to update, each at most once
+     * @param timestep the amount of time to update them by, in seconds
+     */
+    public void step(List<Board> boards, double timestep) {
+        if (boards.isEmpty()) {
+            return;
+        }
+        Update update = new Update(boards, 0, boards.size(), timestep);
+        pool.invoke(update);
+        steps++;
+        failures += update.failures;
+        checkRep();
+    }
+
+    /**
+     * Updates boards[lo, hi), splitting the range until it holds one board
+     */
+    private class Update extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Board> boards;
+        private final int lo;
+        private final int hi;
+        private final double timestep;
+        private int failures; // in boards[lo, hi), set before the task completes
+
+        Update(List<Board> boards, int lo, int hi, double timestep) {
+            this.boards = boards;
+            this.lo = lo;
+            this.hi = hi;
+            this.timestep = timestep;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                Board board = boards.get(lo);
+                try {
+                    board.update(timestep);
+                } catch (RuntimeException e) {
+                    // a board that fails to update must not stop the others
+                    System.err.println("Board " + board.getName() + " failed to update: " + e);
+                    failures = 1;
+                }
+                if (publishSnapshots) {
+                    board.publishSnapshot(timestep);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            Update left = new Update(boards, lo, mid, timestep);
+            Update right = new Update(boards, mid, hi, timestep);
+            invokeAll(left, right);
+            failures = left.failures + right.failures;
+        }
+    }
+
+    /**
+     * Stop the worker threads. The scheduler can't step any more boards after this.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @return the number of steps run so far
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of board updates that have thrown so far
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return an estimate of the number of tasks workers have stolen from each other,
+     *         which shows how unevenly the work was split
+     */
+    public long getStealCount() {
+        return pool.getStealCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d workers, %d steps, %d failed updates, %d steals",
+                getParallelism(), steps, failures, getStealCount());
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        assert steps >= 0;
+        assert failures >= 0;
+    }
+}
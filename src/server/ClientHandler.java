@@ -1,124 +1,141 @@
 package server;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import common.netprotocol.*;
-import common.*;
-import common.netprotocol.NetworkMessage.DecodeException;
 
 /**
- * Runnable which handles clients' incoming requests. These include ball out messages
- * and client connect/disconnect.
+ * The server's end of the connection to one client, whatever transport carries it. A
+ * ClientHandler passes the messages the client sends to the server as AuthoredMessages,
+ * and sends the client the messages the server gives it. SocketClientHandler talks to the
+ * client over a blocking socket on a thread of its own; NioClientHandler over a
+ * non-blocking channel driven by an NioSelector.
  *
  * Thread safety argument:
- * * The many ClientHandler threads will all add NetworkMessages to the Server's BlockingQueue (thread safe datatype)
- * * Only client thread will read from the input stream (in run() method)
- * * Only the server thread will write to the output stream (use send() method)
- * * Sockets are safe for concurrent input and output.
- * * kill() can be called by the server thread or the client thread. It is synchronized to prevent both calling kill()
- *   on the same client at once.
+ * * Handlers add NetworkMessages to the Server's BlockingQueue (thread safe datatype)
+ * * Only the server thread calls send() and flush()
+ * * kill() can be called by the server thread or a thread doing the client's I/O.
+ *   dead is atomic, so however many times died() is called, the client is only put in
+ *   the dead clients queue once.
  * * name is volatile because multiple threads may be reading and writing its value
+ * * binary and boardId are only read and written by the server thread
+ *
+ * Messages passed to send are buffered until flush, so that the server can send everything
+ * it has for a client in one pass of its loop together.
  *
  * Rep invariant:
- * * in and out are bound to socket
- * * if this is in deadClientsQueue, socket is closed
+ * * none, beyond those of subclasses
  *
  */
+public abstract class ClientHandler {
 
-public class ClientHandler implements Runnable{
+    /** The board id of a client that hasn't connected a board, or of no board. */
+    public static final int NO_BOARD = -1;
 
-    private final Socket socket;
-    private final BufferedReader in;
-    private final PrintWriter out;
     private final BlockingQueue<AuthoredMessage> messageQueue;
     private final BlockingQueue<ClientHandler> deadClientsQueue;
+    private final AtomicBoolean dead = new AtomicBoolean(false);
     private volatile String name;
-
+    private boolean binary = false;
+    private int boardId = NO_BOARD;
 
     /**
      * Make a new ClientHandler
-     * @param socket the socket through which we communicate with the client
      * @param queue the Server's queue of messages, on which to put incoming messages
      * @param deadClientsQueue where to put the client after it has been killed
-     * @throws IOException if we are unable to open the input or output stream with the client
-     */
-    public ClientHandler(Socket socket,
-            BlockingQueue<AuthoredMessage> queue,
-            BlockingQueue<ClientHandler> deadClientsQueue) throws IOException {
-        this.socket = socket;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.out = new PrintWriter(socket.getOutputStream(), true);
+     */
+    protected ClientHandler(BlockingQueue<AuthoredMessage> queue,
+            BlockingQueue<ClientHandler> deadClientsQueue) {
         this.messageQueue = queue;
         this.deadClientsQueue = deadClientsQueue;
-
-        checkRep();
     }
 
     /**
-     * Handles the incoming client messages.
-     * Listens for input from the client, and sends it to the server.
-     * Ignores bad input messages, but prints an error to System.err if there is an IOException
-     */
-    @Override
-    public void run() {
-        // handle the client
-        try {
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                NetworkMessage message = NetworkMessage.deserialize(line);
-                if (message instanceof ClientConnectMessage) {
-                    this.name = ((ClientConnectMessage) message).getBoardName();
-                }
-                messageQueue.add(new AuthoredMessage(message, this));
-
-            }
-        } catch (IOException e) {
-            if (Constants.DEBUG) {
-                System.err.println(e.getMessage());
-            }
-        } catch (DecodeException e) {
-            // ignore bad input
-            if (Constants.DEBUG) {
-                System.err.println(e.getMessage());
-            }
-        } finally {
-            this.kill();
-        }
+     * Send a message to the client at the next flush. Only call this from the server thread.
+     * @param message the message to send to the client
+     */
+    public abstract void send(NetworkMessage message);
+
+    /**
+     * Send the messages passed to send since the last flush to the client.
+     * Only call this from the server thread.
+     */
+    public abstract void flush();
+
+    /**
+     * @return the number of messages sent to the client so far
+     */
+    public abstract long getMessagesSent();
+
+    /**
+     * @return the number of flushes that sent the client at least one message
+     */
+    public abstract long getFlushes();
+
+    /**
+     * Terminates the connection to the client, and puts the client in the dead clients
+     * queue if it isn't there already.
+     */
+    public abstract void kill();
+
+    /**
+     * Send the client the messages passed to send since the last flush, then terminate the
+     * connection, e.g. to tell a refused client why. Only call this from the server thread.
+     */
+    public void killAfterFlush() {
+        flush();
+        kill();
     }
 
     /**
-     * Send a message to the client. Requires the thread to be running!
-     * @param message the message to send to the client
+     * get the address of the client
+     * @return the IP address of the connected client, or null if the connection has ended.
+     */
+    public abstract String getIP();
+
+    /**
+     * Send all later messages to the client as binary frames. Only call this from
+     * the server thread, after sending the client a ClientConnectMessage that accepts
+     * the binary serialization.
      */
-    public void send(NetworkMessage message) {
-        String strMessage = message.serialize();
-        if (Constants.DEBUG) System.out.println("Sending message: " + strMessage);
-        out.println(strMessage);
+    public void useBinary() {
+        binary = true;
     }
 
     /**
-     * Terminates the connection to the client.
-     * This also causes the run() method to finish, because in.close() will make run() fail.
+     * @return true if useBinary() has been called
      */
-    public synchronized void kill() {
+    protected boolean isBinary() {
+        return binary;
+    }
 
-        if (!socket.isClosed()) {
-            try {
-                out.close();
-                in.close();
-                socket.close();
-            } catch (IOException e) {
-                System.err.println(e.getMessage());
-            }
+    /**
+     * Pass a message from the client on to the server
+     * @param message the message the client sent
+     */
+    protected void received(NetworkMessage message) {
+        if (message instanceof ClientConnectMessage) {
+            this.name = ((ClientConnectMessage) message).getBoardName();
         }
-        deadClientsQueue.add(this);
+        messageQueue.add(new AuthoredMessage(message, this));
+    }
 
-        checkRep();
+    /**
+     * Tell the server that the connection to the client has ended, unless it has been
+     * told already
+     */
+    protected void died() {
+        if (dead.compareAndSet(false, true)) {
+            deadClientsQueue.add(this);
+        }
+    }
 
+    /**
+     * @return true if the server has been told that the connection to the client ended
+     */
+    protected boolean isDead() {
+        return dead.get();
     }
 
     /**
@@ -130,26 +147,20 @@ public class ClientHandler implements Runnable{
     public String getName() {
         return this.name;
     }
-    
+
     /**
-     * get the address of the client
-     * @return the IP address of the connected client, or null if the connection has ended.
+     * @return the id the server gave the client's board when it connected (see
+     *         PingballServer), or NO_BOARD if it hasn't connected one
      */
-    public String getIP() {
-    	return socket.getInetAddress().toString();
+    public int getBoardId() {
+        return boardId;
     }
 
     /**
-     * asserts the Rep Invariant
-     *
-     * Rep invariant:
-     * * in and out are bound to socket (there is no way to check this)
-     * * if this is in deadClientsQueue, socket is closed
-     *
+     * Only call this from the server thread.
+     * @param boardId the id of the client's board, or NO_BOARD
      */
-    private void checkRep() {
-        if (deadClientsQueue.contains(this) && !socket.isClosed()) {
-            throw new RepInvariantException("this is in deadClientsQueue but socket is open");
-        }
+    public void setBoardId(int boardId) {
+        this.boardId = boardId;
     }
-}
\ No newline at end of file
+}
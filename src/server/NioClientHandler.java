@@ -0,0 +1,352 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.Constants;
+import common.netprotocol.NetworkMessage;
+import common.netprotocol.TextDecoder;
+import common.netprotocol.NetworkMessage.DecodeException;
+
+/**
+ * A ClientHandler for a non-blocking SocketChannel. It has no thread of its own: the
+ * NioSelector that owns its channel calls readReady and writeReady when the channel is
+ * ready, and the handler passes complete messages to the server as AuthoredMessages, just
+ * like the blocking SocketClientHandler. Like SocketClientHandler, it accepts both lines of
+ * text and binary frames.
+ *
+ * Outgoing messages are queued by send, and flush hands everything queued since the last
+ * flush to the selector thread at once, which writes as much of it as fits into each write
+ * to the channel. TCP_NODELAY is set on the channel (see NioSocketAcceptor). If the client
+ * doesn't read them fast enough, the handler applies backpressure: once more than
+ * HIGH_WATER bytes are queued it stops reading from the client until the queue is back
+ * under LOW_WATER, and once more than MAX_QUEUED bytes are queued it gives up and kills
+ * the connection, so one stalled client can't make the server run out of memory.
+ * killAfterFlush can't close the channel at once, or the queued messages would be lost:
+ * it marks the handler closing, and the selector thread closes the channel once it has
+ * written the whole queue.
+ *
+ * Thread safety argument:
+ * * readReady, writeReady, the line buffer, the frame state, the decoder and the write
+ *   buffer are confined to the selector thread.
+ * * send and flush are called by the server thread. They only touch outgoing and
+ *   queuedBytes, which are threadsafe, the threadsafe NioSelector.requestUpdate, and the
+ *   counters, which are only written by the server thread and are volatile so that any
+ *   thread may read them. closing is volatile, and only set after the messages it waits
+ *   for have been queued, so the selector thread sees them when it sees closing.
+ * * kill() can be called by the server thread or the selector thread. It is synchronized,
+ *   so the channel is only closed once.
+ * * The SelectionKey is only touched by the selector thread; NioSelector.requestUpdate
+ *   hands interest changes to it.
+ *
+ * Rep invariant:
+ * * 0 <= lineLength <= line.length
+ * * if inFrame, line[0] is a binary tag, and frameLength is 0 until the header has been
+ *   read and then lineLength <= frameLength
+ * * queuedBytes is the number of bytes in outgoing
+ * * if dead, channel is closed
+ */
+public class NioClientHandler extends ClientHandler {
+
+    /** Queued output above which the handler stops reading from the client. */
+    static final int HIGH_WATER = 256 * 1024;
+    /** Queued output below which a paused handler reads from the client again. */
+    static final int LOW_WATER = 64 * 1024;
+    /** Queued output above which the client is disconnected. */
+    static final int MAX_QUEUED = 4 * 1024 * 1024;
+    /** Longest text line accepted from a client; longer ones end the connection. */
+    static final int MAX_LINE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private final SocketChannel channel;
+    private final NioSelector selector;
+    private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    /* true while this handler is waiting in its selector's update queue */
+    final AtomicBoolean updatePending = new AtomicBoolean(false);
+    private SelectionKey key;
+    private ByteBuffer writeBuffer;
+    private final TextDecoder decoder = new TextDecoder();
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private boolean inFrame = false; // line holds part of a binary frame, not a text line
+    private int frameLength = 0;
+    private boolean readPaused = false;
+    private volatile boolean closing = false; // kill once everything queued has been written
+    private int unflushed = 0; // messages queued since the last flush
+    private volatile long messages = 0;
+    private volatile long flushes = 0;
+
+    /**
+     * Make a new NioClientHandler. The handler does nothing until selector registers it.
+     * @param channel the client's channel, in non-blocking mode
+     * @param selector the selector thread that will do this client's I/O
+     * @param queue the Server's queue of messages, on which to put incoming messages
+     * @param deadClientsQueue where to put the client after it has been killed
+     */
+    public NioClientHandler(SocketChannel channel, NioSelector selector,
+            BlockingQueue<AuthoredMessage> queue,
+            BlockingQueue<ClientHandler> deadClientsQueue) {
+        super(queue, deadClientsQueue);
+        this.channel = channel;
+        this.selector = selector;
+    }
+
+    /**
+     * Queue a message to the client. Never blocks; the selector thread writes it after
+     * the next flush.
+     * @param message the message to send to the client
+     */
+    @Override
+    public void send(NetworkMessage message) {
+        if (Constants.DEBUG) System.out.println("Sending message: " + message.serialize());
+        byte[] bytes = isBinary() ? message.serializeBinary()
+                : (message.serialize() + "\n").getBytes(StandardCharsets.UTF_8);
+        outgoing.add(ByteBuffer.wrap(bytes));
+        if (queuedBytes.addAndGet(bytes.length) > MAX_QUEUED) {
+            if (Constants.DEBUG) System.err.println("Client " + getName() + " is not reading; disconnecting");
+            kill();
+            return;
+        }
+        unflushed++;
+    }
+
+    /**
+     * Have the selector thread write the messages queued since the last flush.
+     */
+    @Override
+    public void flush() {
+        if (unflushed == 0) {
+            return;
+        }
+        messages += unflushed;
+        flushes++;
+        unflushed = 0;
+        selector.requestUpdate(this);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messages;
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Have the selector thread write the messages queued so far, then terminate the
+     * connection. Nothing more is read from the client meanwhile.
+     */
+    @Override
+    public void killAfterFlush() {
+        flush();
+        closing = true;
+        selector.requestUpdate(this);
+    }
+
+    /**
+     * Terminates the connection to the client at once, throwing away any queued messages.
+     */
+    @Override
+    public synchronized void kill() {
+        if (isDead()) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        died();
+    }
+
+    /**
+     * get the address of the client
+     * @return the IP address of the connected client, or null if the connection has ended.
+     */
+    @Override
+    public String getIP() {
+        return channel.socket().getInetAddress().toString();
+    }
+
+    /**
+     * Called by the selector thread to start reading from the client.
+     * @param selector the selector to register the channel with
+     * @throws ClosedChannelException if the client has already been killed
+     */
+    void register(Selector selector) throws ClosedChannelException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        updateInterest();
+    }
+
+    /**
+     * Called by the selector thread to bring the key's interest set up to date with the
+     * write queue and backpressure state, or to kill a closing handler whose queue has
+     * been written.
+     */
+    void updateInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int queued = queuedBytes.get();
+        if (!readPaused && queued > HIGH_WATER) {
+            readPaused = true;
+        } else if (readPaused && queued < LOW_WATER) {
+            readPaused = false;
+        }
+        boolean writing = queued > 0 || (writeBuffer != null && writeBuffer.position() > 0);
+        if (closing && !writing) {
+            kill();
+            return;
+        }
+        key.interestOps((readPaused || closing ? 0 : SelectionKey.OP_READ)
+                | (writing ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Called by the selector thread when the channel has bytes to read. Every complete line
+     * or binary frame is decoded and passed to the server.
+     * @param readBuffer the selector's direct buffer, cleared, to read into
+     */
+    void readReady(ByteBuffer readBuffer) {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                kill();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (inFrame) {
+                    append(b, frameLength == 0 ? NetworkMessage.BINARY_HEADER_LENGTH : frameLength);
+                    if (lineLength == NetworkMessage.BINARY_HEADER_LENGTH && frameLength == 0) {
+                        frameLength = NetworkMessage.BINARY_HEADER_LENGTH
+                                + (((line[1] & 0xFF) << 8) | (line[2] & 0xFF));
+                    }
+                    if (lineLength == frameLength) {
+                        frameReceived();
+                    }
+                } else if (lineLength == 0 && NetworkMessage.isBinaryTag(b & 0xFF)) {
+                    inFrame = true;
+                    append(b, NetworkMessage.BINARY_HEADER_LENGTH);
+                } else if (b == '\n') {
+                    lineReceived();
+                } else {
+                    if (lineLength == MAX_LINE) {
+                        throw new IOException("line longer than " + MAX_LINE + " bytes");
+                    }
+                    append(b, MAX_LINE);
+                }
+            }
+        } catch (IOException e) {
+            if (Constants.DEBUG) {
+                System.err.println(e.getMessage());
+            }
+            kill();
+        } catch (DecodeException e) {
+            // SocketClientHandler hangs up on bad input, too
+            if (Constants.DEBUG) {
+                System.err.println(e.getMessage());
+            }
+            kill();
+        }
+    }
+
+    /**
+     * Called by the selector thread when the channel can take more bytes. Writes as much of
+     * the queue as the channel accepts.
+     */
+    void writeReady() {
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        }
+        try {
+            while (true) {
+                // top up the direct buffer from the queue; messages may span refills
+                ByteBuffer next = outgoing.peek();
+                while (next != null && writeBuffer.hasRemaining()) {
+                    int n = Math.min(next.remaining(), writeBuffer.remaining());
+                    int limit = next.limit();
+                    next.limit(next.position() + n);
+                    writeBuffer.put(next);
+                    next.limit(limit);
+                    if (!next.hasRemaining()) {
+                        outgoing.poll();
+                        queuedBytes.addAndGet(-next.capacity());
+                        next = outgoing.peek();
+                    }
+                }
+                writeBuffer.flip();
+                if (!writeBuffer.hasRemaining()) {
+                    writeBuffer.clear();
+                    break;
+                }
+                channel.write(writeBuffer);
+                boolean blocked = writeBuffer.hasRemaining();
+                writeBuffer.compact();
+                if (blocked) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (Constants.DEBUG) {
+                System.err.println(e.getMessage());
+            }
+            kill();
+            return;
+        }
+        updateInterest();
+    }
+
+    /**
+     * Add a byte to line, growing it if needed.
+     * @param b the byte
+     * @param limit the most bytes line will need to hold. requires lineLength < limit
+     */
+    private void append(byte b, int limit) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, Math.min(2 * line.length, Math.max(limit, line.length + 1)));
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Decode the binary frame in line[0..lineLength) and pass it on to the server.
+     * @throws DecodeException if the frame is not a valid NetworkMessage
+     */
+    private void frameReceived() throws DecodeException {
+        int length = lineLength;
+        inFrame = false;
+        frameLength = 0;
+        lineLength = 0;
+        received(NetworkMessage.deserializeBinary(line, length));
+    }
+
+    /**
+     * Decode the line in line[0..lineLength) and pass it on to the server.
+     * @throws DecodeException if the line is not a valid NetworkMessage
+     */
+    private void lineReceived() throws DecodeException {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--; // BufferedReader.readLine accepts \r\n too
+        }
+        String text = new String(line, 0, length, StandardCharsets.UTF_8);
+        lineLength = 0;
+        received(decoder.decode(text));
+    }
+}
@@ -0,0 +1,119 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import common.Constants;
+
+/**
+ * Runnable that does the socket I/O for many NioClientHandlers on one thread, using a
+ * Selector to wait until any of their channels is ready.
+ *
+ * Thread Safety Argument:
+ * * selector, readBuffer and the SelectionKeys are confined to the NioSelector thread.
+ * * Other threads hand work to the NioSelector thread through the threadsafe queues
+ *   newClients and updates, then wake the selector up.
+ * * A handler is in updates at most once at a time, guarded by its atomic updatePending flag.
+ *
+ * Rep Invariant:
+ * * none.
+ *
+ */
+public class NioSelector implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Queue<NioClientHandler> newClients = new ConcurrentLinkedQueue<NioClientHandler>();
+    private final Queue<NioClientHandler> updates = new ConcurrentLinkedQueue<NioClientHandler>();
+    private final BlockingQueue<AuthoredMessage> messageQueue;
+    private final BlockingQueue<ClientHandler> deadClientsQueue;
+
+    /**
+     * Create a new NioSelector
+     *
+     * @param queue the queue that clients should pass AuthoredMessages to
+     * @param deadClientsQueue the queue where clients should go when they die
+     * @throws IOException if the Selector can not be opened
+     */
+    public NioSelector(BlockingQueue<AuthoredMessage> queue, BlockingQueue<ClientHandler> deadClientsQueue) throws IOException {
+        this.selector = Selector.open();
+        this.messageQueue = queue;
+        this.deadClientsQueue = deadClientsQueue;
+    }
+
+    /**
+     * Take over a newly accepted client connection. Can be called from any thread.
+     *
+     * @param channel the connection to the client
+     * @throws IOException if the channel can not be made non-blocking
+     */
+    public void accept(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        newClients.add(new NioClientHandler(channel, this, messageQueue, deadClientsQueue));
+        selector.wakeup();
+    }
+
+    /**
+     * Ask the selector thread to bring a handler's interest set up to date, e.g. because it
+     * has new output queued. Can be called from any thread.
+     *
+     * @param handler a handler owned by this NioSelector
+     */
+    void requestUpdate(NioClientHandler handler) {
+        if (handler.updatePending.compareAndSet(false, true)) {
+            updates.add(handler);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Waits for client channels to be ready, and reads from or writes to them
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                if (Constants.DEBUG) System.err.println(e.getMessage());
+                continue;
+            }
+
+            for (NioClientHandler handler = newClients.poll(); handler != null; handler = newClients.poll()) {
+                try {
+                    handler.register(selector);
+                } catch (ClosedChannelException e) {
+                    handler.kill();
+                }
+            }
+            for (NioClientHandler handler = updates.poll(); handler != null; handler = updates.poll()) {
+                handler.updatePending.set(false);
+                handler.updateInterest();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioClientHandler handler = (NioClientHandler) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    readBuffer.clear();
+                    handler.readReady(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    handler.writeReady();
+                }
+            }
+        }
+    }
+}
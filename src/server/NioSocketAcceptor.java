@@ -0,0 +1,91 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+
+import common.Constants;
+
+/**
+ * Runnable that accepts socket connections and hands them to a fixed set of NioSelector
+ * threads, round-robin. Unlike SocketAcceptor, it doesn't start a thread per client, so the
+ * number of server threads doesn't grow with the number of clients. Every accepted channel
+ * gets TCP_NODELAY, since NioClientHandler already groups messages into flushes.
+ *
+ * Thread Safety Argument:
+ * * serverChannel and next are confined to the NioSocketAcceptor thread.
+ * * There will only ever be one NioSocketAcceptor thread.
+ * * Channels given to NioSelectors are no longer touched by the NioSocketAcceptor thread.
+ *
+ * Rep Invariant:
+ * * selectors is not empty, and 0 <= next < selectors.length
+ *
+ */
+public class NioSocketAcceptor implements Runnable {
+
+    private final ServerSocketChannel serverChannel;
+    private final NioSelector[] selectors;
+    private int next = 0;
+
+    /**
+     * Create a new NioSocketAcceptor on the specified port
+     *
+     * @param port the port on which to start a server socket. requires 0 <= port <= 65535
+     * @param queue the queue that clients should pass AuthoredMessages to
+     * @param deadClientsQueue the queue where clients should go when they die
+     * @param ioThreads the number of NioSelector threads to spread clients over. requires ioThreads > 0
+     * @throws IOException if the ServerSocketChannel or a Selector can not be opened
+     */
+    public NioSocketAcceptor(int port, BlockingQueue<AuthoredMessage> queue,
+            BlockingQueue<ClientHandler> deadClientsQueue, int ioThreads) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.selectors = new NioSelector[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            selectors[i] = new NioSelector(queue, deadClientsQueue);
+        }
+
+        checkRep();
+    }
+
+    /**
+     * Starts the NioSelector threads, then waits for connections and hands them out
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < selectors.length; i++) {
+            Thread thread = new Thread(selectors[i], "NioSelector-" + i);
+            thread.start();
+        }
+        while (true) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                selectors[next].accept(channel);
+                next = (next + 1) % selectors.length;
+            } catch (IOException e) {
+                if (Constants.DEBUG) System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the IP of the Socket on *this* end
+     * i.e., the server IP address
+     * @return the address by which clients can connect to the server
+     */
+    public String getIP() {
+        return serverChannel.socket().getInetAddress().toString();
+    }
+
+    /**
+     * Rep invariant:
+     * * selectors is not empty, and 0 <= next < selectors.length
+     */
+    private void checkRep() {
+        assert selectors.length > 0;
+        assert next >= 0 && next < selectors.length;
+    }
+}
@@ -1,8 +1,11 @@
 package server;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -12,7 +15,7 @@ import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,7 +23,11 @@ import javax.swing.SwingUtilities;
 
 import physics.Vect;
 
+import client.Board;
+import client.Parser;
+
 import common.Constants;
+import common.PingballThreadFactory;
 import common.RepInvariantException;
 import common.netprotocol.*;
 
@@ -30,35 +37,53 @@ import common.netprotocol.*;
  *  * creates instances of ClientHandler for each connected client
  *  * Handles interactions between ClientHandler threads including passing balls
  *  * Listens for System.in commands, parses, and handles commands, including fusing and separating boards.
+ *  * Optionally runs boards itself, in a SimulationHost, which clients don't take part in.
  *
  *  Concurrency Exposition for the server package:
  *  * Many different threads are used on the Pingball Server. They are:
  *      * The main thread, which gets data from other threads via queues
  *      * The CommandLineInterface thread, which sends commands from System.in to the main thread via a queue
- *      * The SocketAcceptor thread, which creates ClientHandler threads when clients connect
- *      * The ClientHandler threads, which send AuthoredMessages to the main thread via a queue
+ *      * The SocketAcceptor thread, which creates SocketClientHandler threads when clients connect
+ *      * The SocketClientHandler threads, which send AuthoredMessages to the main thread via a queue
+ *  * With --virtual-threads, the CommandLineInterface, SocketAcceptor and SocketClientHandler threads
+ *    are virtual threads, if the JVM supports them
+ *  * With --nio, the last two are replaced by:
+ *      * The NioSocketAcceptor thread, which hands new connections to the NioSelector threads
+ *      * A few NioSelector threads, which do the I/O for many NioClientHandlers each and send
+ *        AuthoredMessages to the main thread via the same queue
+ *  * With --boards, there are also:
+ *      * The SimulationHost thread, which steps the hosted boards in real time
+ *      * The BoardScheduler's ForkJoin worker threads, which update the hosted boards in parallel
+ *    The main thread only talks to the SimulationHost through its threadsafe methods.
  *
  *  Thread Safety Argument for PingballServer:
- *  * PingballServer calls ClientHandler.send(), but it is the only thread that does so (ClientHandler does not call its own send method)
+ *  * PingballServer calls ClientHandler.send() and flush(), but it is the only thread that does so (ClientHandler does not call its own send method)
  *  * PingballServer calls ClientHandler.getName(), but it is the only thread that does so
+ *  * PingballServer calls ClientHandler.getBoardId() and setBoardId(), but it is the only thread that does so
  *  * PingballServer accepts data from other threads via threadsafe queues:
  *      * cliQueue
  *      * messageQueue
  *      * deadClientsQueue
+ *  * Each of those queues releases a permit on the threadsafe wakeup Semaphore when data is added,
+ *    and the main thread sleeps on wakeup whenever all of them are empty
  *  * The following fields are confined:
  *      * clients
- *      * horizontalBoardJoins
- *      * verticalBoardJoins
+ *      * unflushed
+ *      * boardIds, freeIds, nextId, boardNames, handlers and neighbors
  *  * The rest of the fields are immutable.
  *  * The main server thread is the only one to call any PingballServer methods
  *
  *  Rep Invariants:
  *  * MIN_PORT <= port <= MAX_PORT
  *  * for every name -> ClientHandler in clients, client.getName() must be name
- *  * Every list in horizontalBoardJoins and verticalBoardJoins is length 2.
- *  * Every String in the lists of horizontalBoardJoins/verticalBoardJoins is a key in clients.
- *  * No one String is the first of more than one pair in a list, or the second of more than one pair in a list
- *      (e.g. "board1" cannot be the left side of a horizontal join to two different boards)
+ *  * Every client and hosted board has an id: boardIds, boardNames and handlers agree with
+ *    each other, with clients and with ClientHandler.getBoardId, and ids not in use are in
+ *    freeIds and have no name, client or neighbors
+ *  * If neighbors says b is fused to side of a, then a is fused to the opposite side of b,
+ *    and a and b are either both clients or both hosted
+ *    (so no board is fused to two boards on one side)
+ *  * The rep invariant is checked in full only with Constants.CHECK_REP, since it takes time
+ *    in proportion to the number of clients
  *
  */
 public class PingballServer {
@@ -66,15 +91,34 @@ public class PingballServer {
     private static final int DEFAULT_PORT = 10987;
     private static final int MIN_PORT = 0;
     private static final int MAX_PORT = 65535;
+    private static final int SIDES = Constants.BoardSide.values().length;
+    private static final int INITIAL_IDS = 16;
     private final int port;
     private final BlockingQueue<String> cliQueue;
     private final BlockingQueue<AuthoredMessage> messageQueue;
     /* deadClientsQueue is for ClientHandlers who have been killed and need to be removed from the Server's knowledge. */
     private final BlockingQueue<ClientHandler> deadClientsQueue;
+    /* wakeup has a permit for every item added to cliQueue, messageQueue or deadClientsQueue. */
+    private final Semaphore wakeup;
     private final Map<String, ClientHandler> clients;
-    private final List<List<String>> horizontalBoardJoins; // pairs of boards joined as left, right
-    private final List<List<String>> verticalBoardJoins; // pairs of boards joined as top, bottom
+    private final Set<ClientHandler> unflushed; // clients sent messages since the end of the last pass of the loop
+    /*
+     * Every client and hosted board has a small integer id, given when it connects (or when the
+     * server starts) and freed when it disconnects, so that routing a ball is a few array
+     * lookups instead of hashing and comparing board names. The arrays are indexed by id and
+     * grow as needed; ids are reused, lowest freed last, so they stay dense.
+     */
+    private final Map<String, Integer> boardIds; // board name -> id
+    private final Deque<Integer> freeIds; // ids below nextId that aren't in use
+    private int nextId;
+    private String[] boardNames; // id -> board name, null if the id isn't in use
+    private ClientHandler[] handlers; // id -> client, null for hosted boards and ids not in use
+    private int[] neighbors; // id * SIDES + BoardSide ordinal -> id of the board fused to that side, or NO_BOARD
+    private final int nioThreads; // 0 to use a thread per client
+    private final PingballThreadFactory threads;
+    private final SimulationHost host; // null if no boards are hosted
     private SocketAcceptor socketAcceptor;
+    private NioSocketAcceptor nioAcceptor;
     private ServerGUI gui;
 
     /**
@@ -84,13 +128,60 @@ public class PingballServer {
      * @throws IOException if the socket can not be created
      */
     public PingballServer(int port) throws IOException {
+        this(port, 0, false);
+    }
+
+    /**
+     * Instantiate a PingballServer
+     *
+     * @param port the port on which to create the socket
+     * @param nioThreads if positive, serve clients with this many NioSelector threads instead
+     *                   of a thread per client
+     * @param virtualThreads true to run the blocking server threads on virtual threads, if the
+     *                   JVM supports them
+     * @throws IOException if the socket can not be created
+     */
+    public PingballServer(int port, int nioThreads, boolean virtualThreads) throws IOException {
+        this(port, nioThreads, virtualThreads, null);
+    }
+
+    /**
+     * Instantiate a PingballServer
+     *
+     * @param port the port on which to create the socket
+     * @param nioThreads if positive, serve clients with this many NioSelector threads instead
+     *                   of a thread per client
+     * @param virtualThreads true to run the blocking server threads on virtual threads, if the
+     *                   JVM supports them
+     * @param host boards to run in the server, or null for none. serve() starts it.
+     * @throws IOException if the socket can not be created
+     */
+    public PingballServer(int port, int nioThreads, boolean virtualThreads, SimulationHost host) throws IOException {
         this.port = port;
-        this.cliQueue = new LinkedBlockingQueue<String>();
-        this.messageQueue = new LinkedBlockingQueue<AuthoredMessage>();
-        this.deadClientsQueue = new LinkedBlockingQueue<ClientHandler>();
+        this.host = host;
+        this.nioThreads = nioThreads;
+        this.threads = new PingballThreadFactory(virtualThreads);
+        if (virtualThreads && !threads.isVirtual()) {
+            System.err.println("Virtual threads are not supported by this JVM; using platform threads");
+        }
+        this.wakeup = new Semaphore(0);
+        this.cliQueue = new WakeupQueue<String>(wakeup);
+        this.messageQueue = new WakeupQueue<AuthoredMessage>(wakeup);
+        this.deadClientsQueue = new WakeupQueue<ClientHandler>(wakeup);
         this.clients = new HashMap<String, ClientHandler>();
-        this.horizontalBoardJoins = new ArrayList<List<String>>();
-        this.verticalBoardJoins = new ArrayList<List<String>>();
+        this.unflushed = new HashSet<ClientHandler>();
+        this.boardIds = new HashMap<String, Integer>();
+        this.freeIds = new ArrayDeque<Integer>();
+        this.nextId = 0;
+        this.boardNames = new String[INITIAL_IDS];
+        this.handlers = new ClientHandler[INITIAL_IDS];
+        this.neighbors = new int[INITIAL_IDS * SIDES];
+        Arrays.fill(neighbors, ClientHandler.NO_BOARD);
+        if (host != null) {
+            for (String name : host.getBoardNames()) {
+                assignId(name, null);
+            }
+        }
         this.gui = null;
         
         final PingballServer server = this;
@@ -108,18 +199,42 @@ public class PingballServer {
      * Run the server, starting the SocketAcceptor thread and the CommandLineInterface thread,
      * and processes all data input from queues
      *
+     * The main thread sleeps until one of the queues has data, then empties them in priority
+     * order: dead clients first, then commands, then messages. The messages this sends to
+     * clients are flushed together at the end of each pass, so a burst of ball and portal
+     * traffic goes out in a few large writes instead of one small one per message.
+     *
      * @throws IOException if the main server socket is broken
      */
     public void serve() throws IOException {
 
-    	this.socketAcceptor = new SocketAcceptor(port, messageQueue, deadClientsQueue);
-        Thread socketThread = new Thread(socketAcceptor);
+        Thread socketThread;
+        if (nioThreads > 0) {
+            this.nioAcceptor = new NioSocketAcceptor(port, messageQueue, deadClientsQueue, nioThreads);
+            socketThread = threads.newThread(nioAcceptor);
+        } else {
+            this.socketAcceptor = new SocketAcceptor(port, messageQueue, deadClientsQueue, threads);
+            socketThread = threads.newThread(socketAcceptor);
+        }
         socketThread.start();
 
-        Thread cliThread = new Thread(new CommandLineInterface(cliQueue));
+        Thread cliThread = threads.newThread(new CommandLineInterface(cliQueue));
         cliThread.start();
 
+        if (host != null) {
+            // a platform thread, to keep to the timestep
+            new Thread(host).start();
+        }
+
         while (true) {
+            try {
+                wakeup.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // everything added so far is handled below
+            wakeup.drainPermits();
 
             while (!deadClientsQueue.isEmpty()) {
                 if (Constants.DEBUG) System.out.println("Burying dead client.");
@@ -138,6 +253,11 @@ public class PingballServer {
                 handleMessage(receivedMessage);
             }
 
+            for (ClientHandler ch : unflushed) {
+                ch.flush();
+            }
+            unflushed.clear();
+
             checkRep();
         }
     }
@@ -149,47 +269,34 @@ public class PingballServer {
      * @param ch the dead client
      */
     private void buryDeadClient(ClientHandler ch) {
-        // unpair board from any potential pairs
-        List<List<String>> pairsToRemove = new ArrayList<List<String>>();
-        for (List<String> pair : horizontalBoardJoins) {
-            if (pair.get(0).equals(ch.getName())) {
-                clients.get(pair.get(1)).send(new BoardUnfuseMessage(Constants.BoardSide.LEFT));
-                pairsToRemove.add(pair);
-            }
-            if (pair.get(1).equals(ch.getName())) {
-                clients.get(pair.get(0)).send(new BoardUnfuseMessage(Constants.BoardSide.RIGHT));
-                pairsToRemove.add(pair);
-            }
-        }
-        for (final List<String> pairToRemove : pairsToRemove) {
-            horizontalBoardJoins.remove(pairToRemove);
-            SwingUtilities.invokeLater(new Runnable() {
-            	public void run() {
-            		gui.removeConnection("h", pairToRemove.get(0), pairToRemove.get(1));
-            	}
-            });
+        final String clientName = ch.getName();
+        if (clientName == null || clients.get(clientName) != ch) {
+            // it never connected, or was refused because its name was taken
+            return;
         }
-        pairsToRemove = new ArrayList<List<String>>();
-        for (List<String> pair : verticalBoardJoins) {
-            if (pair.get(0).equals(ch.getName())) {
-                clients.get(pair.get(1)).send(new BoardUnfuseMessage(Constants.BoardSide.TOP));
-                pairsToRemove.add(pair);
+        // unfuse the boards fused to it
+        int id = ch.getBoardId();
+        for (Constants.BoardSide side : Constants.BoardSide.values()) {
+            int other = unjoin(id, side);
+            if (other == ClientHandler.NO_BOARD) {
+                continue;
             }
-            if (pair.get(1).equals(ch.getName())) {
-                clients.get(pair.get(0)).send(new BoardUnfuseMessage(Constants.BoardSide.BOTTOM));
-                pairsToRemove.add(pair);
+            if (other != id) {
+                send(handlers[other], new BoardUnfuseMessage(side.opposite()));
+            }
+            String otherName = boardNames[other];
+            if (side == Constants.BoardSide.LEFT || side == Constants.BoardSide.RIGHT) {
+                removeConnectionFromGUI("h", side == Constants.BoardSide.RIGHT ? clientName : otherName,
+                        side == Constants.BoardSide.RIGHT ? otherName : clientName);
+            } else {
+                removeConnectionFromGUI("v", side == Constants.BoardSide.BOTTOM ? clientName : otherName,
+                        side == Constants.BoardSide.BOTTOM ? otherName : clientName);
             }
         }
-        for (final List<String> pairToRemove : pairsToRemove) {
-            verticalBoardJoins.remove(pairToRemove);
-            SwingUtilities.invokeLater(new Runnable() {
-            	public void run() {
-            		gui.removeConnection("v", pairToRemove.get(0), pairToRemove.get(1));
-            	}
-            });
-        }
+        releaseId(id);
+        ch.setBoardId(ClientHandler.NO_BOARD);
+
         // remove from clients
-        final String clientName = ch.getName();
         clients.remove(clientName);
         
         // remove from gui
@@ -209,13 +316,28 @@ public class PingballServer {
      * 
      * @param args must be in the format specified:
      *
-     * Usage: PingballServer [--port PORT]
+     * Usage: PingballServer [--port PORT] [--nio [THREADS]] [--virtual-threads]
+     *                       [--boards FILE...] [--workers WORKERS]
      *
      * PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the
      * server should be listening on for incoming connections. E.g. "PingballServer --port 1234"
      * starts the server listening on port 1234.
      *
      * If no port is specified, the default port 10987 will be used.
+     *
+     * --nio serves all clients from THREADS non-blocking I/O threads (default 1) instead of
+     * starting a thread for each client.
+     *
+     * --virtual-threads runs the thread for each client, and the other blocking server threads,
+     * as virtual threads. This needs Java 21 or later; older JVMs use platform threads.
+     *
+     * --boards runs the boards in the given .pb files in the server, instead of on clients.
+     * Hosted boards are joined with the same commands as client boards, but only to each
+     * other, and balls move between them without going over the network.
+     *
+     * WORKERS is the number of threads that update the hosted boards in parallel; by
+     * default, one per processor.
+     *
      * Prints to System.err if bad arguments are given
      *
      */
@@ -224,6 +346,10 @@ public class PingballServer {
         // parse command line arguments
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
         int port = DEFAULT_PORT;
+        int nioThreads = 0;
+        boolean virtualThreads = false;
+        List<String> boardFiles = new ArrayList<String>();
+        int workers = Runtime.getRuntime().availableProcessors();
         try {
             while ( ! arguments.isEmpty()) {
                 String flag = arguments.remove();
@@ -233,6 +359,28 @@ public class PingballServer {
                         if (port < MIN_PORT || port > MAX_PORT) {
                             throw new IllegalArgumentException("port " + port + " out of range");
                         }
+                    } else if (flag.equals("--virtual-threads")) {
+                        virtualThreads = true;
+                    } else if (flag.equals("--boards")) {
+                        while (!arguments.isEmpty() && !arguments.peek().startsWith("--")) {
+                            boardFiles.add(arguments.remove());
+                        }
+                        if (boardFiles.isEmpty()) {
+                            throw new NoSuchElementException();
+                        }
+                    } else if (flag.equals("--workers")) {
+                        workers = Integer.parseInt(arguments.remove());
+                        if (workers < 1) {
+                            throw new IllegalArgumentException("--workers needs at least one thread");
+                        }
+                    } else if (flag.equals("--nio")) {
+                        nioThreads = 1;
+                        if (!arguments.isEmpty() && arguments.peek().matches("[0-9]+")) {
+                            nioThreads = Integer.parseInt(arguments.remove());
+                            if (nioThreads < 1) {
+                                throw new IllegalArgumentException("--nio needs at least one thread");
+                            }
+                        }
                     } else {
                         throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
                     }
@@ -244,14 +392,27 @@ public class PingballServer {
             }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: PingballServer [--port PORT]");
+            System.err.println("usage: PingballServer [--port PORT] [--nio [THREADS]] [--virtual-threads] [--boards FILE...] [--workers WORKERS]");
             return;
         }
 
+        SimulationHost host = null;
+        if (!boardFiles.isEmpty()) {
+            List<Board> boards = new ArrayList<Board>();
+            try {
+                for (String file : boardFiles) {
+                    boards.add(Parser.makeBoard(new File(file)));
+                }
+                host = new SimulationHost(boards, workers);
+            } catch (RuntimeException e) {
+                System.err.println("Could not host the boards: " + e.getMessage());
+                return;
+            }
+        }
 
         // start server
         try {
-            PingballServer server = new PingballServer(port);
+            PingballServer server = new PingballServer(port, nioThreads, virtualThreads, host);
             server.serve();
         } catch (IOException e) {
             System.err.println(e.getMessage());
@@ -259,6 +420,17 @@ public class PingballServer {
 
     }
 
+    /**
+     * Send a message to a client when the current pass of the main loop ends
+     *
+     * @param ch the client
+     * @param message the message to send it
+     */
+    private void send(ClientHandler ch, NetworkMessage message) {
+        ch.send(message);
+        unflushed.add(ch);
+    }
+
     /**
      * handle a command from the CommandLineInterface. Will fuse two
      * boards in the dimension specified in the command, and notify
@@ -268,71 +440,67 @@ public class PingballServer {
      * Acceptable commands:
      *  * "h BOARDNAME1 BOARDNAME2" joins BOARDNAME1 to the left of BOARDNAME2
      *  * "v BOARDNAME1 BOARDNAME2" joins BOARDNAME1 on top of BOARDNAME2
+     *  * "stats" prints how many messages each client has been sent, and in how many flushes
      *
      * Any command in a format other than given above will print to System.err
      * Any board names specified that are not currently connected clients will print to System.err
      */
     private void handleCommand(String command) {
+        if (command.trim().equals("stats")) {
+            printStats();
+            return;
+        }
         Pattern headerPattern = Pattern.compile("^\\s*([hv])\\s*([a-zA-Z0-9_]+)\\s*([a-zA-Z0-9_]+)\\s*$");
         Matcher headerMatcher = headerPattern.matcher(command);
         if (! headerMatcher.find()) {
             System.err.println("Bad command: " + command);
-            System.err.println("Expected format: h|v BOARDNAME1 BOARDNAME2");
+            System.err.println("Expected format: h|v BOARDNAME1 BOARDNAME2, or stats");
             return;
         }
         final String position = headerMatcher.group(1);
         final String b1 = headerMatcher.group(2);
         final String b2 = headerMatcher.group(3);
-        if (!clients.containsKey(b1) || !clients.containsKey(b2)) {
+        final boolean hosted = host != null && host.hasBoard(b1) && host.hasBoard(b2);
+        if (!hosted && (!clients.containsKey(b1) || !clients.containsKey(b2))) {
             System.err.println("One or more of those clients were not found. Current connected clients: ");
             for (String clientName : clients.keySet()) {
                 System.err.println("\t" + clientName);
             }
+            if (host != null) {
+                System.err.println("Hosted boards, which can only be joined to each other: ");
+                for (String boardName : host.getBoardNames()) {
+                    System.err.println("\t" + boardName);
+                }
+            }
             return;
         }
-        List<List<String>> boardJoins;
-        Constants.BoardSide b1Pos;
-        Constants.BoardSide b2Pos;
-        if (position.equals("h")) {
-            boardJoins = horizontalBoardJoins;
-            b1Pos = Constants.BoardSide.LEFT;
-            b2Pos = Constants.BoardSide.RIGHT;
-        } else { //position.equals("v")
-            boardJoins = verticalBoardJoins;
-            b1Pos = Constants.BoardSide.TOP;
-            b2Pos = Constants.BoardSide.BOTTOM;
-        }
-        boolean overwrote = false; // is true if we find an existing board connection and we overwrite it with this new one
-        for (List<String> pair : boardJoins) {
-            final String p1 = pair.get(0);
-            final String p2 = pair.get(1);
-            if (p1.equals(b1)) { // overwrite existing board connection
-            	SwingUtilities.invokeLater(new Runnable() {
-            		public void run() {
-            			gui.removeConnection(position, p1, p2);
-            		}
-            	});
-                pair.set(1, b2);
-                overwrote = true;
-                break;
-            }
-            if (p2.equals(b2)) {
-            	SwingUtilities.invokeLater(new Runnable() {
-            		public void run() {
-            			gui.removeConnection(position, p1, p2);
-            		}
-            	});
-                pair.set(0, b1);
-                overwrote = true;
-                break;
+        int id1 = boardIds.get(b1);
+        int id2 = boardIds.get(b2);
+        // b2 is fused to this side of b1
+        Constants.BoardSide side = position.equals("h") ? Constants.BoardSide.RIGHT : Constants.BoardSide.BOTTOM;
+        // a board can only be fused to one board on each side, so unfuse the old ones
+        int oldAfterB1 = unjoin(id1, side);
+        int oldBeforeB2 = unjoin(id2, side.opposite());
+        if (oldAfterB1 != ClientHandler.NO_BOARD) {
+            if (!hosted && oldAfterB1 != id2) {
+                send(handlers[oldAfterB1], new BoardUnfuseMessage(side.opposite()));
             }
+            removeConnectionFromGUI(position, b1, boardNames[oldAfterB1]);
         }
-        if (!overwrote) { // new connection, not replacing an old one
-            boardJoins.add(Arrays.asList(b1, b2));
+        if (oldBeforeB2 != ClientHandler.NO_BOARD && oldBeforeB2 != id1) {
+            if (!hosted) {
+                send(handlers[oldBeforeB2], new BoardUnfuseMessage(side));
+            }
+            removeConnectionFromGUI(position, boardNames[oldBeforeB2], b2);
         }
+        join(id1, side, id2);
         // tell the boards they joined
-        clients.get(b1).send(new BoardFuseMessage(b2, b2Pos)); // if b1 is the LEFT board, then the fuse happens on its RIGHT side.
-        clients.get(b2).send(new BoardFuseMessage(b1, b1Pos));
+        if (hosted) {
+            host.fuse(b1, b2, position.equals("h"));
+        } else {
+            send(handlers[id1], new BoardFuseMessage(b2, side));
+            send(handlers[id2], new BoardFuseMessage(b1, side.opposite()));
+        }
 
     	SwingUtilities.invokeLater(new Runnable() {
     		public void run() {
@@ -341,6 +509,102 @@ public class PingballServer {
     	});
     }
 
+    /**
+     * @param board a board id in use
+     * @param side a side of the board
+     * @return the id of the board fused to that side of board, or NO_BOARD if none is
+     */
+    private int neighbor(int board, Constants.BoardSide side) {
+        return neighbors[board * SIDES + side.ordinal()];
+    }
+
+    /**
+     * Record that second is fused to side of first, and so first to the opposite side of second.
+     * Requires both of those sides to be free.
+     */
+    private void join(int first, Constants.BoardSide side, int second) {
+        neighbors[first * SIDES + side.ordinal()] = second;
+        neighbors[second * SIDES + side.opposite().ordinal()] = first;
+    }
+
+    /**
+     * Record that side of board, and the side of the board fused to it, are no longer fused
+     *
+     * @return the id of the board that was fused to side of board, or NO_BOARD if none was
+     */
+    private int unjoin(int board, Constants.BoardSide side) {
+        int other = neighbor(board, side);
+        if (other != ClientHandler.NO_BOARD) {
+            neighbors[board * SIDES + side.ordinal()] = ClientHandler.NO_BOARD;
+            neighbors[other * SIDES + side.opposite().ordinal()] = ClientHandler.NO_BOARD;
+        }
+        return other;
+    }
+
+    /**
+     * Give a board an id, growing the arrays indexed by id if needed
+     *
+     * @param name the board's name, which must not have an id
+     * @param ch the client whose board it is, or null for a hosted board
+     * @return the id, which is not fused to anything
+     */
+    private int assignId(String name, ClientHandler ch) {
+        int id = freeIds.isEmpty() ? nextId++ : freeIds.pop();
+        if (id == boardNames.length) {
+            boardNames = Arrays.copyOf(boardNames, 2 * id);
+            handlers = Arrays.copyOf(handlers, 2 * id);
+            neighbors = Arrays.copyOf(neighbors, 2 * id * SIDES);
+            Arrays.fill(neighbors, id * SIDES, neighbors.length, ClientHandler.NO_BOARD);
+        }
+        boardNames[id] = name;
+        handlers[id] = ch;
+        boardIds.put(name, id);
+        return id;
+    }
+
+    /**
+     * Free the id of a board that is no longer fused to anything
+     *
+     * @param id an id in use
+     */
+    private void releaseId(int id) {
+        boardIds.remove(boardNames[id]);
+        boardNames[id] = null;
+        handlers[id] = null;
+        freeIds.push(id);
+    }
+
+    /**
+     * Remove a connection from the GUI
+     *
+     * @param position "h" or "v"
+     * @param first the left (h) or top (v) board
+     * @param second the right (h) or bottom (v) board
+     */
+    private void removeConnectionFromGUI(final String position, final String first, final String second) {
+    	SwingUtilities.invokeLater(new Runnable() {
+    		public void run() {
+    			gui.removeConnection(position, first, second);
+    		}
+    	});
+    }
+
+    /**
+     * Print, for every client, the number of messages sent to it, the number of flushes
+     * they were sent in, and the mean number of messages per flush
+     */
+    private void printStats() {
+        for (Map.Entry<String, ClientHandler> entry : clients.entrySet()) {
+            long messages = entry.getValue().getMessagesSent();
+            long flushes = entry.getValue().getFlushes();
+            System.out.println(String.format("%s: %d messages in %d flushes, %.2f per flush",
+                    entry.getKey(), messages, flushes, flushes == 0 ? 0.0 : (double) messages / flushes));
+        }
+        if (host != null) {
+            System.out.println("hosted boards: " + host.getScheduler());
+        }
+    }
+
     /**
      * handle a NetworkMessage from a ClientHandler
      *
@@ -358,12 +622,18 @@ public class PingballServer {
         final ClientHandler ch = authoredMessage.getClientHandler();
 
         if (message instanceof ClientConnectMessage) {
-            if (clients.containsKey(ch.getName())) {
+            if (boardIds.containsKey(ch.getName())) {
                 // don't let the client connect with the same name!
                 ch.send(new ConnectionRefusedMessage("Board with this name already connected to server"));
-                ch.kill();
+                ch.killAfterFlush();
             } else {
                 clients.put(ch.getName(), ch);
+                ch.setBoardId(assignId(ch.getName(), ch));
+                if (((ClientConnectMessage) message).isBinary()) {
+                    // accept the client's offer, then switch
+                    send(ch, new ClientConnectMessage(ch.getName(), true));
+                    ch.useBinary();
+                }
                 if (gui != null) {
                 	SwingUtilities.invokeLater(new Runnable() {
                 		public void run() {
@@ -375,43 +645,13 @@ public class PingballServer {
             }
         }
         else if (message instanceof BallOutMessage) {
-            List<List<String>> lookInJoinList;
-            int myIndex; // 0 or 1
-            int myPairsIndex; // 1 or 0
-            Constants.BoardSide toSide;
-            switch (((BallOutMessage) message).getFromSide()) {
-                case TOP: // if a ball went out through the top, I must be the bottom board
-                    lookInJoinList = verticalBoardJoins;
-                    myIndex = 1;
-                    myPairsIndex = 0;
-                    toSide = Constants.BoardSide.BOTTOM;
-                    break;
-                case BOTTOM:
-                    lookInJoinList = verticalBoardJoins;
-                    myIndex = 0;
-                    myPairsIndex = 1;
-                    toSide = Constants.BoardSide.TOP;
-                    break;
-                case LEFT:
-                    lookInJoinList = horizontalBoardJoins;
-                    myIndex = 1;
-                    myPairsIndex = 0;
-                    toSide = Constants.BoardSide.RIGHT;
-                    break;
-                default: // case RIGHT:
-                    lookInJoinList = horizontalBoardJoins;
-                    myIndex = 0;
-                    myPairsIndex = 1;
-                    toSide = Constants.BoardSide.LEFT;
-                    break;
-            }
-            for (List<String> pair : lookInJoinList) {
-                if (pair.get(myIndex).equals(ch.getName())) {
-                    Vect ballPos = ((BallOutMessage) message).getBallPos();
-                    Vect ballVel = ((BallOutMessage) message).getBallVel();
-                    clients.get(pair.get(myPairsIndex)).send(new BallInMessage(ballPos, ballVel, toSide));
-                    break; // this only happens once so we can spare some looping
-                }
+            Constants.BoardSide fromSide = ((BallOutMessage) message).getFromSide();
+            int from = ch.getBoardId();
+            int to = from == ClientHandler.NO_BOARD ? ClientHandler.NO_BOARD : neighbor(from, fromSide);
+            if (to != ClientHandler.NO_BOARD) {
+                Vect ballPos = ((BallOutMessage) message).getBallPos();
+                Vect ballVel = ((BallOutMessage) message).getBallVel();
+                send(handlers[to], new BallInMessage(ballPos, ballVel, fromSide.opposite()));
             }
 
         } else if (message instanceof TeleportOutMessage) {
@@ -420,18 +660,19 @@ public class PingballServer {
             String boardFrom = ((TeleportOutMessage) message).getBoardFrom();
             String portalFrom = ((TeleportOutMessage) message).getPortalFrom();
             Vect ballVel = ((TeleportOutMessage) message).getBallVel();
-            if (clients.containsKey(boardTo)) {
-                clients.get(boardTo).send(new TeleportInMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo));
+            ClientHandler to = clients.get(boardTo);
+            if (to != null) {
+                send(to, new TeleportInMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo));
                 
             } else {
-                ch.send(new TeleportFailMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo));
+                send(ch, new TeleportFailMessage(ballVel, boardFrom, portalFrom, boardTo, portalTo));
                 
             }
             
         } else if (message instanceof TeleportFailMessage) {
-            String boardFrom = ((TeleportOutMessage) message).getBoardFrom();
-            if (clients.containsKey(boardFrom)) {
-                clients.get(boardFrom).send(message);
+            ClientHandler from = clients.get(((TeleportFailMessage) message).getBoardFrom());
+            if (from != null) {
+                send(from, message);
                 
             }
             
@@ -448,59 +689,80 @@ public class PingballServer {
      * Rep Invariants:
      *  * MIN_PORT <= port <= MAX_PORT
      *  * for every name -> ClientHandler in clients, client.getName() must be name
-     *  * Every list in horizontalBoardJoins and verticalBoardJoins is length 2.
-     *  * Every String in the lists of horizontalBoardJoins/verticalBoardJoins is a key in clients.
-     *  * No one String is the first more than one pair in a list, or the second of more than one pair in a list
-     *      (e.g. "board1" cannot be the left side of a horizontal join to two different boards)
+     *  * Every client and hosted board has an id: boardIds, boardNames and handlers agree with
+     *    each other, with clients and with ClientHandler.getBoardId, and ids not in use are in
+     *    freeIds and have no name, client or neighbors
+     *  * If neighbors says b is fused to side of a, then a is fused to the opposite side of b,
+     *    and a and b are either both clients or both hosted
      *
+     * Only the port is checked unless Constants.CHECK_REP is set.
      */
     private void checkRep() {
         if (port < MIN_PORT || port > MAX_PORT) {
             throw new RepInvariantException("Port out of range");
         }
+        if (!Constants.CHECK_REP) {
+            return;
+        }
         for (String name : clients.keySet()) {
             if (!clients.get(name).getName().equals(name)) {
                 throw new RepInvariantException("Client name inconsistent");
             }
         }
-        Set<String> isLeftBoard = new HashSet<String>();
-        Set<String> isRightBoard = new HashSet<String>();
-        for (List<String> pair : horizontalBoardJoins) {
-            if (!(pair.size() == 2)) {
-                throw new RepInvariantException("A pair is not 2");
-            }
-            if (!clients.containsKey(pair.get(0)) || !clients.containsKey(pair.get(1))) {
-                throw new RepInvariantException("A joined client is not in the list of clients");
-            }
-            if (isLeftBoard.contains(pair.get(0)) || isRightBoard.contains(pair.get(1))) {
-                throw new RepInvariantException("A board is joined to more than one board");
-            }
-            isLeftBoard.add(pair.get(0));
-            isRightBoard.add(pair.get(1));
+        if (boardIds.size() != clients.size() + (host == null ? 0 : host.getBoardNames().size())
+                || boardIds.size() + freeIds.size() != nextId
+                || handlers.length != boardNames.length || neighbors.length != boardNames.length * SIDES) {
+            throw new RepInvariantException("Board ids inconsistent");
         }
-        Set<String> isTopBoard = new HashSet<String>();
-        Set<String> isBottomBoard = new HashSet<String>();
-        for (List<String> pair : verticalBoardJoins) {
-            if (!(pair.size() == 2)) {
-                throw new RepInvariantException("A pair is not 2");
-            }
-            if (!clients.containsKey(pair.get(0)) || !clients.containsKey(pair.get(1))) {
-                throw new RepInvariantException("A joined client is not in the list of clients");
+        for (int id = 0; id < boardNames.length; id++) {
+            String name = boardNames[id];
+            if (name == null) {
+                if (handlers[id] != null) {
+                    throw new RepInvariantException("A free board id has a client");
+                }
+            } else if (boardIds.get(name) != id || handlers[id] != clients.get(name)
+                    || (handlers[id] != null && handlers[id].getBoardId() != id)) {
+                throw new RepInvariantException("Board ids inconsistent");
             }
-            if (isTopBoard.contains(pair.get(0)) || isBottomBoard.contains(pair.get(1))) {
-                throw new RepInvariantException("A board is joined to more than one board");
+            for (Constants.BoardSide side : Constants.BoardSide.values()) {
+                int other = neighbor(id, side);
+                if (other == ClientHandler.NO_BOARD) {
+                    continue;
+                }
+                if (name == null || boardNames[other] == null) {
+                    throw new RepInvariantException("A free board id is fused");
+                }
+                if (!joinable(name, boardNames[other])) {
+                    throw new RepInvariantException("A client is fused to a hosted board");
+                }
+                if (neighbor(other, side.opposite()) != id) {
+                    throw new RepInvariantException("A board is fused to a board that is not fused to it");
+                }
             }
-            isTopBoard.add(pair.get(0));
-            isBottomBoard.add(pair.get(1));
         }
     }
     
+    /**
+     * @return true if b1 and b2 are both clients, or both hosted boards
+     */
+    private boolean joinable(String b1, String b2) {
+        if (clients.containsKey(b1) && clients.containsKey(b2)) {
+            return true;
+        }
+        return host != null && host.hasBoard(b1) && host.hasBoard(b2);
+    }
+
     /**
      * Tell the Server that a ServerGUI is available
      * @param gui the ServerGUI that will display the Server's info
      */
     public void notifyGUI(ServerGUI gui) {
     	this.gui = gui;
+    	if (host != null) {
+    		for (String name : host.getBoardNames()) {
+    			gui.addClient(name, "hosted");
+    		}
+    	}
     }
     
     /**
@@ -515,6 +777,9 @@ public class PingballServer {
      * @return the address by which clients can connect to the server
      */
     public String getIP() {
+    	if (nioAcceptor != null) {
+    		return nioAcceptor.getIP();
+    	}
     	return socketAcceptor.getIP();
     }
 
@@ -0,0 +1,290 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import client.Ball;
+import client.Board;
+import client.BoardSnapshot;
+import client.MessageSink;
+import client.TickScheduler;
+import client.gadgets.Portal;
+import common.Constants;
+import common.Constants.BoardSide;
+import common.netprotocol.BallOutMessage;
+import common.netprotocol.NetworkMessage;
+import common.netprotocol.TeleportOutMessage;
+
+/**
+ * Runs many boards in the server process instead of on clients. Every timestep the host
+ * updates all of its boards in parallel with a BoardScheduler, which waits for all of them,
+ * and then hands the balls that left a board through a fused wall or a portal directly to
+ * the board they are going to, with no network round trip. Boards are fused with the same
+ * "h"/"v" commands as client boards (see fuse).
+ *
+ * While a board is updated, its walls and portals send their BallOutMessages and
+ * TeleportOutMessages to the board's Outbox instead of to a server connection. The host
+ * delivers them after the update as a client would deliver the BallInMessages and
+ * TeleportInMessages the server would have sent it. A teleport to a portal that isn't
+ * on a hosted board fails, and the ball comes back out of the portal it went in.
+ *
+ * After each update the board publishes a BoardSnapshot, so that any thread can see the
+ * state of a hosted board with getSnapshot.
+ *
+ * Thread Safety Argument:
+ * - boards, boardList and outboxes are made in the constructor and never change after;
+ *   they are read by any thread.
+ * - each Board, and its Outbox, is used by one thread at a time: BoardScheduler updates
+ *   each board on one worker, and the host thread only touches the boards between
+ *   steps (see BoardScheduler for how they are ordered).
+ * - neighbors is confined to the host thread, which is the only one to call
+ *   scheduler.step.
+ * - other threads make changes, such as fusing boards, by adding them to the
+ *   threadsafe invokeLaterQueue, which the host thread runs between timesteps.
+ * - snapshots are immutable, and published by Board through a volatile field.
+ *
+ * Rep Invariant:
+ * - boards, outboxes and neighbors have the same keys, and board names are their keys
+ * - every neighbors array has one entry per BoardSide; every entry is null or a key
+ *   of boards
+ * - if a's neighbor across side is b, then b's neighbor across the opposite side is a
+ */
+public class SimulationHost implements Runnable {
+    /**
+     * Most timesteps to run back to back when the host falls behind
+     */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    private final Map<String, Board> boards;
+    private final Map<String, Outbox> outboxes;
+    private final Map<String, String[]> neighbors; // by BoardSide ordinal, null if that wall is closed
+    private final List<Board> boardList;
+    private final BoardScheduler scheduler;
+    private final BlockingQueue<Runnable> invokeLaterQueue;
+
+    /**
+     * Collects the messages a board sends while it is updated.
+     */
+    private static class Outbox implements MessageSink {
+        private final List<NetworkMessage> messages = new ArrayList<NetworkMessage>();
+
+        @Override
+        public void send(NetworkMessage message) {
+            messages.add(message);
+        }
+    }
+
+    /**
+     * Make a host for boards
+     *
+     * @param boards the boards to run, with different names. None of their walls may be
+     *               fused, and nothing else may use them once they are given to the host.
+     * @param threads number of worker threads to update the boards with. requires > 0
+     * @throws IllegalArgumentException if two boards have the same name
+     */
+    public SimulationHost(List<Board> boards, int threads) {
+        this.boards = new LinkedHashMap<String, Board>();
+        this.outboxes = new LinkedHashMap<String, Outbox>();
+        this.neighbors = new LinkedHashMap<String, String[]>();
+        this.boardList = new ArrayList<Board>();
+        for (Board board : boards) {
+            String name = board.getName();
+            if (this.boards.containsKey(name)) {
+                throw new IllegalArgumentException("two boards are named " + name);
+            }
+            Outbox outbox = new Outbox();
+            board.setServerHandler(outbox);
+            board.publishSnapshot(Constants.TIMESTEP);
+            this.boards.put(name, board);
+            this.outboxes.put(name, outbox);
+            this.neighbors.put(name, new String[BoardSide.values().length]);
+            this.boardList.add(board);
+        }
+        this.scheduler = new BoardScheduler(threads, true);
+        this.invokeLaterQueue = new LinkedBlockingQueue<Runnable>();
+        checkRep();
+    }
+
+    /**
+     * Run the boards in real time, one timestep every Constants.TIMESTEP seconds, until
+     * the thread is interrupted; then shut down
+     */
+    @Override
+    public void run() {
+        TickScheduler clock = new TickScheduler(Constants.TIMESTEP, MAX_CATCH_UP_TICKS);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                int due = clock.awaitTicks();
+                for (int i = 0; i < due; i++) {
+                    tick();
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stop the worker threads. The host can't run any more timesteps after this.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Run one timestep: make the changes passed to invokeLater, update every board, then
+     * hand over the balls that left boards. Must be called by the host thread.
+     */
+    public void tick() {
+        while (!invokeLaterQueue.isEmpty()) {
+            invokeLaterQueue.remove().run();
+        }
+        scheduler.step(boardList, Constants.TIMESTEP);
+        for (Map.Entry<String, Outbox> entry : outboxes.entrySet()) {
+            List<NetworkMessage> messages = entry.getValue().messages;
+            for (NetworkMessage message : messages) {
+                deliver(entry.getKey(), message);
+            }
+            messages.clear();
+        }
+        checkRep();
+    }
+
+    /**
+     * Hand over a ball that left a board
+     *
+     * @param from the name of the board the ball left
+     * @param message the message the board sent about it
+     */
+    private void deliver(String from, NetworkMessage message) {
+        if (message instanceof BallOutMessage) {
+            BallOutMessage out = (BallOutMessage) message;
+            String to = neighbors.get(from)[out.getFromSide().ordinal()];
+            // walls are only open while they are fused, and fusing waits for the handoffs
+            assert to != null;
+            // the wall has already moved the ball to where it comes in on the other board
+            boards.get(to).addBall(new Ball(out.getBallPos(), out.getBallVel()));
+        } else if (message instanceof TeleportOutMessage) {
+            TeleportOutMessage out = (TeleportOutMessage) message;
+            Board target = boards.get(out.getBoardTo());
+            Portal portal = target == null ? null : target.getPortal(out.getPortalTo());
+            if (portal == null) {
+                // no such portal: the ball comes back out of the portal it went in
+                target = boards.get(from);
+                portal = target.getPortal(out.getPortalFrom());
+            }
+            Ball ball = new Ball(portal.getCenter(), out.getBallVel());
+            target.addBall(ball);
+            portal.giveBall(ball);
+        } else {
+            // boards only send ball and teleport messages; anything else is ignored
+            if (Constants.DEBUG) System.err.println("Unexpected message from board " + from + ": " + message.serialize());
+        }
+    }
+
+    /**
+     * Fuse two hosted boards, unfusing any other boards from the walls that join them.
+     * The change is made between timesteps; any thread may call this.
+     *
+     * @param first the name of the left board (horizontal) or top board (vertical); must
+     *              be a hosted board
+     * @param second the name of the right board (horizontal) or bottom board (vertical);
+     *               must be a hosted board
+     * @param horizontal true to put first to the left of second, false to put it on top
+     */
+    public void fuse(final String first, final String second, boolean horizontal) {
+        final BoardSide firstSide = horizontal ? BoardSide.RIGHT : BoardSide.BOTTOM;
+        final BoardSide secondSide = horizontal ? BoardSide.LEFT : BoardSide.TOP;
+        invokeLater(new Runnable() {
+            public void run() {
+                unfuse(first, firstSide);
+                unfuse(second, secondSide);
+                neighbors.get(first)[firstSide.ordinal()] = second;
+                neighbors.get(second)[secondSide.ordinal()] = first;
+                boards.get(first).connectWallToServer(firstSide, second);
+                boards.get(second).connectWallToServer(secondSide, first);
+                checkRep();
+            }
+        });
+    }
+
+    /**
+     * Close a wall of a board, and the wall of the board it was fused to
+     *
+     * @param name a hosted board
+     * @param side the wall to close
+     */
+    private void unfuse(String name, BoardSide side) {
+        String other = neighbors.get(name)[side.ordinal()];
+        if (other != null) {
+            BoardSide otherSide = side.opposite();
+            neighbors.get(name)[side.ordinal()] = null;
+            neighbors.get(other)[otherSide.ordinal()] = null;
+            boards.get(name).disconnectWallFromServer(side);
+            boards.get(other).disconnectWallFromServer(otherSide);
+        }
+    }
+
+    /**
+     * Run r on the host thread, before the next timestep
+     *
+     * @param r the runnable to run
+     */
+    public void invokeLater(Runnable r) {
+        invokeLaterQueue.add(r);
+    }
+
+    /**
+     * @param name a board name
+     * @return true if the board is hosted here
+     */
+    public boolean hasBoard(String name) {
+        return boards.containsKey(name);
+    }
+
+    /**
+     * @return the names of the hosted boards
+     */
+    public Set<String> getBoardNames() {
+        return Collections.unmodifiableSet(boards.keySet());
+    }
+
+    /**
+     * Get the state of a hosted board after its last update. Any thread may call this.
+     *
+     * @param name a hosted board
+     * @return the board's last snapshot
+     */
+    public BoardSnapshot getSnapshot(String name) {
+        return boards.get(name).getSnapshot();
+    }
+
+    /**
+     * @return the scheduler that updates the boards, for its statistics
+     */
+    public BoardScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Verify the rep invariant (see the class comment)
+     */
+    private void checkRep() {
+        assert boards.keySet().equals(outboxes.keySet()) && boards.keySet().equals(neighbors.keySet());
+        for (Map.Entry<String, String[]> entry : neighbors.entrySet()) {
+            assert boards.get(entry.getKey()).getName().equals(entry.getKey());
+            String[] across = entry.getValue();
+            assert across.length == BoardSide.values().length;
+            for (BoardSide side : BoardSide.values()) {
+                String other = across[side.ordinal()];
+                assert other == null || entry.getKey().equals(neighbors.get(other)[side.opposite().ordinal()]);
+            }
+        }
+    }
+}
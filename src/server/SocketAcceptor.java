@@ -4,16 +4,18 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import common.Constants;
+import common.PingballThreadFactory;
 
 /**
- * Runnable that accepts socket connections and starts ClientHandler threads
+ * Runnable that accepts socket connections and starts SocketClientHandler threads
  *
  * Thread Safety Argument:
  * * serverSocket is confined to the SocketAcceptor thread.
  * * There will only ever be one SocketAcceptor thread.
- * * Sockets given to ClientHandlers are no longer touched by the SocketAcceptor thread.
+ * * Sockets given to SocketClientHandlers are no longer touched by the SocketAcceptor thread.
  *
  * Rep Invariant:
  * * none.
@@ -24,6 +26,7 @@ public class SocketAcceptor implements Runnable {
     private final ServerSocket serverSocket;
     private final BlockingQueue<AuthoredMessage> messageQueue;
     private final BlockingQueue<ClientHandler> deadClientsQueue;
+    private final ThreadFactory threads;
 
     /**
      * Create a new SocketAcceptor on the specified port
@@ -34,22 +37,37 @@ public class SocketAcceptor implements Runnable {
      * @throws IOException if the ServerSocket instantiation fails
      */
     public SocketAcceptor(int port, BlockingQueue<AuthoredMessage> queue, BlockingQueue<ClientHandler> deadClientsQueue) throws IOException {
+        this(port, queue, deadClientsQueue, new PingballThreadFactory(false));
+    }
+
+    /**
+     * Create a new SocketAcceptor on the specified port
+     *
+     * @param port the port on which to start a server socket. requires 0 <= port <= 65535
+     * @param queue the queue that clients should pass AuthoredMessages to
+     * @param deadClientsQueue the queue where clients should go when they die
+     * @param threads makes the threads that run the SocketClientHandlers
+     * @throws IOException if the ServerSocket instantiation fails
+     */
+    public SocketAcceptor(int port, BlockingQueue<AuthoredMessage> queue, BlockingQueue<ClientHandler> deadClientsQueue,
+            ThreadFactory threads) throws IOException {
         this.serverSocket = new ServerSocket(port);
         this.messageQueue = queue;
         this.deadClientsQueue = deadClientsQueue;
+        this.threads = threads;
 
         checkRep();
     }
 
     /**
-     * Waits for server socket connections and creates ClientHandler threads from them
+     * Waits for server socket connections and creates SocketClientHandler threads from them
      */
     @Override
     public void run() {
         while (true) {
             try {
                 Socket socket = serverSocket.accept();
-                Thread thread = new Thread(new ClientHandler(socket, messageQueue, deadClientsQueue));
+                Thread thread = threads.newThread(new SocketClientHandler(socket, messageQueue, deadClientsQueue));
                 thread.start();
             } catch (IOException e) {
                 if (Constants.DEBUG) System.err.println(e.getMessage());
@@ -0,0 +1,173 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+
+import common.netprotocol.*;
+import common.*;
+import common.netprotocol.NetworkMessage.DecodeException;
+
+/**
+ * Runnable which handles clients' incoming requests over a blocking socket. These include
+ * ball out messages and client connect/disconnect.
+ *
+ * Thread safety argument:
+ * * The many SocketClientHandler threads will all add NetworkMessages to the Server's BlockingQueue (thread safe datatype)
+ * * Only client thread will read from the input stream (in run() method)
+ * * Only the server thread will write to the output stream (use send() and flush() methods)
+ * * Sockets are safe for concurrent input and output.
+ * * kill() can be called by the server thread or the client thread. It is synchronized to prevent both calling kill()
+ *   on the same client at once.
+ * * see ClientHandler for the state shared by every transport
+ *
+ * TCP_NODELAY is set on the socket: the flushes already group messages, and Nagle's
+ * algorithm would only hold them back.
+ *
+ * Rep invariant:
+ * * in and out are bound to socket
+ * * if dead, socket is closed
+ *
+ */
+public class SocketClientHandler extends ClientHandler implements Runnable {
+
+    private final Socket socket;
+    private final MessageReader in;
+    private final MessageWriter out;
+
+    /**
+     * Make a new SocketClientHandler
+     * @param socket the socket through which we communicate with the client
+     * @param queue the Server's queue of messages, on which to put incoming messages
+     * @param deadClientsQueue where to put the client after it has been killed
+     * @throws IOException if we are unable to open the input or output stream with the client
+     */
+    public SocketClientHandler(Socket socket,
+            BlockingQueue<AuthoredMessage> queue,
+            BlockingQueue<ClientHandler> deadClientsQueue) throws IOException {
+        super(queue, deadClientsQueue);
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = new MessageReader(socket.getInputStream());
+        this.out = new MessageWriter(socket.getOutputStream());
+
+        checkRep();
+    }
+
+    /**
+     * Handles the incoming client messages.
+     * Listens for input from the client, and sends it to the server.
+     * Ignores bad input messages, but prints an error to System.err if there is an IOException
+     */
+    @Override
+    public void run() {
+        // handle the client
+        try {
+            for (NetworkMessage message = in.read(); message != null; message = in.read()) {
+                received(message);
+
+            }
+        } catch (IOException e) {
+            if (Constants.DEBUG) {
+                System.err.println(e.getMessage());
+            }
+        } catch (DecodeException e) {
+            // ignore bad input
+            if (Constants.DEBUG) {
+                System.err.println(e.getMessage());
+            }
+        } finally {
+            this.kill();
+        }
+    }
+
+    /**
+     * Send a message to the client at the next flush. Requires the thread to be running!
+     * @param message the message to send to the client
+     */
+    @Override
+    public void send(NetworkMessage message) {
+        if (Constants.DEBUG) System.out.println("Sending message: " + message.serialize());
+        try {
+            out.write(message);
+        } catch (IOException e) {
+            // run() will notice the connection is gone and kill the client
+            if (Constants.DEBUG) System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Send the messages passed to send since the last flush to the client.
+     * Only call this from the server thread.
+     */
+    @Override
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // run() will notice the connection is gone and kill the client
+            if (Constants.DEBUG) System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return out.getMessages();
+    }
+
+    @Override
+    public long getFlushes() {
+        return out.getFlushes();
+    }
+
+    @Override
+    public void useBinary() {
+        super.useBinary();
+        out.setBinary(true);
+    }
+
+    /**
+     * Terminates the connection to the client.
+     * This also causes the run() method to finish, because in.close() will make run() fail.
+     */
+    @Override
+    public synchronized void kill() {
+
+        if (!socket.isClosed()) {
+            try {
+                out.close();
+                in.close();
+                socket.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        died();
+
+        checkRep();
+
+    }
+
+    /**
+     * get the address of the client
+     * @return the IP address of the connected client, or null if the connection has ended.
+     */
+    @Override
+    public String getIP() {
+    	return socket.getInetAddress().toString();
+    }
+
+    /**
+     * asserts the Rep Invariant
+     *
+     * Rep invariant:
+     * * in and out are bound to socket (there is no way to check this)
+     * * if dead, socket is closed
+     *
+     */
+    private void checkRep() {
+        if (isDead() && !socket.isClosed()) {
+            throw new RepInvariantException("this is dead but socket is open");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package server;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A LinkedBlockingQueue that releases a permit on a shared Semaphore every time
+ * an element is added. Several WakeupQueues can share one Semaphore, so that a
+ * consumer can sleep on the Semaphore until any of the queues has work, instead
+ * of polling each queue in turn.
+ *
+ * The Semaphore only counts additions; a consumer that wakes up should drain
+ * every queue sharing it, and may find them empty if it already drained them
+ * after an earlier wakeup.
+ *
+ * Thread Safety Argument:
+ * * LinkedBlockingQueue is threadsafe, and Semaphore is threadsafe.
+ * * A permit is released after the element is in the queue, so a consumer that
+ *   acquires the permit will see the element.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class WakeupQueue<E> extends LinkedBlockingQueue<E> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Semaphore wakeup;
+
+    /**
+     * Make an empty WakeupQueue
+     *
+     * @param wakeup the Semaphore to release whenever an element is added
+     */
+    public WakeupQueue(Semaphore wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        boolean added = super.offer(e);
+        if (added) {
+            wakeup.release();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        boolean added = super.offer(e, timeout, unit);
+        if (added) {
+            wakeup.release();
+        }
+        return added;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        super.put(e);
+        wakeup.release();
+    }
+}
@@ -1,8 +1,10 @@
 package tests;
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -19,6 +21,14 @@ import client.gadgets.*;
  * > test that absorber absorbs and holds the ball in the bottom right corner
  * > test that absorber in self-trigger mode ejects an absorbed ball
  * > test that a ball hitting a bumper that triggers a flipper changes the state of the flipper correctly
+ * > test that the spatial grid broad phase gives the same result as the brute-force scan on a dense board
+ * > test that event-driven stepping bounces a ball that travels further than a bumper's width in one update
+ * > test that a board moves all of its balls with gravity, and that Ball handles read and write the board's ball store
+ * > test that update doesn't ask a gadget about a ball that can't reach it in the timestep, and counts the checks it skipped
+ * > test that a slow ball on a board without gravity falls asleep and stops, and wakes up when another ball hits it, in both kinds of update
+ * > test that a ball just faster than the sleep speed keeps drifting and never falls asleep, in both kinds of update
+ * > test that a gadget asked about a collision within a time limit finds the same collision, and edge or corner to bounce off, as without one, and ignores balls that can't get there in time
+ * > test that a triggered flipper turns over more than one update, and knocks a ball in its way out of its square, in both kinds of update
  *
  */
 public class BoardTest {
@@ -107,4 +117,190 @@ public class BoardTest {
         assertTrue(ball.getPosition().y() == 17.24);
     }
 
+    @Test
+    public void spatialGridMatchesBruteForceTest(){
+        Board gridBoard = Parser.makeBoard(new File("boards/staffboard2.pb"));
+        Board bruteBoard = Parser.makeBoard(new File("boards/staffboard2.pb"));
+        gridBoard.setSpatialGridVerified(true);
+        bruteBoard.setSpatialGridEnabled(false);
+        
+        for (int tick = 0; tick < 200; tick++) {
+            gridBoard.update(0.05);
+            bruteBoard.update(0.05);
+            assertEquals(bruteBoard.toString(), gridBoard.toString());
+            List<Ball> gridBalls = gridBoard.getBalls();
+            List<Ball> bruteBalls = bruteBoard.getBalls();
+            assertEquals(bruteBalls.size(), gridBalls.size());
+            for (int i = 0; i < gridBalls.size(); i++) {
+                assertEquals(bruteBalls.get(i).getPosition(), gridBalls.get(i).getPosition());
+            }
+        }
+    }
+
+    @Test
+    public void eventDrivenFastBallTest(){
+        Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+        board.setEventDriven(true);
+        Ball ball = new Ball("ball1", 10, 10, 0, 400);
+        board.addBall(ball);
+        board.addGadget(new SquareBumper("sq", 10, 15));
+        board.update(0.05);
+        
+        // 4.25L down to the bumper, 14.5L up to the top wall, and 1.25L back down
+        assertEquals(10, ball.getPosition().x(), 1e-9);
+        assertEquals(1.0, ball.getPosition().y(), 1e-9);
+        assertTrue(ball.getVelocity().y() > 0);
+    }
+
+    @Test
+    public void ballStoreTest(){
+        Board board = new Board("board1", 25, 0, 0, keyupToTriggers, keydownToTriggers);
+        Ball falling = new Ball("ball1", 5, 5, 0, 0);
+        Ball leaving = new Ball("ball2", 10, 0.5, 0, -20);
+        board.addBall(leaving);
+        board.addBall(falling);
+        board.update(0.05);
+        
+        // ball2 went out through the top wall, which closes the board, so it bounced
+        assertEquals(2, board.getBalls().size());
+        assertEquals(5.0 + 0.5 * 25 * 0.05 * 0.05, falling.getY(), 1e-9);
+        assertEquals(25 * 0.05, falling.getVy(), 1e-9);
+        assertEquals(falling.getVy(), falling.getVelocity().y(), 0);
+        assertTrue(leaving.getVy() > 0);
+        
+        falling.setPosition(1, 1);
+        assertEquals(1, board.getBalls().get(1).getCircle().getCenter().x(), 0);
+    }
+
+    @Test
+    public void gadgetChecksSkippedTest(){
+        Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+        board.setSpatialGridEnabled(false);
+        board.addGadget(new SquareBumper("near", 5, 5));
+        board.addGadget(new SquareBumper("far", 15, 5));
+        board.addBall(new Ball("ball", 5, 3, 0, 10));
+        board.update(0.05);
+        assertEquals(1, board.getGadgetChecks());
+        assertEquals(1, board.getGadgetChecksSkipped());
+        
+        // a fast ball can reach the far bumper within the timestep
+        board.addBall(new Ball("fast", 10, 8, 200, 0));
+        board.update(0.05);
+        assertEquals(3, board.getGadgetChecks());
+        assertEquals(1, board.getGadgetChecksSkipped());
+    }
+    
+    @Test
+    public void almostSleepingBallTest(){
+        for (boolean eventDriven : new boolean[] { false, true }) {
+            Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+            board.setEventDriven(eventDriven);
+            // BallStore's sleep speed is 0.05 L/s
+            Ball drifting = new Ball("drifting", 10, 10, 0.051, 0);
+            board.addBall(drifting);
+            for (int i = 0; i < 200; i++) {
+                board.update(0.05);
+                assertFalse(drifting.isAsleep());
+            }
+            assertEquals(0.051, drifting.getVx(), 1e-9);
+            assertEquals(10 + 200 * 0.05 * 0.051, drifting.getX(), 1e-6);
+        }
+    }
+    
+    @Test
+    public void sleepingBallTest(){
+        for (boolean eventDriven : new boolean[] { false, true }) {
+            Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+            board.setEventDriven(eventDriven);
+            Ball slow = new Ball("slow", 10, 10, 0.04, 0);
+            board.addBall(slow);
+            for (int i = 0; i < 19; i++) {
+                board.update(0.05);
+            }
+            assertFalse(slow.isAsleep());
+            board.update(0.05);
+            assertTrue(slow.isAsleep());
+            assertEquals(0, slow.getVx(), 0);
+            double x = slow.getX();
+            board.update(0.05);
+            assertEquals(x, slow.getX(), 0);
+            
+            Ball fast = new Ball("fast", 5, 10, 20, 0);
+            board.addBall(fast);
+            for (int i = 0; i < 10; i++) {
+                board.update(0.05);
+            }
+            assertFalse(slow.isAsleep());
+            assertTrue(slow.getVx() > 1);
+            assertTrue(slow.getX() > x);
+        }
+        
+        // gravity would speed a resting ball up, so it never sleeps
+        Board falling = new Board("board2", 25, 0, 0, keyupToTriggers, keydownToTriggers);
+        Ball ball = new Ball("ball", 10, 1, 0, 0);
+        falling.addBall(ball);
+        falling.update(0.05);
+        assertFalse(ball.isAsleep());
+    }
+    
+    @Test
+    public void collisionShapeTest(){
+        Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+        SquareBumper square = new SquareBumper("square", 5, 5);
+        
+        // heading for the top edge, which it reaches at 0.225s
+        Ball edgeBall = new Ball("edge", 5, 2, 0, 10);
+        assertEquals(0.225, square.timeUntilCollision(edgeBall), 1e-9);
+        assertTrue(square.timeUntilCollision(edgeBall, 0.05) > 0.05);
+        assertEquals(square.timeUntilCollision(edgeBall), square.timeUntilCollision(edgeBall, 1), 0);
+        square.hit(edgeBall, board);
+        assertEquals(0, edgeBall.getVx(), 1e-9);
+        assertEquals(-10, edgeBall.getVy(), 1e-9);
+        
+        // heading straight for the northwest corner
+        Ball cornerBall = new Ball("corner", 3, 3, 10, 10);
+        double time = (Math.sqrt(2 * 1.5 * 1.5) - 0.25) / Math.sqrt(200);
+        assertEquals(time, square.timeUntilCollision(cornerBall, 1), 1e-9);
+        square.hit(cornerBall, board);
+        assertEquals(-10, cornerBall.getVx(), 1e-9);
+        assertEquals(-10, cornerBall.getVy(), 1e-9);
+        
+        // moving away, or nowhere near
+        assertTrue(square.timeUntilCollision(new Ball("away", 5, 2, 0, -10), 1) > 1);
+        assertTrue(square.timeUntilCollision(new Ball("far", 15, 15, -1, -1), 0.05) > 0.05);
+        CircleBumper circle = new CircleBumper("circle", 10, 10);
+        assertTrue(circle.timeUntilCollision(new Ball("far", 15, 15, -1, -1), 0.05) > 0.05);
+        assertEquals(circle.timeUntilCollision(new Ball("far", 15, 15, -1, -1)),
+                circle.timeUntilCollision(new Ball("far", 15, 15, -1, -1), 100), 0);
+    }
+    
+    @Test
+    public void turningFlipperTest(){
+        for (boolean eventDriven : new boolean[] { false, true }) {
+            Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+            board.setEventDriven(eventDriven);
+            LeftFlipper flipper = new LeftFlipper("flipper", 10, 10, 0);
+            board.addGadget(flipper);
+            // at rest in the flipper's square, which it turns through
+            Ball ball = new Ball("ball", 10.5, 10.5, 0, 0);
+            board.addBall(ball);
+            Ball far = new Ball("far", 3, 3, 0, 0);
+            board.addBall(far);
+            
+            flipper.action(board);
+            assertTrue(flipper.isMoving());
+            board.update(0.05);
+            // a quarter turn takes 1/12s
+            assertTrue(flipper.isMoving());
+            board.update(0.05);
+            assertFalse(flipper.isMoving());
+            
+            // it turns from pointing down to pointing right, and knocks the ball
+            // right at about the speed its middle moves, 6 pi L/s
+            assertTrue(ball.getVx() > 30);
+            assertTrue(ball.getVy() < 1e-9);
+            assertEquals(0, far.getVx(), 0);
+            assertEquals(0, far.getVy(), 0);
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import client.MessageRing;
+
+/**
+ * Tests for MessageRing.
+ *
+ * Testing strategy:
+ * - a ring set to drop the oldest elements drops them when full, and counts them
+ * - a blocking ring hands every element from one thread to another, in order, without
+ *   dropping any
+ */
+public class MessageRingTest {
+    private static final int HANDED_OVER = 10000;
+
+    @Test
+    public void dropOldestTest() {
+        MessageRing<Integer> dropping = new MessageRing<Integer>(3, MessageRing.Overflow.DROP_OLDEST);
+        assertEquals(4, dropping.capacity());
+        for (int i = 0; i < 6; i++) {
+            assertTrue(dropping.offer(i));
+        }
+        assertEquals(2, dropping.getDroppedCount());
+        assertEquals(2, dropping.getFullCount());
+        assertEquals(4, dropping.getHighWater());
+        List<Integer> batch = new ArrayList<Integer>();
+        assertEquals(3, dropping.drainTo(batch, 3));
+        assertEquals(5, (int) dropping.poll());
+        assertNull(dropping.poll());
+        assertEquals(2, (int) batch.get(0));
+        assertEquals(4, (int) batch.get(2));
+    }
+
+    @Test
+    public void blockingHandOverTest() throws InterruptedException {
+        final MessageRing<Integer> blocking = new MessageRing<Integer>(8, MessageRing.Overflow.BLOCK);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < HANDED_OVER; i++) {
+                    blocking.offer(i);
+                }
+            }
+        });
+        producer.start();
+        List<Integer> batch = new ArrayList<Integer>();
+        int next = 0;
+        while (next < HANDED_OVER) {
+            batch.clear();
+            blocking.drainTo(batch, 8);
+            for (int i : batch) {
+                assertEquals(next++, i);
+            }
+        }
+        producer.join();
+        assertTrue(blocking.isEmpty());
+        assertEquals(0, blocking.getDroppedCount());
+    }
+}
@@ -2,6 +2,11 @@ package tests;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import physics.Vect;
@@ -12,6 +17,8 @@ import common.netprotocol.BoardFuseMessage;
 import common.netprotocol.BoardUnfuseMessage;
 import common.netprotocol.ClientConnectMessage;
 import common.netprotocol.ConnectionRefusedMessage;
+import common.netprotocol.MessageReader;
+import common.netprotocol.MessageWriter;
 import common.netprotocol.NetworkMessage;
 import common.netprotocol.NetworkMessage.DecodeException;
 
@@ -54,6 +61,20 @@ import common.netprotocol.NetworkMessage.DecodeException;
  * - Missing all body data
  * - Extra body data
  *
+ * Testing strategy for TextDecoder (which deserialize uses):
+ * - Same result or failure as deserializeWithRegex for well-formed messages, doubles that
+ *   do and don't fit the fast path, Vects with junk around them, extra and trailing
+ *   separators, and line terminators in the header
+ *
+ * Testing strategy for the binary serialization:
+ * - Round trip messages with Vects, BoardSides and Strings
+ * - Frame shorter than its header says, and bad type tag
+ * - Text lines and binary frames mixed on one stream
+ * - Offering binary in a ClientConnectMessage
+ *
+ * Testing strategy for MessageWriter:
+ * - Nothing reaches the stream until flush; a flush with nothing written isn't counted
+ *
  */
 public class NetworkMessageTests {
     private static final Vect vZero = new Vect(0, 0);
@@ -70,6 +91,7 @@ public class NetworkMessageTests {
     private static final String boardUnfuseMessageStringBad       = "BoardUnfuseMessage#B#L"; // extra data
     private static final String clientConnectMessageString        = "ClientConnectMessage#fooBoard";
     private static final String clientConnectMessageStringBad     = "ClientConnectMessage#L#0.0 0.0"; // extra data
+    private static final String clientConnectMessageStringBinary  = "ClientConnectMessage#fooBoard#binary";
     private static final String connectionRefusedMessageString    = "ConnectionRefusedMessage#I'm afraid I can't do that, Dave.";
     private static final String connectionRefusedMessageStringBad = "ConnectionRefusedMessage#"; // missing body
 
@@ -187,6 +209,14 @@ public class NetworkMessageTests {
         NetworkMessage.deserialize(clientConnectMessageStringBad);
     }
 
+    @Test public void testClientConnectMessageBinaryOffer() throws DecodeException {
+        assertEquals(clientConnectMessageStringBinary, new ClientConnectMessage("fooBoard", true).serialize());
+        ClientConnectMessage msg = (ClientConnectMessage) NetworkMessage.deserialize(clientConnectMessageStringBinary);
+        assertEquals(msg.getBoardName(), "fooBoard");
+        assertTrue(msg.isBinary());
+        assertFalse(((ClientConnectMessage) NetworkMessage.deserialize(clientConnectMessageString)).isBinary());
+    }
+
 
     // ConnectionRefusedMessage
 
@@ -209,4 +239,114 @@ public class NetworkMessageTests {
     public void testConnectionRefusedMessageSerializeIllegalChars() throws DecodeException {
         new ConnectionRefusedMessage("I'm afraid I can't do that ####, Dave.").serialize();
     }
+
+
+    // TextDecoder
+
+    @Test public void testTextDecoderMatchesRegexDecoder() {
+        String[] messages = {
+            ballInMessageString, ballOutMessageString, boardFuseMessageString, clientConnectMessageStringBinary,
+            "BallInMessage#12.345678901234567 -0.30000000000000004#-0.0 123456789012345678901.5#T",
+            "BallInMessage#0.1 0.2#1.00000000000000000000000001 9007199254740993.0#B",
+            "BallInMessage#x-1.5 2.5y#01.0 2.0 3.0#L",
+            "BallInMessage#1.05.0 2.0#1.0 2.0#L",
+            "BallInMessage#1.0 2.0#1.0 2.0#L##",
+            "BallInMessage#1.0 2.0#1. 2.0#L",
+            "BoardUnfuseMessage#",
+            "BoardUnfuseMessage##",
+            "ClientConnectMessage#",
+            "ClientConnectMessage#foo#text",
+            "TeleportInMessage#1.0 1.0#a##c#d",
+            "Ball\rInMessage#0.0 0.0#0.0 0.0#L",
+            "BallInMessage",
+        };
+        for (String message : messages) {
+            assertEquals(message, decodeToString(true, message), decodeToString(false, message));
+        }
+    }
+
+    /**
+     * @return the class and serialization of message decoded with either decoder, or "failed"
+     */
+    private static String decodeToString(boolean withRegex, String message) {
+        try {
+            NetworkMessage decoded = withRegex
+                    ? NetworkMessage.deserializeWithRegex(message)
+                    : NetworkMessage.deserialize(message);
+            return decoded.getClass().getSimpleName() + " " + decoded.serialize();
+        } catch (DecodeException e) {
+            return "failed";
+        }
+    }
+
+
+    // Binary serialization
+
+    @Test public void testBinaryRoundTripVectsAndBoardSide() throws DecodeException {
+        byte[] frame = new BallOutMessage(vPos, vNeg, BoardSide.RIGHT).serializeBinary();
+        assertEquals(NetworkMessage.BINARY_HEADER_LENGTH + 2 * 16 + 1, frame.length);
+        assertTrue(NetworkMessage.isBinaryTag(frame[0]));
+        BallOutMessage msg = (BallOutMessage) NetworkMessage.deserializeBinary(frame, frame.length);
+        assertEquals(msg.getBallPos(), vPos);
+        assertEquals(msg.getBallVel(), vNeg);
+        assertEquals(msg.getFromSide(), BoardSide.RIGHT);
+    }
+
+    @Test public void testBinaryRoundTripStrings() throws DecodeException {
+        byte[] frame = new BoardFuseMessage("f\u00f6\u00f6Board", BoardSide.TOP).serializeBinary();
+        BoardFuseMessage msg = (BoardFuseMessage) NetworkMessage.deserializeBinary(frame, frame.length);
+        assertEquals(msg.getBoardName(), "f\u00f6\u00f6Board");
+        assertEquals(msg.getSide(), BoardSide.TOP);
+    }
+
+    @Test(expected=NetworkMessage.DecodeException.class)
+    public void testBinaryDeserializeTruncated() throws DecodeException {
+        byte[] frame = new BallInMessage(vZero, vZero, BoardSide.LEFT).serializeBinary();
+        NetworkMessage.deserializeBinary(Arrays.copyOf(frame, frame.length - 1), frame.length - 1);
+    }
+
+    @Test(expected=NetworkMessage.DecodeException.class)
+    public void testBinaryDeserializeBadTag() throws DecodeException {
+        byte[] frame = new BoardUnfuseMessage(BoardSide.BOTTOM).serializeBinary();
+        frame[0] = 0x1F;
+        NetworkMessage.deserializeBinary(frame, frame.length);
+    }
+
+    @Test public void testMixedStream() throws IOException, DecodeException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageWriter out = new MessageWriter(bytes);
+        out.write(new ClientConnectMessage("fooBoard", true));
+        out.setBinary(true);
+        out.write(new BallInMessage(vPos, vNeg, BoardSide.BOTTOM));
+        out.setBinary(false);
+        out.write(new BoardUnfuseMessage(BoardSide.LEFT));
+        out.flush();
+        bytes.write("BoardUnfuseMessage#T\r\n".getBytes("UTF-8"));
+
+        MessageReader in = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(((ClientConnectMessage) in.read()).isBinary());
+        assertEquals(((BallInMessage) in.read()).getBallVel(), vNeg);
+        assertEquals(((BoardUnfuseMessage) in.read()).getSide(), BoardSide.LEFT);
+        assertEquals(((BoardUnfuseMessage) in.read()).getSide(), BoardSide.TOP);
+        assertNull(in.read());
+    }
+
+    @Test public void testWriterCoalesces() throws IOException, DecodeException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageWriter out = new MessageWriter(bytes);
+        out.write(new BoardUnfuseMessage(BoardSide.LEFT));
+        out.write(new BoardUnfuseMessage(BoardSide.TOP));
+        out.write(new BallInMessage(vPos, vNeg, BoardSide.BOTTOM));
+        assertEquals(0, bytes.size());
+
+        out.flush();
+        out.flush();
+        assertEquals(3, out.getMessages());
+        assertEquals(1, out.getFlushes());
+        MessageReader in = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(((BoardUnfuseMessage) in.read()).getSide(), BoardSide.LEFT);
+        assertEquals(((BoardUnfuseMessage) in.read()).getSide(), BoardSide.TOP);
+        assertEquals(((BallInMessage) in.read()).getBallVel(), vNeg);
+        assertNull(in.read());
+    }
 }
@@ -0,0 +1,186 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import physics.Vect;
+import server.AuthoredMessage;
+import server.ClientHandler;
+import server.NioSelector;
+import common.Constants.BoardSide;
+import common.netprotocol.BallInMessage;
+import common.netprotocol.BallOutMessage;
+import common.netprotocol.BoardUnfuseMessage;
+import common.netprotocol.ClientConnectMessage;
+import common.netprotocol.ConnectionRefusedMessage;
+import common.netprotocol.NetworkMessage;
+
+/**
+ * Tests for how NioClientHandler splits the bytes a client sends into messages. Each test
+ * connects a client channel over loopback to an NioSelector running on a thread of its
+ * own, writes bytes to it, and checks the messages the handler passes on to the server.
+ * Writes are made one at a time, with a pause after each, so that the handler sees each
+ * one in a read of its own.
+ *
+ * Testing strategy:
+ * - a text line split across reads, ending in \r\n
+ * - a binary frame split inside its header, and again inside its body
+ * - text lines and binary frames mixed in one read
+ * - a line longer than the handler accepts ends the connection
+ * - a client killed after a flush gets the messages queued for it before the connection ends,
+ *   even when there are more of them than the socket buffers hold
+ */
+public class NioClientHandlerTest {
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final long PAUSE_MILLIS = 50;
+    private static final int QUEUED_BEFORE_KILL = 100000;
+
+    private final BlockingQueue<AuthoredMessage> queue = new LinkedBlockingQueue<AuthoredMessage>();
+    private final BlockingQueue<ClientHandler> deadClients = new LinkedBlockingQueue<ClientHandler>();
+    private SocketChannel client;
+
+    @Test public void testSplitReads() throws Exception {
+        connect();
+        try {
+            byte[] line = "BallInMessage#0.0 0.0#1.0 2.0#L\r\n".getBytes("UTF-8");
+            write(line, 0, 5);
+            write(line, 5, line.length - 1);
+            write(line, line.length - 1, line.length);
+            byte[] frame = new BallOutMessage(new Vect(1, 2), new Vect(-3, 4), BoardSide.TOP).serializeBinary();
+            write(frame, 0, 1);
+            write(frame, 1, NetworkMessage.BINARY_HEADER_LENGTH);
+            write(frame, NetworkMessage.BINARY_HEADER_LENGTH, frame.length - 2);
+            write(frame, frame.length - 2, frame.length);
+
+            assertEquals("BallInMessage#0.0 0.0#1.0 2.0#L", next().serialize());
+            assertEquals("BallOutMessage#1.0 2.0#-3.0 4.0#T", next().serialize());
+            assertTrue(queue.isEmpty());
+            assertTrue(deadClients.isEmpty());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test public void testMixedFrames() throws Exception {
+        connect();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write("BoardUnfuseMessage#L\n".getBytes("UTF-8"));
+            bytes.write(new BallInMessage(new Vect(5, 6), new Vect(7, 8), BoardSide.RIGHT).serializeBinary());
+            bytes.write("BoardUnfuseMessage#T\r\n".getBytes("UTF-8"));
+            bytes.write(new BoardUnfuseMessage(BoardSide.BOTTOM).serializeBinary());
+            byte[] all = bytes.toByteArray();
+            write(all, 0, all.length);
+
+            assertEquals("BoardUnfuseMessage#L", next().serialize());
+            assertEquals("BallInMessage#5.0 6.0#7.0 8.0#R", next().serialize());
+            assertEquals("BoardUnfuseMessage#T", next().serialize());
+            assertEquals("BoardUnfuseMessage#B", next().serialize());
+            assertTrue(deadClients.isEmpty());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test public void testOverlongLine() throws Exception {
+        connect();
+        try {
+            byte[] line = new byte[100 * 1024];
+            Arrays.fill(line, (byte) 'a');
+            try {
+                write(line, 0, line.length);
+            } catch (IOException e) {
+                // the handler may hang up before it has all of the line
+            }
+            assertNotNull(deadClients.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue(queue.isEmpty());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test public void testKillAfterFlush() throws Exception {
+        connect();
+        try {
+            byte[] line = (new ClientConnectMessage("taken").serialize() + "\n").getBytes("UTF-8");
+            write(line, 0, line.length);
+            AuthoredMessage connect = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(connect);
+            ClientHandler handler = connect.getClientHandler();
+
+            // more than the socket buffers hold, so the handler must wait for the client to read
+            StringBuilder expected = new StringBuilder();
+            BoardUnfuseMessage unfuse = new BoardUnfuseMessage(BoardSide.LEFT);
+            for (int i = 0; i < QUEUED_BEFORE_KILL; i++) {
+                handler.send(unfuse);
+                expected.append(unfuse.serialize()).append('\n');
+            }
+            ConnectionRefusedMessage refused = new ConnectionRefusedMessage("name taken");
+            handler.send(refused);
+            expected.append(refused.serialize()).append('\n');
+            handler.killAfterFlush();
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+            while (client.read(buffer) >= 0) {
+                received.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            assertEquals(expected.toString(), new String(received.toByteArray(), StandardCharsets.UTF_8));
+            assertSame(handler, deadClients.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue(deadClients.isEmpty());
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Connect client to a new NioSelector that passes messages to queue
+     */
+    private void connect() throws IOException {
+        NioSelector selector = new NioSelector(queue, deadClients);
+        Thread thread = new Thread(selector, "NioSelector-test");
+        thread.setDaemon(true);
+        thread.start();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        client.socket().setTcpNoDelay(true);
+        selector.accept(server.accept());
+        server.close();
+    }
+
+    /**
+     * Write bytes[from, to) to the server, then give it time to read them
+     */
+    private void write(byte[] bytes, int from, int to) throws IOException, InterruptedException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, from, to - from);
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+        Thread.sleep(PAUSE_MILLIS);
+    }
+
+    /**
+     * @return the next message the handler passed on
+     */
+    private NetworkMessage next() throws InterruptedException {
+        AuthoredMessage message = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(message);
+        return message.getMessage();
+    }
+}
@@ -0,0 +1,155 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import physics.Vect;
+import client.PingballClient;
+import common.Constants.BoardSide;
+import common.netprotocol.BallInMessage;
+
+/**
+ * Tests for how a PingballClient takes the messages a server sends it. Each test runs a
+ * headless client on a thread of its own, connected over loopback to a server socket the
+ * test writes to.
+ *
+ * Testing strategy:
+ * - a paused client sent more messages than its incoming ring holds keeps reading them
+ *   without the reader ever finding the ring full, and handles every one on resume
+ */
+public class PingballClientTest {
+    private static final String BOARD = "boards/testing/emptyBoard.pb";
+    private static final int BURSTS = 5;
+    private static final int BURST_SIZE = 500;
+    private static final long PAUSE_MILLIS = 100;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test public void testPausedClientKeepsReading() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        TestClient client = new TestClient();
+        client.setBoard(BOARD);
+        client.pause();
+        client.connectToServer(server.getInetAddress().getHostAddress(), server.getLocalPort());
+        Socket socket = server.accept();
+        try {
+            startClient(client);
+
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            String line = new BallInMessage(new Vect(10, 10), new Vect(0, 0), BoardSide.TOP).serialize() + "\n";
+            for (int i = 0; i < BURSTS; i++) {
+                for (int j = 0; j < BURST_SIZE; j++) {
+                    out.write(line);
+                }
+                out.flush();
+                Thread.sleep(PAUSE_MILLIS);
+            }
+
+            int sent = BURSTS * BURST_SIZE;
+            assertTrue(sent > client.getIncomingMessages().capacity());
+            assertTrue(await(client, HELD, sent));
+            assertEquals(0, client.getIncomingMessages().getFullCount());
+
+            client.resume();
+            assertTrue(await(client, BALLS, sent));
+            assertEquals(0, (int) ask(client, HELD));
+        } finally {
+            socket.close();
+            server.close();
+        }
+    }
+
+    /**
+     * A PingballClient whose controls the test can use
+     */
+    private static class TestClient extends PingballClient {
+        TestClient() {
+            super(true, 0, false, false, 1, false);
+        }
+
+        @Override public void setBoard(String path) {
+            super.setBoard(path);
+        }
+
+        @Override public void connectToServer(String hostname, int port) throws IOException {
+            super.connectToServer(hostname, port);
+        }
+
+        @Override public void pause() {
+            super.pause();
+        }
+
+        @Override public void resume() {
+            super.resume();
+        }
+    }
+
+    private interface Question {
+        int ask(PingballClient client);
+    }
+
+    private static final Question HELD = new Question() {
+        public int ask(PingballClient client) {
+            return client.getHeldMessageCount();
+        }
+    };
+
+    private static final Question BALLS = new Question() {
+        public int ask(PingballClient client) {
+            return client.getBoard().getBalls().size();
+        }
+    };
+
+    /**
+     * Run client's main loop on a daemon thread
+     */
+    private static void startClient(final PingballClient client) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                client.startClient();
+            }
+        }, "PingballClient-test");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the answer to question, asked on client's own thread
+     */
+    private static Integer ask(final PingballClient client, final Question question) throws InterruptedException {
+        final BlockingQueue<Integer> answer = new LinkedBlockingQueue<Integer>();
+        client.invokeLater(new Runnable() {
+            public void run() {
+                answer.add(question.ask(client));
+            }
+        });
+        Integer result = answer.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(result);
+        return result;
+    }
+
+    /**
+     * @return true if the answer to question, asked on client's own thread, comes to be
+     *         count within the timeout
+     */
+    private static boolean await(PingballClient client, Question question, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (ask(client, question) == count) {
+                return true;
+            }
+            Thread.sleep(PAUSE_MILLIS);
+        }
+        return false;
+    }
+}
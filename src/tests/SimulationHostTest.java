@@ -0,0 +1,52 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.Test;
+
+import client.Ball;
+import client.Board;
+import server.SimulationHost;
+
+/**
+ * Tests for SimulationHost.
+ *
+ * Testing strategy:
+ * - a ball leaving a hosted board through a fused wall arrives on the board fused to it,
+ *   in the same timestep, and the boards' snapshots follow it
+ */
+public class SimulationHostTest {
+
+    private Hashtable<String, ArrayList<String>> keyupToTriggers = new Hashtable<String, ArrayList<String>>();
+    private Hashtable<String, ArrayList<String>> keydownToTriggers = new Hashtable<String, ArrayList<String>>();
+
+    @Test
+    public void simulationHostTest() {
+        Board left = new Board("left", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+        Board right = new Board("right", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+        left.addBall(new Ball("ball1", 18.5, 10, 20, 0));
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(left);
+        boards.add(right);
+        SimulationHost host = new SimulationHost(boards, 2);
+        try {
+            host.fuse("left", "right", true);
+            host.tick();
+
+            assertEquals(0, left.getBalls().size());
+            assertEquals(1, right.getBalls().size());
+            assertEquals(0, right.getBalls().get(0).getX(), 0);
+            assertEquals(20, right.getBalls().get(0).getVx(), 0);
+            assertEquals(0, host.getSnapshot("left").getBallCount());
+
+            host.tick();
+            assertEquals(1, host.getSnapshot("right").getBallCount());
+        } finally {
+            host.shutdown();
+        }
+    }
+}
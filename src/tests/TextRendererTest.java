@@ -0,0 +1,50 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import org.junit.Test;
+
+import client.Ball;
+import client.Board;
+import client.TextRenderer;
+
+/**
+ * Tests for TextRenderer.
+ *
+ * Testing strategy:
+ * - the first frame is drawn whole, after clearing the screen
+ * - a frame with no changes draws nothing
+ * - a frame with changes draws only the cells that changed, as one run per row
+ * - after reset, the next frame is drawn whole again
+ */
+public class TextRendererTest {
+
+    private Hashtable<String, ArrayList<String>> keyupToTriggers = new Hashtable<String, ArrayList<String>>();
+    private Hashtable<String, ArrayList<String>> keydownToTriggers = new Hashtable<String, ArrayList<String>>();
+
+    @Test
+    public void textRendererTest(){
+        Board board = new Board("board1", 0, 0, 0, keyupToTriggers, keydownToTriggers);
+        Ball ball = new Ball("ball1", 1, 2, 0, 0);
+        board.addBall(ball);
+        TextRenderer renderer = new TextRenderer();
+
+        String first = renderer.render(board.getBoardRep());
+        assertTrue(first.startsWith("\u001b[2J\u001b[1;1H"));
+        assertTrue(first.contains(board.toString()));
+        assertEquals("", renderer.render(board.getBoardRep()));
+
+        // moving the ball one cell right clears row 3, column 2 and draws column 3, in one run
+        // (terminal rows and columns count from 1)
+        ball.putInBoardRep(board, true);
+        ball.setPosition(2, 2);
+        ball.putInBoardRep(board, false);
+        assertEquals("\u001b[4;3H *\u001b[23;1H", renderer.render(board.getBoardRep()));
+
+        renderer.reset();
+        assertEquals(first.replace("*", " ").length(), renderer.render(board.getBoardRep()).length());
+    }
+}